@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * The minimal App Engine environment needed to create datastore keys outside of a request.
+ *
+ * Install it from a @Setup method of a Scope.Thread state: the environment is per thread.
+ */
+class BenchmarkEnvironment implements ApiProxy.Environment {
+
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    static void install() {
+        ApiProxy.setEnvironmentForCurrentThread(new BenchmarkEnvironment());
+    }
+
+    @Override
+    public String getAppId() {
+        return "benchmark";
+    }
+
+    @Override
+    public String getModuleId() {
+        return "default";
+    }
+
+    @Override
+    public String getVersionId() {
+        return "1";
+    }
+
+    @Override
+    public String getEmail() {
+        return null;
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+        return false;
+    }
+
+    @Override
+    public boolean isAdmin() {
+        return false;
+    }
+
+    @Override
+    public String getAuthDomain() {
+        return null;
+    }
+
+    @Override
+    public String getRequestNamespace() {
+        return "";
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public long getRemainingMillis() {
+        return Long.MAX_VALUE;
+    }
+}
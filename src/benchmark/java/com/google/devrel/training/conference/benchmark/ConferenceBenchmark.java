@@ -0,0 +1,108 @@
+package com.google.devrel.training.conference.benchmark;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceView;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+
+/**
+ * Benchmarks of the Conference methods on the serialization path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConferenceBenchmark {
+
+    private Conference conference;
+
+    private ConferenceForm form;
+
+    private ConferenceForm otherForm;
+
+    private String websafeKey;
+
+    private ConferenceView view;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.install();
+        Date start = new Date(1_450_000_000_000L);
+        Date end = new Date(1_450_200_000_000L);
+        List<String> topics = Arrays.asList("Cloud", "Java", "Web", "Mobile", "Big Data");
+        form = new ConferenceForm("Devoxx", "A conference for developers", topics, "Antwerp",
+                start, end, 3000);
+        otherForm = new ConferenceForm("Devoxx UK", "A conference for developers", topics,
+                "London", start, end, 1200);
+        conference = new Conference(1, "organizer", form);
+        conference.updateOrganizerDisplayName("Organizer");
+        websafeKey = conference.getWebsafeKey();
+        view = conference.toView(null);
+    }
+
+    @Benchmark
+    public Conference updateWithConferenceForm() {
+        // Alternate between two forms so every call changes the queried properties.
+        conference.updateWithConferenceForm(otherForm);
+        conference.updateWithConferenceForm(form);
+        return conference;
+    }
+
+    @Benchmark
+    public String toStringConference() {
+        return conference.toString();
+    }
+
+    @Benchmark
+    public List<String> getTopics() {
+        return conference.getTopics();
+    }
+
+    @Benchmark
+    public Date getStartDate() {
+        return conference.getStartDate();
+    }
+
+    @Benchmark
+    public Date getEndDate() {
+        return conference.getEndDate();
+    }
+
+    @Benchmark
+    public String encodeWebsafeKey() {
+        return conference.getWebsafeKey();
+    }
+
+    @Benchmark
+    public ConferenceView buildView() {
+        return conference.toView(null);
+    }
+
+    @Benchmark
+    public ConferenceView reuseView() {
+        return conference.toView(view);
+    }
+
+    @Benchmark
+    public Key<Conference> decodeWebsafeKey() {
+        return Key.create(websafeKey);
+    }
+}
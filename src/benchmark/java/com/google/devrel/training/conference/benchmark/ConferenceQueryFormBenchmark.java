@@ -0,0 +1,65 @@
+package com.google.devrel.training.conference.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * Benchmarks of building the Objectify query of a ConferenceQueryForm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConferenceQueryFormBenchmark {
+
+    private static final Field[] FIELDS = Field.values();
+
+    private static final Operator[] OPERATORS = Operator.values();
+
+    @Param({ "1", "10", "50" })
+    private int filters;
+
+    private ConferenceQueryForm form;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.install();
+        // The plan is logged at INFO on every call, keep it out of the console.
+        Logger.getLogger(ConferenceQueryForm.class.getName()).setLevel(Level.WARNING);
+        form = new ConferenceQueryForm();
+        for (int i = 0; i < filters; i++) {
+            Field field = FIELDS[i % FIELDS.length];
+            Operator operator = OPERATORS[i % OPERATORS.length];
+            String value = field == Field.CITY || field == Field.TOPIC
+                    ? "value" + i : String.valueOf(i % 12 + 1);
+            form.filter(new Filter(field, operator, value));
+        }
+    }
+
+    @Benchmark
+    public Query<Conference> getQuery() {
+        return form.getQuery();
+    }
+}
@@ -0,0 +1,68 @@
+package com.google.devrel.training.conference.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+
+/**
+ * Benchmarks of the Profile registrations with growing numbers of registrations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileBenchmark {
+
+    @Param({ "10", "1000", "10000" })
+    private int registrations;
+
+    private Profile profile;
+
+    private Key<Conference> lastRegistration;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.install();
+        profile = new Profile("123456789", "example", "example@gmail.com",
+                TeeShirtSize.NOT_SPECIFIED);
+        for (int i = 0; i < registrations; i++) {
+            // Spread over a few organizers, like corporate accounts registering their staff.
+            lastRegistration = Key.create(Key.create(Profile.class, "organizer" + i % 10),
+                    Conference.class, i + 1);
+            profile.registerForConference(lastRegistration);
+        }
+    }
+
+    @Benchmark
+    public boolean isRegisteredFor() {
+        return profile.isRegisteredFor(lastRegistration);
+    }
+
+    @Benchmark
+    public List<Key<Conference>> getConferenceKeys() {
+        return profile.getConferenceKeys();
+    }
+
+    @Benchmark
+    public List<String> getConferenceKeysToAttend() {
+        return profile.getConferenceKeysToAttend();
+    }
+}
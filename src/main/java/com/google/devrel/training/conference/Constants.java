@@ -14,4 +14,72 @@ public class Constants {
     public static final String API_EXPLORER_CLIENT_ID = Constant.API_EXPLORER_CLIENT_ID;
 
     public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "RECENT_ANNOUNCEMENTS";
+    public static final int NEARLY_SOLD_OUT_SEATS = 5;
+    public static final int ANNOUNCEMENT_CACHE_SECONDS = 60;
+
+    public static final String CONFIRMATION_EMAIL_QUEUE = "confirmationEmails";
+    public static final int CONFIRMATION_EMAIL_BATCH_SIZE = 100;
+    public static final int CONFIRMATION_EMAIL_LEASE_SECONDS = 60;
+    public static final int CONFIRMATION_EMAIL_RETRY_SECONDS = 30;
+    public static final long CONFIRMATION_EMAIL_LEASE_MARGIN_MILLIS = 10 * 1000;
+    public static final long CONFIRMATION_EMAIL_DRAIN_MILLIS = 50 * 1000;
+
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 100;
+    public static final int RESIDUAL_SCAN_CHUNK = 1000;
+    public static final long RESIDUAL_SCAN_MILLIS = 10 * 1000;
+    public static final int MAX_WEEK_BUCKETS = 8;
+    public static final int MAX_MONTH_BUCKETS = 36;
+    public static final int UPCOMING_DAYS = 14;
+    public static final int MAX_UPCOMING_DAYS = 365;
+
+    public static final int MAX_SEAT_SHARDS = 20;
+    public static final String MEMCACHE_SEATS_AVAILABLE_PREFIX = "SEATS_AVAILABLE_";
+    public static final int SEATS_AVAILABLE_CACHE_SECONDS = 30;
+
+    public static final int CONFERENCE_CACHE_L1_SIZE = 1000;
+    public static final long CONFERENCE_CACHE_L1_MILLIS = 10 * 1000;
+    public static final String MEMCACHE_CONFERENCE_PREFIX = "CONFERENCE_";
+    public static final int CONFERENCE_CACHE_L2_SECONDS = 10 * 60;
+    public static final int CONFERENCE_VIEW_CACHE_SIZE = 1000;
+
+    public static final String MEMCACHE_PROFILE_PREFIX = "PROFILE_";
+    public static final int PROFILE_CACHE_SECONDS = 30 * 60;
+    public static final int PROFILE_MIGRATION_BATCH_SIZE = 200;
+    public static final long PROFILE_MIGRATION_MILLIS = 5 * 60 * 1000;
+    public static final int CONFERENCE_MIGRATION_BATCH_SIZE = 200;
+    public static final long CONFERENCE_MIGRATION_MILLIS = 5 * 60 * 1000;
+    public static final int DISPLAY_NAME_REFRESH_BATCH_SIZE = 200;
+    public static final int MAX_BATCH_GET_KEYS = 1000;
+
+    public static final int MAX_BULK_REGISTRATIONS = 500;
+    public static final int BULK_REGISTRATION_TRANSACTION_SIZE = 20;
+
+    public static final int CONFERENCE_IMPORT_BATCH_SIZE = 400;
+    public static final int CONFERENCE_IMPORT_MAX_ERRORS = 100;
+    public static final long CONFERENCE_IMPORT_MILLIS = 45 * 1000;
+    public static final int MAX_BATCH_PUT_ENTITIES = 500;
+    public static final int MAX_QUEUE_ADD_TASKS = 100;
+
+    public static final int EXPORT_BATCH_SIZE = 500;
+    public static final long EXPORT_MILLIS = 50 * 1000;
+    public static final long EXPORT_MAX_BYTES = 24 * 1024 * 1024;
+    public static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    public static final String MEMCACHE_QUERY_PREFIX = "QUERY_";
+    public static final String MEMCACHE_QUERY_GENERATION_PREFIX = "QUERY_GENERATION_";
+    public static final int QUERY_CACHE_SECONDS = 10 * 60;
+
+    public static final String SEARCH_INDEX_PROPERTY = "conference.searchIndex";
+    public static final long SEARCH_INDEX_REFRESH_MILLIS = 60 * 1000;
+    public static final long SEARCH_INDEX_REFRESH_OVERLAP_MILLIS = 60 * 1000;
+    public static final int SEARCH_INDEX_BUILD_CHUNK = 500;
+    public static final int MAX_SEARCH_TERMS = 10;
+    public static final int MAX_SEARCH_PREFIX_EXPANSIONS = 50;
+
+    public static final int MAX_METRICS_ENDPOINTS = 100;
+
+    public static final String REQUEST_LOG_SAMPLE_RATE_PROPERTY = "conference.log.sampleRate";
+    public static final long REQUEST_LOG_SLOW_MILLIS = 1000;
+    public static final int REQUEST_LOG_MAX_EVENTS = 50;
 }
\ No newline at end of file
@@ -3,20 +3,29 @@ package com.google.devrel.training.conference.domain;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.googlecode.objectify.condition.IfNotDefault;
+import com.googlecode.objectify.condition.IfNotNull;
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.TimeBuckets;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnLoad;
 import com.googlecode.objectify.annotation.Parent;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Conference class stores conference information.
@@ -30,6 +39,12 @@ public class Conference {
     public static final String CITY = "city";
     public static final String TOPICS = "topics";
     public static final String SEATS_AVAILABLE = "seatsAvailable";
+    public static final String MONTH = "month";
+    public static final String MAX_ATTENDEES = "maxAttendees";
+    public static final String START_DATE = "startDate";
+    public static final String START_WEEK = "startWeek";
+    public static final String START_YEAR_MONTH = "startYearMonth";
+    public static final String UPDATED_AT = "updatedAt";
     
     private static final List<String> DEFAULT_TOPICS = ImmutableList.of("Default", "Topic");
 
@@ -65,6 +80,13 @@ public class Conference {
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     private String organizerUserId;
 
+    /**
+     * The display name of the organizer, denormalized from the organizer's Profile.
+     *
+     * Kept in sync by saveProfile so that serializing a Conference doesn't need a Profile read.
+     */
+    private String organizerDisplayName;
+
     /**
      * Topics related to this conference.
      */
@@ -94,6 +116,24 @@ public class Conference {
     @Index
     private int month;
 
+    /**
+     * The ISO week of startDate as yyyyww, 0 without a startDate.
+     *
+     * startDate itself is not indexed, date range queries scan the week or month buckets
+     * overlapping the range instead, see TimeBuckets.
+     */
+    @Index(IfNotDefault.class)
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private int startWeek;
+
+    /**
+     * The month of startDate as yyyymm, 0 without a startDate. Unlike month, it tells the years
+     * apart.
+     */
+    @Index(IfNotDefault.class)
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private int startYearMonth;
+
     /**
      * The maximum capacity of this conference.
      */
@@ -102,10 +142,59 @@ public class Conference {
 
     /**
      * Number of seats currently available.
+     *
+     * This is the seat counter of Conferences whose seats are not sharded. When they are, the
+     * shards are the only counter and this is a snapshot taken at the last update of the
+     * Conference, until SeatAllocator.applySeatsAvailable replaces it with the sum of the shards.
      */
     @Index
     private int seatsAvailable;
 
+    /**
+     * When a ConferenceForm last changed a queried property, the name or the description, so
+     * that the in-memory indexes of the other instances can pick up the change. Null when none
+     * has changed since this property was introduced.
+     */
+    @Index(IfNotNull.class)
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Date updatedAt;
+
+    /**
+     * Number of SeatShard entities holding the seats, 0 when seatsAvailable is the only counter.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private int seatShards;
+
+    /**
+     * Names of the properties used by queries that changed since this Conference was loaded.
+     */
+    @Ignore
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Set<String> changedQueryFields = new HashSet<>(0);
+
+    /**
+     * True when bookSeats or giveBackSeats moved this Conference in or out of the nearly sold
+     * out set since it was loaded.
+     */
+    @Ignore
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private boolean nearlySoldOutChanged;
+
+    /**
+     * True when the name or the description changed since this Conference was loaded.
+     */
+    @Ignore
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private boolean searchTextChanged;
+
+    /**
+     * True when this Conference was saved before the time buckets and still has to be saved
+     * again for the date range queries to find it.
+     */
+    @Ignore
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private boolean timeBucketsPending;
+
     /**
      * Just making the default constructor private.
      */
@@ -119,6 +208,9 @@ public class Conference {
         this.profileKey = Key.create(Profile.class, organizerUserId);
         this.organizerUserId = organizerUserId;
         updateWithConferenceForm(conferenceForm);
+        // The number of shards is fixed once the Conference is created.
+        this.seatShards = Math.max(0, Math.min(conferenceForm.getSeatShards(),
+                Math.min(Constants.MAX_SEAT_SHARDS, maxAttendees)));
     }
 
     public long getId() {
@@ -138,9 +230,14 @@ public class Conference {
         return profileKey;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getKey() {
+        return Key.create(profileKey, Conference.class, id);
+    }
+
     // Get a String version of the key
     public String getWebsafeKey() {
-        return Key.create(profileKey, Conference.class, id).getString();
+        return getKey().getString();
     }
 
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
@@ -151,10 +248,15 @@ public class Conference {
     /**
      * Returns organizer's display name.
      *
+     * Uses the denormalized display name when it is set, and only loads the organizer's Profile
+     * for Conferences saved before the display name was denormalized.
+     *
      * @return organizer's display name. If there is no Profile, return his/her userId.
      */
     public String getOrganizerDisplayName() {
-        // Profile organizer = ofy().load().key(Key.create(Profile.class, organizerUserId)).now();
+        if (organizerDisplayName != null) {
+            return organizerDisplayName;
+        }
         Profile organizer = ofy().load().key(getProfileKey()).now();
         if (organizer == null) {
             return organizerUserId;
@@ -163,6 +265,23 @@ public class Conference {
         }
     }
 
+    /**
+     * Returns true when the organizer's display name is known without loading the Profile.
+     * @return true when the organizer's display name is denormalized or already resolved.
+     */
+    public boolean hasOrganizerDisplayName() {
+        return organizerDisplayName != null;
+    }
+
+    /**
+     * Updates the denormalized display name of the organizer.
+     *
+     * @param organizerDisplayName the organizer's current display name.
+     */
+    public void updateOrganizerDisplayName(String organizerDisplayName) {
+        this.organizerDisplayName = organizerDisplayName;
+    }
+
     /**
      * Returns a defensive copy of topics if not null.
      * @return a defensive copy of topics if not null.
@@ -195,6 +314,25 @@ public class Conference {
         return month;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getStartWeek() {
+        return startWeek;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getStartYearMonth() {
+        return startYearMonth;
+    }
+
+    /**
+     * Returns true when this Conference has to be saved again to be indexed in its time buckets.
+     * @return true when the time buckets are missing from the datastore.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isTimeBucketsPending() {
+        return timeBucketsPending;
+    }
+
     public int getMaxAttendees() {
         return maxAttendees;
     }
@@ -203,14 +341,70 @@ public class Conference {
         return seatsAvailable;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getSeatShards() {
+        return seatShards;
+    }
+
+    /**
+     * Returns true when the seats are split across SeatShard entities.
+     * @return true when the seats are sharded.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isSeatsSharded() {
+        return seatShards > 0;
+    }
+
+    /**
+     * Updates the snapshot of the seats available with the sum of the seat shards.
+     *
+     * @param seatsAvailable the number of seats available across all the shards.
+     */
+    public void updateSeatsAvailable(final int seatsAvailable) {
+        Preconditions.checkState(isSeatsSharded(), "The seats of this conference are not sharded");
+        this.seatsAvailable = seatsAvailable;
+    }
+
     /**
      * Updates the Conference with ConferenceForm.
-     * This method is used upon object creation as well as updating existing Conferences.
+     * This method is used upon object creation as well as updating existing Conferences whose
+     * seats are not sharded.
+     *
+     * @param conferenceForm contains form data sent from the client.
+     * @throws IllegalArgumentException when maxAttendees is less than the seats allocated.
+     */
+    public void updateWithConferenceForm(ConferenceForm conferenceForm) {
+        Preconditions.checkState(!isSeatsSharded(),
+                "The seats allocated of a sharded conference are counted by its shards");
+        updateWithConferenceForm(conferenceForm, maxAttendees - seatsAvailable);
+    }
+
+    /**
+     * Updates the Conference with ConferenceForm, given the number of seats already allocated.
+     *
+     * The shards of a sharded Conference have to be resized to the new maxAttendees along with
+     * it, see SeatAllocator.resizeShards.
      *
      * @param conferenceForm contains form data sent from the client.
+     * @param seatsAllocated the number of seats allocated, summed from the shards when the seats
+     *     are sharded.
+     * @throws IllegalArgumentException when maxAttendees is less than the seats allocated.
      */
     @SuppressWarnings("static-access")
-	public void updateWithConferenceForm(ConferenceForm conferenceForm) {
+	public void updateWithConferenceForm(ConferenceForm conferenceForm, int seatsAllocated) {
+        // Check maxAttendees value against the number of already allocated seats.
+        if (conferenceForm.getMaxAttendees() < seatsAllocated) {
+            throw new IllegalArgumentException(seatsAllocated + " seats are already allocated, "
+                    + "but you tried to set maxAttendees to " + conferenceForm.getMaxAttendees());
+        }
+        String oldName = this.name;
+        String oldDescription = this.description;
+        List<String> oldTopics = this.topics;
+        String oldCity = this.city;
+        int oldMonth = this.month;
+        Date oldStartDate = this.startDate;
+        int oldMaxAttendees = this.maxAttendees;
+
         this.name = conferenceForm.getName();
         this.description = conferenceForm.getDescription();
         List<String> topics = conferenceForm.getTopics();
@@ -228,30 +422,154 @@ public class Conference {
             // Calendar.MONTH is zero based, so adding 1.
             this.month = calendar.get(calendar.MONTH) + 1;
         }
-        // Check maxAttendees value against the number of already allocated seats.
-        int seatsAllocated = maxAttendees - seatsAvailable;
-        if (conferenceForm.getMaxAttendees() < seatsAllocated) {
-            throw new IllegalArgumentException(seatsAllocated + " seats are already allocated, "
-                    + "but you tried to set maxAttendees to " + conferenceForm.getMaxAttendees());
-        }
+        this.startWeek = TimeBuckets.weekBucket(this.startDate);
+        this.startYearMonth = TimeBuckets.monthBucket(this.startDate);
         // The initial number of seatsAvailable is the same as maxAttendees.
         // However, if there are already some seats allocated, we should subtract that numbers.
         this.maxAttendees = conferenceForm.getMaxAttendees();
-        this.seatsAvailable = this.maxAttendees - seatsAllocated;
+        updateSeats(this.maxAttendees - seatsAllocated);
+
+        // Remember which queried properties changed, for the QueryCache.
+        if (!Objects.equal(oldName, name)) {
+            changedQueryFields.add(NAME);
+        }
+        if (!Objects.equal(oldTopics, topics)) {
+            changedQueryFields.add(TOPICS);
+        }
+        if (!Objects.equal(oldCity, city)) {
+            changedQueryFields.add(CITY);
+        }
+        if (oldMonth != month) {
+            changedQueryFields.add(MONTH);
+        }
+        if (!Objects.equal(oldStartDate, startDate)) {
+            changedQueryFields.add(START_DATE);
+        }
+        if (oldMaxAttendees != maxAttendees) {
+            changedQueryFields.add(MAX_ATTENDEES);
+        }
+        if (!Objects.equal(oldName, name) || !Objects.equal(oldDescription, description)) {
+            searchTextChanged = true;
+        }
+        if (!changedQueryFields.isEmpty() || searchTextChanged) {
+            updatedAt = new Date();
+        }
     }
 
     public void bookSeats(final int number) {
         if (seatsAvailable < number) {
             throw new IllegalArgumentException("There are no seats available.");
         }
-        seatsAvailable = seatsAvailable - number;
+        updateSeats(seatsAvailable - number);
     }
 
     public void giveBackSeats(final int number) {
         if (seatsAvailable + number > maxAttendees) {
             throw new IllegalArgumentException("The number of seats will exceeds the capacity.");
         }
-        seatsAvailable = seatsAvailable + number;
+        updateSeats(seatsAvailable + number);
+    }
+
+    private void updateSeats(final int seatsAvailable) {
+        if (isNearlySoldOut(this.seatsAvailable) != isNearlySoldOut(seatsAvailable)) {
+            nearlySoldOutChanged = !nearlySoldOutChanged;
+        }
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    /**
+     * Returns whether a Conference with the given number of seats left is nearly sold out.
+     *
+     * @param seatsAvailable the number of seats available.
+     * @return true when some seats are left, but fewer than Constants.NEARLY_SOLD_OUT_SEATS.
+     */
+    public static boolean isNearlySoldOut(final long seatsAvailable) {
+        return seatsAvailable > 0 && seatsAvailable < Constants.NEARLY_SOLD_OUT_SEATS;
+    }
+
+    /**
+     * Returns whether bookSeats or giveBackSeats moved this Conference in or out of the nearly
+     * sold out set.
+     *
+     * @return true when the NearlySoldOut set has to be updated.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isNearlySoldOutChanged() {
+        return nearlySoldOutChanged;
+    }
+
+    /**
+     * Returns the response view of this Conference.
+     *
+     * Resolve the organizer display name first, otherwise this loads the organizer's Profile.
+     *
+     * @param previous a view of an earlier version of this Conference, may be null.
+     * @return previous when it still shows this version, or a copy of it when only the seats
+     *     available changed, a new view otherwise.
+     */
+    public ConferenceView toView(ConferenceView previous) {
+        String organizerDisplayName = getOrganizerDisplayName();
+        if (previous != null && previous.getId() == id
+                && Objects.equal(previous.getName(), name)
+                && Objects.equal(previous.getDescription(), description)
+                && Objects.equal(previous.getOrganizerDisplayName(), organizerDisplayName)
+                && Objects.equal(previous.getTopics(), topics)
+                && Objects.equal(previous.getCity(), city)
+                && Objects.equal(previous.getStartDate(), startDate)
+                && Objects.equal(previous.getEndDate(), endDate)
+                && previous.getMonth() == month
+                && previous.getMaxAttendees() == maxAttendees) {
+            return previous.withSeatsAvailable(seatsAvailable);
+        }
+        return new ConferenceView(id, getWebsafeKey(), name, description, organizerDisplayName,
+                getTopics(), city, getStartDate(), getEndDate(), month, maxAttendees,
+                seatsAvailable);
+    }
+
+    /**
+     * Fills in the time buckets of Conferences saved before they existed, so that the next save
+     * indexes them.
+     *
+     * This doesn't count as a change of startDate: loading a Conference must not invalidate the
+     * cached date range queries, ConferenceMigration does once it has saved the buckets.
+     */
+    @OnLoad
+    void fillTimeBuckets() {
+        if (startDate != null && startWeek == 0) {
+            startWeek = TimeBuckets.weekBucket(startDate);
+            startYearMonth = TimeBuckets.monthBucket(startDate);
+            timeBucketsPending = true;
+        }
+    }
+
+    /**
+     * Returns the names of the queried properties that changed since this Conference was loaded
+     * or its changes were last applied, see ConferenceChanges.
+     *
+     * @return the names of the changed properties.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Set<String> getChangedQueryFields() {
+        return Collections.unmodifiableSet(changedQueryFields);
+    }
+
+    /**
+     * Returns whether the name or the description changed since this Conference was loaded or
+     * its changes were last applied.
+     *
+     * @return true when the ConferenceTextIndex has to be updated.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isSearchTextChanged() {
+        return searchTextChanged;
+    }
+
+    /**
+     * Forgets the changes once they have been applied to the caches and the indexes.
+     */
+    public void clearChanges() {
+        changedQueryFields.clear();
+        searchTextChanged = false;
     }
 
     @Override
@@ -0,0 +1,35 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.List;
+
+/**
+ * One page of Conference views, together with the cursor for the next page.
+ *
+ * A page holds at most the requested number of views, but may hold fewer, or none, while more
+ * Conferences follow: when the query applies filters in memory, the scan for a page stops at a
+ * time budget. Clients must keep passing the cursor back until nextCursor is null.
+ */
+public class ConferencePage {
+
+    private List<ConferenceView> items;
+
+    /**
+     * Opaque cursor to pass back for the next page, null when there are no more results.
+     */
+    private String nextCursor;
+
+    public ConferencePage() {}
+
+    public ConferencePage(List<ConferenceView> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ConferenceView> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,121 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The response of the Conference endpoints: an immutable copy of one version of a Conference.
+ *
+ * It serializes like a Conference, but the topics, the dates and the websafe key are computed
+ * once, when the view is built by {@link Conference#toView(ConferenceView)}, rather than on
+ * every serialization. Views are shared between requests by the ConferenceViewCache.
+ */
+public class ConferenceView {
+
+    private final long id;
+    private final String websafeKey;
+    private final String name;
+    private final String description;
+    private final String organizerDisplayName;
+    private final List<String> topics;
+    private final String city;
+    private final Date startDate;
+    private final Date endDate;
+    private final int month;
+    private final int maxAttendees;
+    private final int seatsAvailable;
+
+    ConferenceView(long id, String websafeKey, String name, String description,
+                   String organizerDisplayName, List<String> topics, String city, Date startDate,
+                   Date endDate, int month, int maxAttendees, int seatsAvailable) {
+        this.id = id;
+        this.websafeKey = websafeKey;
+        this.name = name;
+        this.description = description;
+        this.organizerDisplayName = organizerDisplayName;
+        this.topics = topics;
+        this.city = city;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.month = month;
+        this.maxAttendees = maxAttendees;
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    /**
+     * Returns a copy of this view with another number of seats available, sharing everything
+     * else.
+     *
+     * @param seatsAvailable the number of seats available.
+     * @return this view when the number doesn't change, a copy otherwise.
+     */
+    ConferenceView withSeatsAvailable(int seatsAvailable) {
+        if (seatsAvailable == this.seatsAvailable) {
+            return this;
+        }
+        return new ConferenceView(id, websafeKey, name, description, organizerDisplayName, topics,
+                city, startDate, endDate, month, maxAttendees, seatsAvailable);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getOrganizerDisplayName() {
+        return organizerDisplayName;
+    }
+
+    /**
+     * Returns the topics, an immutable list.
+     * @return the topics, null if there are none.
+     */
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    /**
+     * Returns the starting date. The Date is shared by every reader of this view, don't modify
+     * it.
+     * @return the starting date, null if it is not known.
+     */
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    /**
+     * Returns the ending date. The Date is shared by every reader of this view, don't modify
+     * it.
+     * @return the ending date, null if it is not known.
+     */
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+}
@@ -0,0 +1,92 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The set of nearly sold out Conferences, the source of the announcement.
+ *
+ * A single entity, updated whenever a registration moves a Conference across the threshold, so
+ * the announcement doesn't need a query.
+ */
+@Entity
+public class NearlySoldOut {
+
+    private static final String ID = "nearlySoldOut";
+
+    @Id
+    private String id = ID;
+
+    /**
+     * The names of the nearly sold out Conferences, keyed by their websafe keys.
+     */
+    private Map<String, String> conferences = new HashMap<>();
+
+    public NearlySoldOut() {}
+
+    /**
+     * Returns the key of the single NearlySoldOut entity.
+     *
+     * @return the key.
+     */
+    public static Key<NearlySoldOut> key() {
+        return Key.create(NearlySoldOut.class, ID);
+    }
+
+    public Map<String, String> getConferences() {
+        return Collections.unmodifiableMap(conferences);
+    }
+
+    /**
+     * Adds or removes a Conference.
+     *
+     * @param websafeConferenceKey the String representation of the Conference Key.
+     * @param name the name of the Conference.
+     * @param nearlySoldOut whether the Conference is nearly sold out.
+     * @return true when the set changed.
+     */
+    public boolean update(String websafeConferenceKey, String name, boolean nearlySoldOut) {
+        if (nearlySoldOut) {
+            return !Objects.equal(conferences.put(websafeConferenceKey, name), name);
+        }
+        return conferences.remove(websafeConferenceKey) != null;
+    }
+
+    /**
+     * Replaces the whole set.
+     *
+     * @param conferences the names of the nearly sold out Conferences, keyed by websafe key.
+     * @return true when the set changed.
+     */
+    public boolean replace(Map<String, String> conferences) {
+        if (this.conferences.equals(conferences)) {
+            return false;
+        }
+        this.conferences = new HashMap<>(conferences);
+        return true;
+    }
+
+    /**
+     * Returns the announcement for the set.
+     *
+     * @return the announcement, or null when no Conference is nearly sold out.
+     */
+    public String getMessage() {
+        if (conferences.isEmpty()) {
+            return null;
+        }
+        List<String> names = new ArrayList<>(conferences.values());
+        Collections.sort(names);
+        return "Last chance to attend! The following conferences are nearly sold out: "
+                + Joiner.on(", ").skipNulls().join(names);
+    }
+}
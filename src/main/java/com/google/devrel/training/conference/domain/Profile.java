@@ -1,13 +1,23 @@
 package com.google.devrel.training.conference.domain;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import com.google.appengine.repackaged.com.google.common.collect.ImmutableList;
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.RequestLog;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.IgnoreSave;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
 
 
 @Entity
@@ -20,8 +30,20 @@ public class Profile {
 	@Id
 	String userId;
 	
-	// List of conferences the user has registered to attend
-	private List<String> conferenceKeysToAttend = new ArrayList<>(0);
+	/**
+	 * The Conferences the user has registered to attend: the ids of the Conferences, keyed by
+	 * the userId of their organizer, which is the name of their parent Profile key.
+	 *
+	 * Not initialized here: Objectify fails to load the sets into a map that already exists.
+	 */
+	private Map<String, Set<Long>> registrations;
+
+	/**
+	 * The websafe keys of the Conferences the user has registered to attend, the format used
+	 * before registrations. Only loaded, to migrate the Profiles saved in that format.
+	 */
+	@IgnoreSave
+	private List<String> conferenceKeysToAttend;
     
     /**
      * Public constructor for Profile.
@@ -36,6 +58,7 @@ public class Profile {
     	this.displayName = displayName;
     	this.mainEmail = mainEmail;
     	this.teeShirtSize = teeShirtSize;
+    	this.registrations = new HashMap<>(0);
     }
     
 	public String getDisplayName() {
@@ -67,24 +90,133 @@ public class Profile {
     }
     
     
+    /**
+     * Returns the websafe keys of the Conferences the user has registered to attend.
+     *
+     * The keys are encoded on every call, use {@link #getConferenceKeys()} or
+     * {@link #isRegisteredFor(Key)} in the backend.
+     *
+     * @return the websafe keys, in no particular order.
+     */
     public List<String> getConferenceKeysToAttend() {
-        return ImmutableList.copyOf(conferenceKeysToAttend);
+        List<Key<Conference>> keys = getConferenceKeys();
+        List<String> websafeKeys = new ArrayList<>(keys.size());
+        for (Key<Conference> key : keys) {
+            websafeKeys.add(key.getString());
+        }
+        return websafeKeys;
     }
-    
-    public void addToConferenceKeysToAttend(String conferenceKey) {
-        conferenceKeysToAttend.add(conferenceKey);
+
+    /**
+     * Returns the keys of the Conferences the user has registered to attend.
+     * @return the keys, in no particular order.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public List<Key<Conference>> getConferenceKeys() {
+        List<Key<Conference>> keys = new ArrayList<>(getRegistrationCount());
+        for (Map.Entry<String, Set<Long>> entry : registrations.entrySet()) {
+            Key<Profile> organizerKey = Key.create(Profile.class, entry.getKey());
+            for (long conferenceId : entry.getValue()) {
+                keys.add(Key.create(organizerKey, Conference.class, conferenceId));
+            }
+        }
+        return keys;
     }
-    
+
+    /**
+     * Returns the number of Conferences the user has registered to attend.
+     * @return the number of registrations.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getRegistrationCount() {
+        int count = 0;
+        for (Set<Long> conferenceIds : registrations.values()) {
+            count += conferenceIds.size();
+        }
+        return count;
+    }
+
     /**
-     * Remove the conferenceId from conferenceIdsToAttend.
+     * Returns whether the user has registered to attend the given Conference.
      *
-     * @param conferenceKey a websafe String representation of the Conference Key.
+     * @param conferenceKey the key of the Conference.
+     * @return true when the user is registered.
      */
-    public void unregisterFromConference(String conferenceKey) {
-        if (conferenceKeysToAttend.contains(conferenceKey)) {
-            conferenceKeysToAttend.remove(conferenceKey);
-        } else {
+    public boolean isRegisteredFor(Key<Conference> conferenceKey) {
+        Set<Long> conferenceIds = registrations.get(conferenceKey.getParent().getName());
+        return conferenceIds != null && conferenceIds.contains(conferenceKey.getId());
+    }
+
+    /**
+     * Registers the user to attend the given Conference.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return false when the user was already registered.
+     */
+    public boolean registerForConference(Key<Conference> conferenceKey) {
+        String organizerUserId = conferenceKey.getParent().getName();
+        Set<Long> conferenceIds = registrations.get(organizerUserId);
+        if (conferenceIds == null) {
+            conferenceIds = new HashSet<>(2);
+            registrations.put(organizerUserId, conferenceIds);
+        }
+        return conferenceIds.add(conferenceKey.getId());
+    }
+
+    /**
+     * Removes the registration for the given Conference.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @throws IllegalArgumentException when the user is not registered.
+     */
+    public void unregisterFromConference(Key<Conference> conferenceKey) {
+        String organizerUserId = conferenceKey.getParent().getName();
+        Set<Long> conferenceIds = registrations.get(organizerUserId);
+        if (conferenceIds == null || !conferenceIds.remove(conferenceKey.getId())) {
             throw new IllegalArgumentException("Invalid conferenceKey: " + conferenceKey);
         }
+        if (conferenceIds.isEmpty()) {
+            registrations.remove(organizerUserId);
+        }
+    }
+
+    /**
+     * Returns whether this Profile was loaded with registrations in the old format, which are
+     * only dropped from the datastore once it is saved again.
+     *
+     * @return true when the Profile has to be saved to complete its migration.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isMigrationPending() {
+        return conferenceKeysToAttend != null;
+    }
+
+    /**
+     * Moves the registrations stored as websafe keys into registrations.
+     */
+    @OnLoad
+    void migrateConferenceKeysToAttend() {
+        if (registrations == null) {
+            // Loaded without any registrations.
+            registrations = new HashMap<>(0);
+        }
+        if (conferenceKeysToAttend != null) {
+            for (String websafeKey : conferenceKeysToAttend) {
+                try {
+                    registerForConference(Key.<Conference>create(websafeKey));
+                } catch (IllegalArgumentException e) {
+                    RequestLog.warning(e, "Dropping invalid conferenceKey of user '%s': %s",
+                            userId, websafeKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the registrations in the old format once saved, they are not saved any more.
+     */
+    @OnSave
+    void completeMigration() {
+        conferenceKeysToAttend = null;
     }
 }
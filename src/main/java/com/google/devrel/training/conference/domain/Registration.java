@@ -0,0 +1,109 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * The registration of a user to attend a Conference, one entry of its roster.
+ *
+ * A child of the attendee's Profile, so it is written in the same entity group as the
+ * Profile's registrations, and indexed by Conference for the roster query.
+ */
+@Entity
+public class Registration {
+
+    public static final String CONFERENCE_KEY = "conferenceKey";
+
+    /**
+     * The websafe key of the Conference, so that a user has at most one Registration per
+     * Conference.
+     */
+    @Id
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private String id;
+
+    /**
+     * Holds the attendee's Profile key as the parent.
+     */
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Profile> profileKey;
+
+    @Index
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The display name of the attendee when the Registration was last saved.
+     */
+    private String displayName;
+
+    /**
+     * When the user registered, null for registrations made before Registration entities.
+     */
+    private Date registeredAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private Registration() {}
+
+    public Registration(final Profile profile, final Key<Conference> conferenceKey,
+                        final Date registeredAt) {
+        this.id = conferenceKey.getString();
+        this.profileKey = Key.create(Profile.class, profile.getUserId());
+        this.conferenceKey = conferenceKey;
+        this.displayName = profile.getDisplayName();
+        this.registeredAt = registeredAt == null ? null : new Date(registeredAt.getTime());
+    }
+
+    /**
+     * Returns the key of the Registration of a user for a Conference.
+     *
+     * @param userId the userId of the attendee.
+     * @param conferenceKey the key of the Conference.
+     * @return the key of the Registration.
+     */
+    public static Key<Registration> key(final String userId, final Key<Conference> conferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), Registration.class,
+                conferenceKey.getString());
+    }
+
+    public String getUserId() {
+        return profileKey.getName();
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Updates the denormalized display name of the attendee.
+     *
+     * @param displayName the attendee's current display name.
+     */
+    public void updateDisplayName(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * Returns a defensive copy of registeredAt if not null.
+     * @return a defensive copy of registeredAt if not null.
+     */
+    public Date getRegisteredAt() {
+        return registeredAt == null ? null : new Date(registeredAt.getTime());
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+}
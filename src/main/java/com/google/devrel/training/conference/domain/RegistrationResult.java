@@ -0,0 +1,34 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The outcome of the registration of one user of a group booking.
+ */
+public class RegistrationResult {
+
+    private final String userId;
+
+    private final Boolean result;
+
+    /**
+     * Why the user was not registered, empty when the registration succeeded.
+     */
+    private final String reason;
+
+    public RegistrationResult(String userId, Boolean result, String reason) {
+        this.userId = userId;
+        this.result = result;
+        this.reason = reason;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Boolean getResult() {
+        return result;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
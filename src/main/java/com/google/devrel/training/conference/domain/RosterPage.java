@@ -0,0 +1,31 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.List;
+
+/**
+ * One page of the roster of a Conference, together with the cursor for the next page.
+ */
+public class RosterPage {
+
+    private List<Registration> items;
+
+    /**
+     * Opaque cursor to pass back for the next page, null when there are no more results.
+     */
+    private String nextCursor;
+
+    public RosterPage() {}
+
+    public RosterPage(List<Registration> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Registration> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,99 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.base.Preconditions;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * One shard of the seat counter of a Conference.
+ *
+ * Shards are root entities so that each one is its own entity group: registrations that hit
+ * different shards don't contend with each other or with the Conference entity.
+ */
+@Entity
+public class SeatShard {
+
+    /**
+     * The websafe key of the Conference followed by the shard index.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The number of seats this shard started with.
+     */
+    private int capacity;
+
+    /**
+     * Number of seats of this shard currently available.
+     */
+    private int seatsAvailable;
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private SeatShard() {}
+
+    public SeatShard(final Key<Conference> conferenceKey, final int index, final int capacity) {
+        Preconditions.checkArgument(capacity >= 0, "The capacity can't be negative");
+        this.id = shardId(conferenceKey, index);
+        this.capacity = capacity;
+        this.seatsAvailable = capacity;
+    }
+
+    /**
+     * Returns the key of the shard with the given index.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param index the index of the shard.
+     * @return the key of the shard.
+     */
+    public static Key<SeatShard> key(final Key<Conference> conferenceKey, final int index) {
+        return Key.create(SeatShard.class, shardId(conferenceKey, index));
+    }
+
+    private static String shardId(final Key<Conference> conferenceKey, final int index) {
+        return conferenceKey.getString() + "-" + index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public void bookSeat() {
+        if (seatsAvailable <= 0) {
+            throw new IllegalArgumentException("There are no seats available.");
+        }
+        seatsAvailable--;
+    }
+
+    /**
+     * Changes the capacity of this shard, keeping the seats already allocated.
+     *
+     * @param capacity the new capacity, at least the number of seats allocated.
+     */
+    public void resize(final int capacity) {
+        int allocated = this.capacity - seatsAvailable;
+        Preconditions.checkArgument(capacity >= allocated,
+                "The capacity can't be less than the seats allocated");
+        this.capacity = capacity;
+        this.seatsAvailable = capacity - allocated;
+    }
+
+    public void giveBackSeat() {
+        if (seatsAvailable >= capacity) {
+            throw new IllegalArgumentException("The number of seats will exceeds the capacity.");
+        }
+        seatsAvailable++;
+    }
+}
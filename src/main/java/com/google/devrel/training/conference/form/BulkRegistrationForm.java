@@ -0,0 +1,27 @@
+package com.google.devrel.training.conference.form;
+
+import java.util.List;
+
+/**
+ * Pojo representing a group booking on the client side.
+ */
+public class BulkRegistrationForm {
+    /**
+     * The userIds of the users to register, each of them must have a Profile.
+     */
+    private List<String> userIds;
+
+    private BulkRegistrationForm() {}
+
+    /**
+     * Constructor for BulkRegistrationForm, solely for unit test.
+     * @param userIds The userIds of the users to register.
+     */
+    public BulkRegistrationForm(List<String> userIds) {
+        this.userIds = userIds;
+    }
+
+    public List<String> getUserIds() {
+        return userIds;
+    }
+}
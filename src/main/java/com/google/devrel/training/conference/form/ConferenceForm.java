@@ -44,6 +44,13 @@ public class ConferenceForm {
      */
     private int maxAttendees;
 
+    /**
+     * The number of counter shards to split the seats across, 0 for a single counter.
+     *
+     * Use more shards for conferences that expect a burst of registrations.
+     */
+    private int seatShards;
+
     @SuppressWarnings("unused")
 	private ConferenceForm() {}
 
@@ -59,6 +66,22 @@ public class ConferenceForm {
      */
     public ConferenceForm(String name, String description, List<String> topics, String city,
                           Date startDate, Date endDate, int maxAttendees) {
+        this(name, description, topics, city, startDate, endDate, maxAttendees, 0);
+    }
+
+    /**
+     * Public constructor is solely for Unit Test.
+     * @param name
+     * @param description
+     * @param topics
+     * @param city
+     * @param startDate
+     * @param endDate
+     * @param maxAttendees
+     * @param seatShards
+     */
+    public ConferenceForm(String name, String description, List<String> topics, String city,
+                          Date startDate, Date endDate, int maxAttendees, int seatShards) {
         this.name = name;
         this.description = description;
         this.topics = topics == null ? null : ImmutableList.copyOf(topics);
@@ -66,6 +89,7 @@ public class ConferenceForm {
         this.startDate = startDate == null ? null : new Date(startDate.getTime());
         this.endDate = endDate == null ? null : new Date(endDate.getTime());
         this.maxAttendees = maxAttendees;
+        this.seatShards = seatShards;
     }
 
     public String getName() {
@@ -95,4 +119,8 @@ public class ConferenceForm {
     public int getMaxAttendees() {
         return maxAttendees;
     }
+
+    public int getSeatShards() {
+        return seatShards;
+    }
 }
@@ -1,53 +1,75 @@
 package com.google.devrel.training.conference.form;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.RequestLog;
+import com.google.devrel.training.conference.service.TimeBuckets;
 
 import com.googlecode.objectify.cmd.Query;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * A simple Java object (POJO) representing a query options for Conference.
  */
 public class ConferenceQueryForm {
 
-    private static final Logger LOG = Logger.getLogger(ConferenceQueryForm.class.getName());
-
     /**
      * Enum representing a field type.
      */
     public static enum FieldType {
-        STRING, INTEGER
+        STRING, INTEGER, DATE
     }
 
     /**
      * Enum representing a field.
      */
     public static enum Field {
-        CITY("city", FieldType.STRING),
-        TOPIC("topics", FieldType.STRING),
-        MONTH("month", FieldType.INTEGER),
-        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER);
+        CITY("city", FieldType.STRING, 0.02),
+        TOPIC("topics", FieldType.STRING, 0.05),
+        MONTH("month", FieldType.INTEGER, 1.0 / 12),
+        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER, 0.05),
+        /**
+         * The day the conference starts, yyyy-MM-dd in UTC. Not indexed itself, ranges are
+         * scanned through the time buckets.
+         */
+        START_DATE("startDate", FieldType.DATE, 1.0 / 365);
 
         private String fieldName;
 
         private FieldType fieldType;
 
-        private Field(String fieldName, FieldType fieldType) {
+        /**
+         * Estimated fraction of the Conferences matched by an equality filter on this field.
+         */
+        private double equalitySelectivity;
+
+        private Field(String fieldName, FieldType fieldType, double equalitySelectivity) {
             this.fieldName = fieldName;
             this.fieldType = fieldType;
+            this.equalitySelectivity = equalitySelectivity;
         }
 
-        private String getFieldName() {
+        String getFieldName() {
             return this.fieldName;
         }
+
+        FieldType getFieldType() {
+            return this.fieldType;
+        }
+
+        double getEqualitySelectivity() {
+            return this.equalitySelectivity;
+        }
     }
 
     /**
@@ -67,11 +89,11 @@ public class ConferenceQueryForm {
             this.queryOperator = queryOperator;
         }
 
-        private String getQueryOperator() {
+        String getQueryOperator() {
             return this.queryOperator;
         }
 
-        private boolean isInequalityFilter() {
+        boolean isInequalityFilter() {
             return this.queryOperator.contains("<") || this.queryOperator.contains(">") ||
                     this.queryOperator.contains("!");
         }
@@ -104,6 +126,25 @@ public class ConferenceQueryForm {
         public String getValue() {
             return value;
         }
+
+        /**
+         * Returns the value normalized as the type of the field: trimmed Strings, Integers and
+         * dates as a canonical yyyy-MM-dd String.
+         *
+         * The query, the search index and the QueryCache key all use this value, so that a
+         * filter always matches what its cache key says.
+         */
+        @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+        public Object getTypedValue() {
+            switch (field.fieldType) {
+                case INTEGER:
+                    return Integer.valueOf(value.trim());
+                case DATE:
+                    return TimeBuckets.formatDay(TimeBuckets.parseDay(value));
+                default:
+                    return value == null ? null : value.trim();
+            }
+        }
     }
 
     /**
@@ -112,28 +153,16 @@ public class ConferenceQueryForm {
     private List<Filter> filters = new ArrayList<>(0);
 
     /**
-     * Holds the first inequalityFilter for checking the feasibility of the whole query.
+     * The maximum number of Conferences to return, the default page size when not set.
      */
-    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    private Filter inequalityFilter;
-
-    public ConferenceQueryForm() {}
+    private Integer pageSize;
 
     /**
-     * Checks the feasibility of the whole query.
+     * The opaque cursor returned with the previous page, null for the first page.
      */
-    private void checkFilters() {
-        for (Filter filter : this.filters) {
-            if (filter.operator.isInequalityFilter()) {
-                // Only one inequality filter is allowed.
-                if (inequalityFilter != null && !inequalityFilter.field.equals(filter.field)) {
-                    throw new IllegalArgumentException(
-                            "Inequality filter is allowed on only one field.");
-                }
-                inequalityFilter = filter;
-            }
-        }
-    }
+    private String cursor;
+
+    public ConferenceQueryForm() {}
 
     /**
      * Getter for filters.
@@ -151,47 +180,89 @@ public class ConferenceQueryForm {
      * @return this for method chaining.
      */
     public ConferenceQueryForm filter(Filter filter) {
-        if (filter.operator.isInequalityFilter()) {
-            // Only allows inequality filters on a single field.
-            if (inequalityFilter != null && !inequalityFilter.field.equals(filter.field)) {
-                throw new IllegalArgumentException(
-                        "Inequality filter is allowed on only one field.");
-            }
-            inequalityFilter = filter;
-        }
         filters.add(filter);
         return this;
     }
 
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
     /**
-     * Returns an Objectify Query object for the specified filters.
+     * Sets the page size and the cursor of the page to fetch.
      *
-     * @return an Objectify Query.
+     * @param pageSize the maximum number of Conferences to return.
+     * @param cursor the cursor returned with the previous page, null for the first page.
+     * @return this for method chaining.
      */
-    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    public Query<Conference> getQuery() {
-        // First check the feasibility of inequality filters.
-        checkFilters();
-        Query<Conference> query = ofy().load().type(Conference.class);
-        if (inequalityFilter == null) {
-            // Order by name.
-            query = query.order("name");
-        } else {
-            // If we have any inequality filters, order by the field first.
-            query = query.order(inequalityFilter.field.getFieldName());
-            query = query.order("name");
-        }
+    public ConferenceQueryForm page(Integer pageSize, String cursor) {
+        this.pageSize = pageSize;
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * Returns a canonical String for the filters: the same set of filters gives the same String
+     * whatever order they were added in and however their values were typed.
+     *
+     * @return the canonical form of the filters.
+     */
+    public String canonicalFilters() {
+        List<String> terms = new ArrayList<>(filters.size());
         for (Filter filter : this.filters) {
-            // Applies filters in order.
-            if (filter.field.fieldType == FieldType.STRING) {
-                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
-                        filter.operator.getQueryOperator()), filter.value);
-            } else if (filter.field.fieldType == FieldType.INTEGER) {
-                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
-                        filter.operator.getQueryOperator()), Integer.parseInt(filter.value));
+            Object typedValue = filter.getTypedValue();
+            String value = typedValue == null ? "" : String.valueOf(typedValue);
+            try {
+                terms.add(filter.field.getFieldName() + filter.operator.getQueryOperator()
+                        + URLEncoder.encode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
             }
         }
-        LOG.info(query.toString());
-        return query;
+        Collections.sort(terms);
+        return Joiner.on('&').join(terms);
+    }
+
+    /**
+     * Returns the names of the Conference properties the filters apply to.
+     *
+     * @return the filtered property names.
+     */
+    public Set<String> filteredFields() {
+        Set<String> fields = new TreeSet<>();
+        for (Filter filter : this.filters) {
+            fields.add(filter.field.getFieldName());
+        }
+        return fields;
+    }
+
+    /**
+     * Plans the query: decides which filters run in the datastore and which ones are applied
+     * to the results in memory.
+     *
+     * @return the plan of the query.
+     */
+    public ConferenceQueryPlan plan() {
+        ConferenceQueryPlan plan = ConferenceQueryPlan.plan(filters);
+        // Only formatted when the request log is written
+        RequestLog.info("%s", plan);
+        return plan;
+    }
+
+    /**
+     * Returns an Objectify Query object for the filters the datastore runs.
+     *
+     * Any filters left out by the plan must be applied to the results with
+     * {@link ConferenceQueryPlan#matches(Conference)}.
+     *
+     * @return an Objectify Query.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Query<Conference> getQuery() {
+        return plan().getQuery();
     }
 }
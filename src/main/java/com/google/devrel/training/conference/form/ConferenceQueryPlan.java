@@ -0,0 +1,309 @@
+package com.google.devrel.training.conference.form;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.FieldType;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.service.TimeBuckets;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * The plan of a Conference query.
+ *
+ * The filters on a single field, the most selective one, are pushed to the datastore; all the
+ * other filters are residual and are applied in memory to the results as they stream in. Every
+ * datastore query is therefore on a single field ordered by name, so one composite index per
+ * field covers every combination of filters, and combinations the datastore can't run (inequality
+ * filters on several fields, NE on a sorted query) are still answered.
+ *
+ * startDate is not indexed: a startDate range bounded on both sides is instead answered by a
+ * bucket scan, one equality query per week or month bucket overlapping the range, in
+ * chronological order, with all the filters applied in memory. The results of a bucket scan
+ * are therefore ordered by bucket, then by name.
+ */
+public class ConferenceQueryPlan {
+
+    /**
+     * Estimated fraction of the Conferences matched by a range filter.
+     */
+    private static final double RANGE_SELECTIVITY = 0.3;
+
+    /**
+     * Estimated fraction of the Conferences starting in one week, and in one month.
+     */
+    private static final double WEEK_SELECTIVITY = 0.005;
+    private static final double MONTH_SELECTIVITY = 0.02;
+
+    private final List<Filter> pushed;
+
+    private final List<Filter> residual;
+
+    /**
+     * The indexed bucket property and the buckets to scan, null unless this is a bucket scan.
+     */
+    private final String bucketField;
+    private final List<Integer> buckets;
+
+    private ConferenceQueryPlan(List<Filter> pushed, List<Filter> residual, String bucketField,
+                                List<Integer> buckets) {
+        this.pushed = pushed;
+        this.residual = residual;
+        this.bucketField = bucketField;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Plans a query for the given filters.
+     *
+     * @param filters the filters of the query.
+     * @return the plan.
+     */
+    static ConferenceQueryPlan plan(List<Filter> filters) {
+        // Group the filters the datastore could run by field.
+        Map<Field, List<Filter>> candidates = new LinkedHashMap<>();
+        for (Filter filter : filters) {
+            if (filter.getOperator() == Operator.NE || filter.getField() == Field.START_DATE) {
+                continue;
+            }
+            List<Filter> fieldFilters = candidates.get(filter.getField());
+            if (fieldFilters == null) {
+                fieldFilters = new ArrayList<>(2);
+                candidates.put(filter.getField(), fieldFilters);
+            }
+            fieldFilters.add(filter);
+        }
+
+        // Push down the filters of the most selective field.
+        List<Filter> pushed = Collections.emptyList();
+        double bestSelectivity = 1.0;
+        for (List<Filter> fieldFilters : candidates.values()) {
+            List<Filter> pushable = pushable(fieldFilters);
+            double selectivity = selectivity(pushable);
+            if (selectivity < bestSelectivity) {
+                bestSelectivity = selectivity;
+                pushed = pushable;
+            }
+        }
+
+        // Scan the time buckets instead when they are more selective.
+        Date[] range = startDateRange(filters);
+        if (range != null) {
+            TimeBuckets.Granularity granularity = TimeBuckets.granularity(range[0], range[1]);
+            List<Integer> buckets = TimeBuckets.buckets(range[0], range[1], granularity,
+                    Constants.MAX_MONTH_BUCKETS + 1);
+            double selectivity = buckets.size() * (granularity == TimeBuckets.Granularity.WEEK
+                    ? WEEK_SELECTIVITY : MONTH_SELECTIVITY);
+            if (buckets.size() <= Constants.MAX_MONTH_BUCKETS && selectivity < bestSelectivity) {
+                return new ConferenceQueryPlan(Collections.<Filter>emptyList(),
+                        new ArrayList<>(filters), granularity == TimeBuckets.Granularity.WEEK
+                                ? Conference.START_WEEK : Conference.START_YEAR_MONTH, buckets);
+            }
+        }
+
+        List<Filter> residual = new ArrayList<>(filters.size());
+        for (Filter filter : filters) {
+            if (!pushed.contains(filter)) {
+                residual.add(filter);
+            }
+        }
+        return new ConferenceQueryPlan(pushed, residual, null, null);
+    }
+
+    /**
+     * Returns the first and last day matched by the startDate filters, or null unless the
+     * range is bounded on both sides.
+     */
+    private static Date[] startDateRange(List<Filter> filters) {
+        Date first = null;
+        Date last = null;
+        for (Filter filter : filters) {
+            if (filter.getField() != Field.START_DATE || filter.getOperator() == Operator.NE) {
+                continue;
+            }
+            Date day = TimeBuckets.parseDay(filter.getValue());
+            Operator operator = filter.getOperator();
+            if (operator == Operator.EQ || operator == Operator.GTEQ || operator == Operator.GT) {
+                Date from = operator == Operator.GT ? TimeBuckets.addDays(day, 1) : day;
+                first = first == null || from.after(first) ? from : first;
+            }
+            if (operator == Operator.EQ || operator == Operator.LTEQ || operator == Operator.LT) {
+                Date to = operator == Operator.LT ? TimeBuckets.addDays(day, -1) : day;
+                last = last == null || to.before(last) ? to : last;
+            }
+        }
+        return first == null || last == null ? null : new Date[] {first, last};
+    }
+
+    /**
+     * Returns the filters of one field the datastore can run together: a single equality
+     * filter, or else all the range filters.
+     */
+    private static List<Filter> pushable(List<Filter> fieldFilters) {
+        for (Filter filter : fieldFilters) {
+            if (filter.getOperator() == Operator.EQ) {
+                return Collections.singletonList(filter);
+            }
+        }
+        return fieldFilters;
+    }
+
+    private static double selectivity(List<Filter> filters) {
+        double selectivity = 1.0;
+        for (Filter filter : filters) {
+            selectivity *= filter.getOperator() == Operator.EQ
+                    ? filter.getField().getEqualitySelectivity() : RANGE_SELECTIVITY;
+        }
+        return selectivity;
+    }
+
+    /**
+     * Returns the datastore query for the pushed filters.
+     *
+     * @return an Objectify Query.
+     */
+    public Query<Conference> getQuery() {
+        Query<Conference> query = ofy().load().type(Conference.class);
+        if (!pushed.isEmpty() && pushed.get(0).getOperator().isInequalityFilter()) {
+            // With inequality filters, order by the field first.
+            query = query.order(pushed.get(0).getField().getFieldName());
+        }
+        query = query.order(Conference.NAME);
+        for (Filter filter : pushed) {
+            query = query.filter(String.format("%s %s", filter.getField().getFieldName(),
+                    filter.getOperator().getQueryOperator()), filter.getTypedValue());
+        }
+        return query;
+    }
+
+    /**
+     * Returns true when the query is answered by scanning time buckets.
+     *
+     * @return true for a bucket scan.
+     */
+    public boolean isBucketScan() {
+        return buckets != null;
+    }
+
+    /**
+     * Returns the buckets to scan, in order.
+     *
+     * @return the buckets, empty when the range matches no day.
+     */
+    public List<Integer> getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Returns the datastore query of one bucket of a bucket scan, ordered by name.
+     *
+     * @param bucket one of the buckets to scan.
+     * @return an Objectify Query.
+     */
+    public Query<Conference> getBucketQuery(int bucket) {
+        return ofy().load().type(Conference.class).filter(bucketField, bucket)
+                .order(Conference.NAME);
+    }
+
+    /**
+     * Returns true when some filters must be applied in memory.
+     *
+     * @return true when there are residual filters.
+     */
+    public boolean hasResidual() {
+        return !residual.isEmpty();
+    }
+
+    /**
+     * Applies the residual filters to a Conference returned by the query.
+     *
+     * A filter on topics matches when any topic matches, except NE which matches when no topic
+     * is equal to the value.
+     *
+     * @param conference a Conference returned by the query.
+     * @return true when the Conference matches all the residual filters.
+     */
+    public boolean matches(Conference conference) {
+        for (Filter filter : residual) {
+            if (!matches(filter, conference)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(Filter filter, Conference conference) {
+        List<?> values = values(filter.getField(), conference);
+        Object value = filter.getTypedValue();
+        if (filter.getOperator() == Operator.NE) {
+            return !values.contains(value);
+        }
+        for (Object candidate : values) {
+            if (candidate != null && compare(filter.getOperator(), candidate, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static boolean compare(Operator operator, Object candidate, Object value) {
+        int comparison = ((Comparable) candidate).compareTo(value);
+        switch (operator) {
+            case EQ:
+                return comparison == 0;
+            case LT:
+                return comparison < 0;
+            case GT:
+                return comparison > 0;
+            case LTEQ:
+                return comparison <= 0;
+            case GTEQ:
+                return comparison >= 0;
+            default:
+                return comparison != 0;
+        }
+    }
+
+    private static List<?> values(Field field, Conference conference) {
+        switch (field) {
+            case CITY:
+                return Collections.singletonList(conference.getCity());
+            case TOPIC:
+                List<String> topics = conference.getTopics();
+                return topics == null ? Collections.emptyList() : topics;
+            case MONTH:
+                return Collections.singletonList(conference.getMonth());
+            case START_DATE:
+                return Collections.singletonList(TimeBuckets.formatDay(conference.getStartDate()));
+            default:
+                return Collections.singletonList(conference.getMaxAttendees());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (isBucketScan() ? "Buckets: " + bucketField + " in " + buckets
+                : "Pushed: " + describe(pushed)) + ", residual: " + describe(residual);
+    }
+
+    private static String describe(List<Filter> filters) {
+        List<String> terms = new ArrayList<>(filters.size());
+        for (Filter filter : filters) {
+            terms.add(filter.getField().getFieldName() + " " + filter.getOperator().getQueryOperator()
+                    + " " + (filter.getField().getFieldType() != FieldType.INTEGER
+                            ? "'" + filter.getValue() + "'" : filter.getValue()));
+        }
+        return terms.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Loads entities for a list of keys with a single datastore multi-get.
+ *
+ * Use this instead of loading keys one by one in a loop: the number of datastore round trips
+ * stays at one no matter how many keys are passed.
+ */
+public class BatchLoader {
+
+    /**
+     * The outcome of a batch load.
+     *
+     * @param <T> the entity type.
+     */
+    public static class Result<T> {
+        private final List<T> found;
+        private final List<String> missing;
+
+        private Result(List<T> found, List<String> missing) {
+            this.found = found;
+            this.missing = missing;
+        }
+
+        /**
+         * Returns the loaded entities, in the same order as the requested keys.
+         * @return the loaded entities.
+         */
+        public List<T> getFound() {
+            return found;
+        }
+
+        /**
+         * Returns the websafe keys that could not be decoded or have no entity.
+         * @return the websafe keys that could not be loaded.
+         */
+        public List<String> getMissing() {
+            return missing;
+        }
+    }
+
+    private BatchLoader() {}
+
+    /**
+     * Decodes the given websafe keys and loads all the entities in one batch.
+     *
+     * Keys that cannot be decoded and keys without an entity are reported in
+     * {@link Result#getMissing()} rather than failing the whole call.
+     *
+     * @param websafeKeys the String representations of the keys.
+     * @return the loaded entities and the missing keys.
+     */
+    public static <T> Result<T> loadWebsafe(Collection<String> websafeKeys) {
+        List<String> requested = new ArrayList<>(websafeKeys);
+        List<Key<T>> keys = new ArrayList<>(requested.size());
+        for (String websafeKey : requested) {
+            Key<T> key = null;
+            try {
+                key = Key.create(websafeKey);
+            } catch (IllegalArgumentException e) {
+                // Leave it null, it is reported as missing below.
+            }
+            keys.add(key);
+        }
+        return load(keys, requested);
+    }
+
+    /**
+     * Loads all the entities for the given keys in one batch.
+     *
+     * @param keys the keys of the entities.
+     * @return the loaded entities and the missing keys.
+     */
+    public static <T> Result<T> load(List<Key<T>> keys) {
+        return load(keys, null);
+    }
+
+    /*
+     * Without the requested websafe keys, only the keys of the missing entities get encoded.
+     */
+    private static <T> Result<T> load(List<Key<T>> keys, List<String> requested) {
+        List<Key<T>> decoded = new ArrayList<>(keys.size());
+        for (Key<T> key : keys) {
+            if (key != null) {
+                decoded.add(key);
+            }
+        }
+        Map<Key<T>, T> loaded = decoded.isEmpty()
+                ? Collections.<Key<T>, T>emptyMap()
+                : ofy().load().keys(decoded);
+
+        List<T> found = new ArrayList<>(keys.size());
+        List<String> missing = new ArrayList<>(0);
+        for (int i = 0; i < keys.size(); i++) {
+            Key<T> key = keys.get(i);
+            T entity = key == null ? null : loaded.get(key);
+            if (entity == null) {
+                missing.add(requested == null ? key.getString() : requested.get(i));
+            } else {
+                found.add(entity);
+            }
+        }
+        return new Result<>(found, missing);
+    }
+}
@@ -0,0 +1,224 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+/**
+ * Registers a group of users to attend a Conference.
+ *
+ * The seats of the whole group are reserved in a single transaction, so a group booking takes
+ * one write of the Conference (or of its shards) instead of one per user. The Profiles are then
+ * updated in transactions of {@link Constants#BULK_REGISTRATION_TRANSACTION_SIZE} Profiles each,
+ * within the entity group limit of a transaction, with their Registrations saved in the same
+ * batch. A chunk that fails is reported as failed for its users without stopping the others.
+ * The seats of the users who registered on their own in the meantime, or whose chunk failed,
+ * are given back at the end.
+ */
+public class BulkRegistration {
+
+    static final String REGISTERED = "Registration successful";
+    static final String NO_PROFILE = "Profile doesn't exist";
+    static final String ALREADY_REGISTERED = "Already registered";
+    static final String NO_SEATS = "No seats available";
+    static final String NO_CONFERENCE = "No Conference found";
+    static final String FAILED = "Registration failed, retry";
+
+    /**
+     * The seats booked or given back by one transaction.
+     */
+    private static class SeatChange {
+        private final Conference conference;
+        private final int seats;
+
+        private SeatChange(Conference conference, int seats) {
+            this.conference = conference;
+            this.seats = seats;
+        }
+    }
+
+    private BulkRegistration() {}
+
+    /**
+     * Registers the given users to attend a Conference.
+     *
+     * @param conference the Conference.
+     * @param userIds the userIds of the users to register, duplicates are ignored.
+     * @return the outcome for each user, in the order of the userIds.
+     */
+    public static List<RegistrationResult> register(Conference conference,
+                                                    Collection<String> userIds) {
+        final Key<Conference> conferenceKey = conference.getKey();
+        Map<String, RegistrationResult> results = new LinkedHashMap<>();
+
+        // Check every Profile with a single multi-get outside of any transaction
+        List<Key<Profile>> profileKeys = new ArrayList<>();
+        for (String userId : new LinkedHashSet<>(userIds)) {
+            profileKeys.add(Key.create(Profile.class, userId));
+        }
+        Map<Key<Profile>, Profile> profiles = ofy().transactionless().load().keys(profileKeys);
+        List<String> candidates = new ArrayList<>();
+        for (Key<Profile> key : profileKeys) {
+            Profile profile = profiles.get(key);
+            if (profile == null) {
+                results.put(key.getName(), failure(key.getName(), NO_PROFILE));
+            } else if (profile.isRegisteredFor(conferenceKey)) {
+                results.put(key.getName(), failure(key.getName(), ALREADY_REGISTERED));
+            } else {
+                // Keeps the order of the userIds
+                results.put(key.getName(), null);
+                candidates.add(key.getName());
+            }
+        }
+        if (candidates.isEmpty()) {
+            return new ArrayList<>(results.values());
+        }
+
+        SeatChange booked = changeSeats(conferenceKey, candidates.size(), true);
+        String refusal = booked.conference == null ? NO_CONFERENCE : NO_SEATS;
+        for (String userId : candidates.subList(booked.seats, candidates.size())) {
+            results.put(userId, failure(userId, refusal));
+        }
+
+        List<Profile> saved = new ArrayList<>(booked.seats);
+        Date registeredAt = new Date();
+        for (List<String> chunk : Lists.partition(candidates.subList(0, booked.seats),
+                Constants.BULK_REGISTRATION_TRANSACTION_SIZE)) {
+            try {
+                saved.addAll(registerChunk(conferenceKey, chunk, registeredAt, results));
+            } catch (RuntimeException e) {
+                // The transaction rolled back, its seats are given back with the others
+                RequestLog.warning(e, "Failed to register %d users to %s", chunk.size(),
+                        conferenceKey);
+                for (String userId : chunk) {
+                    results.put(userId, failure(userId, FAILED));
+                }
+            }
+        }
+
+        // Give back the seats of the users who registered on their own since the check, and of
+        // the chunks that failed
+        SeatChange givenBack = null;
+        if (saved.size() < booked.seats) {
+            givenBack = changeSeats(conferenceKey, booked.seats - saved.size(), false);
+        }
+
+        ProfileCache.putAll(saved);
+        // Drop any copy cached between the saves and the commits
+        ConferenceCache.invalidate(conferenceKey);
+        int delta = -booked.seats + (givenBack == null ? 0 : givenBack.seats);
+        if (delta != 0) {
+            Long cachedSeatsAvailable = SeatAllocator.adjustCachedSeatsAvailable(
+                    conferenceKey.getString(), delta);
+            if (booked.conference.isSeatsSharded()) {
+                NearlySoldOutTracker.seatsChanged(booked.conference, cachedSeatsAvailable, delta);
+            } else {
+                NearlySoldOutTracker.seatsChanged(booked.conference, null, -booked.seats);
+                if (givenBack != null && givenBack.conference != null) {
+                    NearlySoldOutTracker.seatsChanged(givenBack.conference, null,
+                            givenBack.seats);
+                }
+            }
+        }
+        RequestLog.put("registered", saved.size());
+        return new ArrayList<>(results.values());
+    }
+
+    /*
+     * Books (or gives back) up to the given number of seats in one transaction, none when the
+     * Conference has been deleted.
+     */
+    private static SeatChange changeSeats(final Key<Conference> conferenceKey, final int seats,
+                                          final boolean booking) {
+        return ofy().transact(new Work<SeatChange>() {
+            @Override
+            public SeatChange run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference == null) {
+                    return new SeatChange(null, 0);
+                }
+                if (conference.isSeatsSharded()) {
+                    SeatAllocator.Allocation allocation = booking
+                            ? SeatAllocator.bookSeats(conference, seats)
+                            : SeatAllocator.giveBackSeats(conference, seats);
+                    ofy().save().entities(allocation.getShards()).now();
+                    return new SeatChange(conference, allocation.getSeats());
+                }
+                int changed;
+                if (booking) {
+                    changed = Math.min(seats, conference.getSeatsAvailable());
+                    conference.bookSeats(changed);
+                } else {
+                    changed = Math.min(seats,
+                            conference.getMaxAttendees() - conference.getSeatsAvailable());
+                    conference.giveBackSeats(changed);
+                }
+                if (changed > 0) {
+                    ofy().save().entity(conference).now();
+                }
+                return new SeatChange(conference, changed);
+            }
+        });
+    }
+
+    /*
+     * Registers the users of one chunk, for whom seats have been booked, in one transaction.
+     */
+    private static List<Profile> registerChunk(final Key<Conference> conferenceKey,
+                                               final List<String> userIds,
+                                               final Date registeredAt,
+                                               Map<String, RegistrationResult> results) {
+        final Map<String, RegistrationResult> chunkResults = new LinkedHashMap<>();
+        List<Profile> saved = ofy().transact(new Work<List<Profile>>() {
+            @Override
+            public List<Profile> run() {
+                chunkResults.clear();
+                List<Key<Profile>> keys = new ArrayList<>(userIds.size());
+                for (String userId : userIds) {
+                    keys.add(Key.create(Profile.class, userId));
+                }
+                Map<Key<Profile>, Profile> profiles = ofy().load().keys(keys);
+                List<Profile> registered = new ArrayList<>(userIds.size());
+                List<Object> entities = new ArrayList<>(2 * userIds.size());
+                for (Key<Profile> key : keys) {
+                    Profile profile = profiles.get(key);
+                    if (profile == null) {
+                        chunkResults.put(key.getName(), failure(key.getName(), NO_PROFILE));
+                    } else if (!profile.registerForConference(conferenceKey)) {
+                        chunkResults.put(key.getName(),
+                                failure(key.getName(), ALREADY_REGISTERED));
+                    } else {
+                        chunkResults.put(key.getName(),
+                                new RegistrationResult(key.getName(), true, REGISTERED));
+                        registered.add(profile);
+                        entities.add(profile);
+                        entities.add(new Registration(profile, conferenceKey, registeredAt));
+                    }
+                }
+                ofy().save().entities(entities).now();
+                return registered;
+            }
+        });
+        results.putAll(chunkResults);
+        return saved;
+    }
+
+    private static RegistrationResult failure(String userId, String reason) {
+        return new RegistrationResult(userId, false, reason);
+    }
+}
@@ -0,0 +1,172 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+
+/**
+ * Read-through cache of Conferences with two tiers.
+ *
+ * The first tier is a small LRU map in this JVM with a short time to live, the second one is
+ * memcache, shared by all the instances. Both tiers hold the datastore Entity rather than the
+ * Conference, so every read gets its own Conference object that it can safely modify.
+ *
+ * Every committed save of a Conference invalidates both tiers, see ConferenceChanges. Other
+ * instances only see the change in the first tier when their entry expires, which is why its
+ * time to live is kept short.
+ */
+public class ConferenceCache {
+
+    private static final AtomicLong L1_HITS = new AtomicLong();
+    private static final AtomicLong L2_HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+
+    private static class CachedEntity {
+        private final Entity entity;
+        private final long expiresAt;
+
+        private CachedEntity(Entity entity, long expiresAt) {
+            this.entity = entity;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The in-JVM tier, in access order so that the eldest entry is the least recently used.
+     */
+    private static final Map<Key<Conference>, CachedEntity> L1 =
+            new LinkedHashMap<Key<Conference>, CachedEntity>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key<Conference>, CachedEntity> eldest) {
+                    if (size() > Constants.CONFERENCE_CACHE_L1_SIZE) {
+                        EVICTIONS.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    private ConferenceCache() {}
+
+    /**
+     * Returns the Conference with the given key, loading it from the datastore on a miss.
+     *
+     * Don't use this inside a transaction, the cached Conference is not part of it.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return the Conference, or null when there is no Conference with that key.
+     */
+    public static Conference get(Key<Conference> conferenceKey) {
+        long now = System.currentTimeMillis();
+        CachedEntity cached;
+        synchronized (L1) {
+            cached = L1.get(conferenceKey);
+            if (cached != null && cached.expiresAt <= now) {
+                L1.remove(conferenceKey);
+                cached = null;
+            }
+        }
+        if (cached != null) {
+            L1_HITS.incrementAndGet();
+            return ofy().load().fromEntity(cached.entity);
+        }
+
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object shared = memcacheService.get(memcacheKey(conferenceKey));
+        if (shared instanceof Entity) {
+            L2_HITS.incrementAndGet();
+            putL1(conferenceKey, (Entity) shared, now);
+            return ofy().load().fromEntity((Entity) shared);
+        }
+
+        MISSES.incrementAndGet();
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference != null) {
+            Entity entity = ofy().save().toEntity(conference);
+            memcacheService.put(memcacheKey(conferenceKey), entity,
+                    Expiration.byDeltaSeconds(Constants.CONFERENCE_CACHE_L2_SECONDS));
+            putL1(conferenceKey, entity, now);
+        }
+        return conference;
+    }
+
+    /**
+     * Removes the Conference from both tiers.
+     *
+     * @param conferenceKey the key of the Conference that has changed.
+     */
+    public static void invalidate(Key<Conference> conferenceKey) {
+        synchronized (L1) {
+            L1.remove(conferenceKey);
+        }
+        MemcacheServiceFactory.getMemcacheService().delete(memcacheKey(conferenceKey));
+    }
+
+    /**
+     * Removes the Conferences from both tiers, with a single memcache call.
+     *
+     * @param conferenceKeys the keys of the Conferences that have changed.
+     */
+    public static void invalidate(Collection<Key<Conference>> conferenceKeys) {
+        List<String> memcacheKeys = new ArrayList<>(conferenceKeys.size());
+        synchronized (L1) {
+            for (Key<Conference> conferenceKey : conferenceKeys) {
+                L1.remove(conferenceKey);
+                memcacheKeys.add(memcacheKey(conferenceKey));
+            }
+        }
+        MemcacheServiceFactory.getMemcacheService().deleteAll(memcacheKeys);
+    }
+
+    /**
+     * Empties the in-JVM tier.
+     */
+    public static void clear() {
+        synchronized (L1) {
+            L1.clear();
+        }
+    }
+
+    public static long getL1Hits() {
+        return L1_HITS.get();
+    }
+
+    public static long getL2Hits() {
+        return L2_HITS.get();
+    }
+
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    public static long getEvictions() {
+        return EVICTIONS.get();
+    }
+
+    private static void putL1(Key<Conference> conferenceKey, Entity entity, long now) {
+        synchronized (L1) {
+            L1.put(conferenceKey, new CachedEntity(entity,
+                    now + Constants.CONFERENCE_CACHE_L1_MILLIS));
+        }
+    }
+
+    private static String memcacheKey(Key<Conference> conferenceKey) {
+        return Constants.MEMCACHE_CONFERENCE_PREFIX + conferenceKey.getString();
+    }
+}
@@ -0,0 +1,63 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+
+/**
+ * Applies the saved changes of Conferences to the caches and the in-memory indexes.
+ *
+ * Call it once the save, or the transaction around it, has committed: a save that fails or a
+ * transaction that rolls back then never leaves a change behind in the caches or the indexes,
+ * and a transaction that is retried applies the changes of its last attempt only.
+ */
+public class ConferenceChanges {
+
+    private ConferenceChanges() {}
+
+    /**
+     * Applies the changes of a saved Conference.
+     *
+     * @param conference the Conference that has been saved.
+     */
+    public static void committed(Conference conference) {
+        committed(Collections.singletonList(conference));
+    }
+
+    /**
+     * Applies the changes of saved Conferences.
+     *
+     * Drops them from the ConferenceCache. When queried properties changed, bumps their
+     * QueryCache generations once for all the Conferences and applies the changes to the
+     * ConferenceIndex, and when the name or the description changed, to the ConferenceTextIndex.
+     *
+     * @param conferences the Conferences that have been saved.
+     */
+    public static void committed(Collection<Conference> conferences) {
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(conferences.size());
+        Set<String> changedQueryFields = new HashSet<>();
+        for (Conference conference : conferences) {
+            conferenceKeys.add(conference.getKey());
+            changedQueryFields.addAll(conference.getChangedQueryFields());
+        }
+        ConferenceCache.invalidate(conferenceKeys);
+        if (!changedQueryFields.isEmpty()) {
+            QueryCache.bumpGenerations(changedQueryFields);
+        }
+        for (Conference conference : conferences) {
+            if (!conference.getChangedQueryFields().isEmpty()) {
+                ConferenceIndex.update(conference);
+            }
+            if (conference.isSearchTextChanged()) {
+                ConferenceTextIndex.update(conference);
+            }
+            conference.clearChanges();
+        }
+    }
+}
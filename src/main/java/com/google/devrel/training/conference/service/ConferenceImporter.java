@@ -0,0 +1,366 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+
+/**
+ * Creates Conferences in bulk from the records of an import.
+ *
+ * Records are validated as they are added and buffered until a batch of
+ * {@link Constants#CONFERENCE_IMPORT_BATCH_SIZE} is full. Each batch loads the organizers'
+ * Profiles in one multi-get, allocates the ids of each organizer's Conferences as one range,
+ * saves the Conferences and their seat shards with a few concurrent batch puts, and queues the
+ * confirmation emails with batch adds. Only one batch is held at a time and the session cache is
+ * cleared after each of them, so the memory used doesn't grow with the size of the import.
+ *
+ * A batch is not saved atomically: when one of its puts fails the others may have been saved.
+ * The importer tracks the last line of the records handled by the batches saved so far, so an
+ * import that stops or fails can be resumed after it.
+ *
+ * Not thread safe, use one importer per import.
+ */
+public class ConferenceImporter {
+
+    static final String ORGANIZER_USER_ID = "organizerUserId";
+
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList(ORGANIZER_USER_ID,
+            "name", "description", "topics", "city", "startDate", "endDate", "maxAttendees",
+            "seatShards"));
+
+    /**
+     * A validated record waiting for its batch.
+     */
+    private static class Record {
+        private final int line;
+        private final String organizerUserId;
+        private final ConferenceForm form;
+
+        private Record(int line, String organizerUserId, ConferenceForm form) {
+            this.line = line;
+            this.organizerUserId = organizerUserId;
+            this.form = form;
+        }
+    }
+
+    private final Queue queue;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private final List<Record> batch = new ArrayList<>(Constants.CONFERENCE_IMPORT_BATCH_SIZE);
+    private final List<String> errors = new ArrayList<>();
+    private int imported;
+    private int rejected;
+    private int lastLine;
+    private int savedLine;
+
+    /**
+     * @param queue the pull queue of the confirmation emails.
+     */
+    public ConferenceImporter(Queue queue) {
+        this.queue = queue;
+        dateFormat.setLenient(false);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Validates a record and adds it to the current batch, saving the batch once it is full.
+     *
+     * @param line the line the record started on, for error reports.
+     * @param fields the fields of the record.
+     */
+    public void add(int line, Map<String, Object> fields) {
+        String organizerUserId;
+        ConferenceForm form;
+        try {
+            organizerUserId = string(fields, ORGANIZER_USER_ID);
+            form = toForm(fields);
+            if (organizerUserId == null) {
+                throw new IllegalArgumentException("The organizerUserId is required");
+            }
+        } catch (IllegalArgumentException e) {
+            reject(line, e.getMessage());
+            return;
+        }
+        lastLine = line;
+        batch.add(new Record(line, organizerUserId, form));
+        if (batch.size() == Constants.CONFERENCE_IMPORT_BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Records a record that could not be read.
+     *
+     * @param line the line the record started on.
+     * @param message why the record was rejected.
+     */
+    public void reject(int line, String message) {
+        lastLine = line;
+        rejected++;
+        if (errors.size() < Constants.CONFERENCE_IMPORT_MAX_ERRORS) {
+            errors.add("line " + line + ": " + message);
+        }
+    }
+
+    /**
+     * Saves the last, partial batch.
+     */
+    public void finish() {
+        if (!batch.isEmpty()) {
+            flush();
+        }
+        savedLine = lastLine;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Returns the line of the last record handled by the batches saved so far: every record up
+     * to it has been imported or rejected, none after it has been saved.
+     *
+     * @return the line, 0 before the first batch has been saved.
+     */
+    public int getSavedLine() {
+        return savedLine;
+    }
+
+    /**
+     * Returns the first {@link Constants#CONFERENCE_IMPORT_MAX_ERRORS} errors.
+     * @return the errors, prefixed by the line of their record.
+     */
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    private void flush() {
+        // One multi-get for the Profiles of every organizer of the batch
+        Map<String, List<Record>> byOrganizer = new LinkedHashMap<>();
+        for (Record record : batch) {
+            List<Record> records = byOrganizer.get(record.organizerUserId);
+            if (records == null) {
+                records = new ArrayList<>();
+                byOrganizer.put(record.organizerUserId, records);
+            }
+            records.add(record);
+        }
+        List<Key<Profile>> profileKeys = new ArrayList<>(byOrganizer.size());
+        for (String organizerUserId : byOrganizer.keySet()) {
+            profileKeys.add(Key.create(Profile.class, organizerUserId));
+        }
+        Map<Key<Profile>, Profile> profiles = ofy().transactionless().load().keys(profileKeys);
+
+        // Each Conference is put along with its shards, never split across two puts
+        List<List<Object>> groups = new ArrayList<>(batch.size());
+        List<Conference> conferences = new ArrayList<>(batch.size());
+        List<TaskOptions> tasks = new ArrayList<>(batch.size());
+        for (Map.Entry<String, List<Record>> entry : byOrganizer.entrySet()) {
+            Key<Profile> profileKey = Key.create(Profile.class, entry.getKey());
+            Profile profile = profiles.get(profileKey);
+            if (profile == null) {
+                for (Record record : entry.getValue()) {
+                    reject(record.line, "No Profile for organizer " + entry.getKey());
+                }
+                continue;
+            }
+            // One range of ids for all the Conferences of the organizer
+            Iterator<Key<Conference>> ids = factory().allocateIds(profileKey, Conference.class,
+                    entry.getValue().size()).iterator();
+            for (Record record : entry.getValue()) {
+                Key<Conference> conferenceKey = ids.next();
+                Conference conference;
+                try {
+                    conference = new Conference(conferenceKey.getId(), entry.getKey(),
+                            record.form);
+                } catch (RuntimeException e) {
+                    reject(record.line, e.getMessage());
+                    continue;
+                }
+                conference.updateOrganizerDisplayName(profile.getDisplayName());
+                conferences.add(conference);
+                List<Object> group = new ArrayList<>();
+                group.add(conference);
+                if (conference.isSeatsSharded()) {
+                    group.addAll(SeatAllocator.createShards(conference));
+                }
+                groups.add(group);
+                tasks.add(ConfirmationEmailWorker.task(profile.getMainEmail(),
+                        conferenceKey.getString()));
+            }
+        }
+
+        // Issue every put before waiting for any of them
+        List<Result<?>> saves = new ArrayList<>();
+        for (List<Object> put : partition(groups, Constants.MAX_BATCH_PUT_ENTITIES)) {
+            saves.add(ofy().save().entities(put));
+        }
+        for (Result<?> save : saves) {
+            save.now();
+        }
+        ConferenceChanges.committed(conferences);
+        imported += conferences.size();
+        savedLine = lastLine;
+        batch.clear();
+        addTasks(tasks);
+
+        // Don't keep the saved entities in the session cache for the rest of the import
+        ofy().clear();
+    }
+
+    /**
+     * Packs groups of entities into puts of at most the given size, keeping each group in one put.
+     *
+     * @param groups the groups, each of at most maxEntities entities.
+     * @param maxEntities the maximum number of entities of a put.
+     * @return the entities of each put.
+     */
+    static List<List<Object>> partition(List<List<Object>> groups, int maxEntities) {
+        List<List<Object>> puts = new ArrayList<>();
+        List<Object> put = new ArrayList<>();
+        for (List<Object> group : groups) {
+            if (!put.isEmpty() && put.size() + group.size() > maxEntities) {
+                puts.add(put);
+                put = new ArrayList<>();
+            }
+            put.addAll(group);
+        }
+        if (!put.isEmpty()) {
+            puts.add(put);
+        }
+        return puts;
+    }
+
+    private void addTasks(List<TaskOptions> tasks) {
+        List<Future<List<TaskHandle>>> adds = new ArrayList<>();
+        for (List<TaskOptions> chunk : Lists.partition(tasks, Constants.MAX_QUEUE_ADD_TASKS)) {
+            adds.add(queue.addAsync(chunk));
+        }
+        try {
+            for (Future<List<TaskHandle>> add : adds) {
+                add.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing confirmation emails", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not queue confirmation emails", e.getCause());
+        }
+    }
+
+    private ConferenceForm toForm(Map<String, Object> fields) {
+        for (String field : fields.keySet()) {
+            if (!FIELDS.contains(field)) {
+                throw new IllegalArgumentException("Unknown field: " + field);
+            }
+        }
+        String name = string(fields, "name");
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("The name is required");
+        }
+        Integer maxAttendees = integer(fields, "maxAttendees");
+        if (maxAttendees == null || maxAttendees < 0) {
+            throw new IllegalArgumentException("maxAttendees must be 0 or more");
+        }
+        Integer seatShards = integer(fields, "seatShards");
+        Date startDate = date(fields, "startDate");
+        Date endDate = date(fields, "endDate");
+        if (startDate != null && endDate != null && endDate.before(startDate)) {
+            throw new IllegalArgumentException("endDate is before startDate");
+        }
+        return new ConferenceForm(name, string(fields, "description"), topics(fields),
+                string(fields, "city"), startDate, endDate, maxAttendees,
+                seatShards == null ? 0 : seatShards);
+    }
+
+    private static String string(Map<String, Object> fields, String field) {
+        Object value = fields.get(field);
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        throw new IllegalArgumentException(field + " must be a string");
+    }
+
+    private static Integer integer(Map<String, Object> fields, String field) {
+        Object value = fields.get(field);
+        if (value == null) {
+            return null;
+        }
+        try {
+            if (value instanceof Long && (Long) value == ((Long) value).intValue()) {
+                return ((Long) value).intValue();
+            } else if (value instanceof String) {
+                return Integer.parseInt(((String) value).trim());
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(field + " must be an integer");
+    }
+
+    private Date date(Map<String, Object> fields, String field) {
+        String value = string(fields, field);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return dateFormat.parse(value.trim());
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(field + " must be a yyyy-MM-dd date");
+        }
+    }
+
+    /*
+     * Topics are a JSON array, or a semicolon separated list in CSV.
+     */
+    private static List<String> topics(Map<String, Object> fields) {
+        Object value = fields.get("topics");
+        List<String> topics = new ArrayList<>();
+        if (value instanceof String) {
+            for (String topic : ((String) value).split(";")) {
+                if (!topic.trim().isEmpty()) {
+                    topics.add(topic.trim());
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object topic : (List<?>) value) {
+                if (!(topic instanceof String)) {
+                    throw new IllegalArgumentException("topics must be strings");
+                }
+                topics.add((String) topic);
+            }
+        } else if (value != null) {
+            throw new IllegalArgumentException("topics must be a list");
+        }
+        return topics;
+    }
+}
@@ -0,0 +1,444 @@
+package com.google.devrel.training.conference.service;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import com.google.common.io.BaseEncoding;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.service.ConferencePager.KeyPage;
+import com.googlecode.objectify.Key;
+
+/**
+ * In-memory inverted index of the Conference properties that can be filtered on.
+ *
+ * Every Conference gets a small integer document id. City, topics, month and start day each
+ * map their values to a bitmap of the documents holding them, and maxAttendees is kept as an
+ * array of values sorted with the documents they belong to. A query is answered by intersecting
+ * one bitmap per filter, without any datastore query.
+ *
+ * Each instance holds its own index, see IndexHolder for how it is built and kept up to date.
+ */
+public class ConferenceIndex {
+
+    private static final Logger LOG = Logger.getLogger(ConferenceIndex.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final IndexHolder<ConferenceIndex> HOLDER = new IndexHolder<ConferenceIndex>() {
+        @Override
+        ConferenceIndex build(Iterable<Conference> conferences) {
+            long start = System.currentTimeMillis();
+            ConferenceIndex index = new ConferenceIndex(conferences);
+            LOG.info(String.format("Built the conference index in %d ms: %d conferences, %d bytes",
+                    System.currentTimeMillis() - start, index.size(), index.getFootprintBytes()));
+            return index;
+        }
+
+        @Override
+        void apply(ConferenceIndex index, Conference conference) {
+            index.apply(conference);
+        }
+    };
+
+    /**
+     * The indexed values of one Conference.
+     */
+    private static class Document {
+        private final Key<Conference> key;
+        private final String websafeKey;
+        private String name;
+        private String city;
+        private List<String> topics;
+        private int month;
+        private String startDay;
+        private int maxAttendees;
+
+        private Document(Key<Conference> key) {
+            this.key = key;
+            this.websafeKey = key.getString();
+        }
+    }
+
+    /**
+     * Orders documents like the datastore queries do: by name, then by key.
+     */
+    private static final Comparator<Document> BY_NAME = new Comparator<Document>() {
+        @Override
+        public int compare(Document a, Document b) {
+            int result = compareNames(a.name, b.name);
+            return result != 0 ? result : a.websafeKey.compareTo(b.websafeKey);
+        }
+    };
+
+    private final List<Document> documents = new ArrayList<>();
+    private final Map<Key<Conference>, Integer> documentIds = new HashMap<>();
+    private final BitSet live = new BitSet();
+
+    private final NavigableMap<String, BitSet> cities = new TreeMap<>();
+    private final NavigableMap<String, BitSet> topics = new TreeMap<>();
+    private final NavigableMap<Integer, BitSet> months = new TreeMap<>();
+    // yyyy-MM-dd days sort chronologically
+    private final NavigableMap<String, BitSet> startDays = new TreeMap<>();
+
+    /**
+     * maxAttendees of the live documents in ascending order, and the document each value belongs
+     * to. Rebuilt on the next range query after a change.
+     */
+    private int[] sortedMaxAttendees = new int[0];
+    private int[] sortedMaxAttendeesDocuments = new int[0];
+    private boolean maxAttendeesDirty;
+
+    ConferenceIndex(Iterable<Conference> conferences) {
+        for (Conference conference : conferences) {
+            apply(conference);
+        }
+    }
+
+    /**
+     * Returns whether queryConferences should be answered from the index.
+     *
+     * @return true when the search index system property is set to true.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(Constants.SEARCH_INDEX_PROPERTY);
+    }
+
+    /**
+     * Returns the index of this instance, building it on first use.
+     *
+     * @return the index.
+     */
+    public static ConferenceIndex get() {
+        return HOLDER.get();
+    }
+
+    /**
+     * Builds the index of this instance unless it has been built already, when the instance
+     * warms up.
+     */
+    public static void build() {
+        HOLDER.build();
+    }
+
+    /**
+     * Applies a change of a Conference to the index of this instance, if it has been built.
+     *
+     * @param conference the Conference that has been saved.
+     */
+    public static void update(Conference conference) {
+        HOLDER.update(conference);
+    }
+
+    /**
+     * Drops the index of this instance, it is built again on next use.
+     */
+    public static void clear() {
+        HOLDER.clear();
+    }
+
+    /**
+     * Adds or updates the document of a Conference.
+     *
+     * @param conference the Conference to index.
+     */
+    synchronized void apply(Conference conference) {
+        Key<Conference> key = Key.create(conference.getProfileKey(), Conference.class,
+                conference.getId());
+        Integer documentId = documentIds.get(key);
+        Document document;
+        if (documentId == null) {
+            documentId = documents.size();
+            document = new Document(key);
+            documents.add(document);
+            documentIds.put(key, documentId);
+            live.set(documentId);
+        } else {
+            document = documents.get(documentId);
+            unpost(cities, document.city, documentId);
+            for (String topic : document.topics) {
+                unpost(topics, topic, documentId);
+            }
+            unpost(months, document.month, documentId);
+            unpost(startDays, document.startDay, documentId);
+        }
+        document.name = conference.getName();
+        document.city = conference.getCity();
+        document.topics = conference.getTopics() == null
+                ? Collections.<String>emptyList() : conference.getTopics();
+        document.month = conference.getMonth();
+        document.startDay = TimeBuckets.formatDay(conference.getStartDate());
+        document.maxAttendees = conference.getMaxAttendees();
+
+        post(cities, document.city, documentId);
+        for (String topic : document.topics) {
+            post(topics, topic, documentId);
+        }
+        post(months, document.month, documentId);
+        post(startDays, document.startDay, documentId);
+        maxAttendeesDirty = true;
+    }
+
+    /**
+     * Returns one page of the Conferences matching all the filters of the form, ordered by name.
+     *
+     * The cursor of the page is only understood by the index.
+     *
+     * @param form the query.
+     * @return the page of keys and the cursor for the next one.
+     * @throws IllegalArgumentException when a filter value or the cursor is not valid.
+     */
+    public KeyPage search(ConferenceQueryForm form) {
+        int limit = ConferencePager.pageSize(form.getPageSize());
+        String[] after = decodeCursor(form.getCursor());
+        List<Document> matches = new ArrayList<>();
+        synchronized (this) {
+            BitSet result = (BitSet) live.clone();
+            for (Filter filter : form.getFilters()) {
+                result.and(match(filter));
+            }
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                Document document = documents.get(i);
+                if (after == null || isAfter(document, after)) {
+                    matches.add(document);
+                }
+            }
+        }
+        Collections.sort(matches, BY_NAME);
+
+        ArrayList<Key<Conference>> keys = new ArrayList<>(Math.min(limit, matches.size()));
+        for (Document document : matches.subList(0, Math.min(limit, matches.size()))) {
+            keys.add(document.key);
+        }
+        String nextCursor = null;
+        if (matches.size() > limit) {
+            nextCursor = encodeCursor(matches.get(limit - 1));
+        }
+        return new KeyPage(keys, nextCursor);
+    }
+
+    private BitSet match(Filter filter) {
+        Field field = filter.getField();
+        Object value = filter.getTypedValue();
+        if (field == Field.MAX_ATTENDEES) {
+            return matchMaxAttendees(filter.getOperator(), (Integer) value);
+        }
+        if (field == Field.MONTH) {
+            return match(months, filter.getOperator(), (Integer) value);
+        }
+        if (field == Field.START_DATE) {
+            return match(startDays, filter.getOperator(), (String) value);
+        }
+        return match(field == Field.CITY ? cities : topics, filter.getOperator(),
+                value == null ? "" : (String) value);
+    }
+
+    private <V> BitSet match(NavigableMap<V, BitSet> postings, Operator operator, V value) {
+        if (operator == Operator.NE) {
+            // A Conference matches when none of its values is equal.
+            BitSet result = (BitSet) live.clone();
+            BitSet equal = postings.get(value);
+            if (equal != null) {
+                result.andNot(equal);
+            }
+            return result;
+        }
+        Collection<BitSet> matching;
+        switch (operator) {
+            case EQ:
+                BitSet equal = postings.get(value);
+                return equal == null ? new BitSet() : equal;
+            case LT:
+                matching = postings.headMap(value, false).values();
+                break;
+            case LTEQ:
+                matching = postings.headMap(value, true).values();
+                break;
+            case GT:
+                matching = postings.tailMap(value, false).values();
+                break;
+            default:
+                matching = postings.tailMap(value, true).values();
+                break;
+        }
+        BitSet result = new BitSet();
+        for (BitSet bitmap : matching) {
+            result.or(bitmap);
+        }
+        return result;
+    }
+
+    private BitSet matchMaxAttendees(Operator operator, int value) {
+        if (maxAttendeesDirty) {
+            sortMaxAttendees();
+        }
+        // [from, to) is the range of sorted values equal to value.
+        int from = lowerBound(sortedMaxAttendees, value);
+        int to = lowerBound(sortedMaxAttendees, (long) value + 1);
+        BitSet result = new BitSet();
+        switch (operator) {
+            case EQ:
+                setDocuments(result, from, to);
+                break;
+            case NE:
+                setDocuments(result, 0, from);
+                setDocuments(result, to, sortedMaxAttendees.length);
+                break;
+            case LT:
+                setDocuments(result, 0, from);
+                break;
+            case LTEQ:
+                setDocuments(result, 0, to);
+                break;
+            case GT:
+                setDocuments(result, to, sortedMaxAttendees.length);
+                break;
+            default:
+                setDocuments(result, from, sortedMaxAttendees.length);
+                break;
+        }
+        return result;
+    }
+
+    private void setDocuments(BitSet result, int from, int to) {
+        for (int i = from; i < to; i++) {
+            result.set(sortedMaxAttendeesDocuments[i]);
+        }
+    }
+
+    private void sortMaxAttendees() {
+        int count = live.cardinality();
+        long[] packed = new long[count];
+        int n = 0;
+        for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+            // The value in the high bits and the document id in the low ones, so that sorting
+            // the longs sorts by value.
+            packed[n++] = ((long) documents.get(i).maxAttendees << 32) | i;
+        }
+        Arrays.sort(packed);
+        sortedMaxAttendees = new int[count];
+        sortedMaxAttendeesDocuments = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedMaxAttendees[i] = (int) (packed[i] >> 32);
+            sortedMaxAttendeesDocuments[i] = (int) packed[i];
+        }
+        maxAttendeesDirty = false;
+    }
+
+    private static int lowerBound(int[] values, long value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static <V> void post(Map<V, BitSet> postings, V value, int documentId) {
+        if (value == null) {
+            return;
+        }
+        BitSet bitmap = postings.get(value);
+        if (bitmap == null) {
+            bitmap = new BitSet();
+            postings.put(value, bitmap);
+        }
+        bitmap.set(documentId);
+    }
+
+    private static <V> void unpost(Map<V, BitSet> postings, V value, int documentId) {
+        if (value == null) {
+            return;
+        }
+        BitSet bitmap = postings.get(value);
+        if (bitmap != null) {
+            bitmap.clear(documentId);
+            if (bitmap.isEmpty()) {
+                postings.remove(value);
+            }
+        }
+    }
+
+    private static int compareNames(String a, String b) {
+        if (a == null) {
+            return b == null ? 0 : -1;
+        }
+        return b == null ? 1 : a.compareTo(b);
+    }
+
+    private static boolean isAfter(Document document, String[] after) {
+        int result = compareNames(document.name, after[0]);
+        return result > 0 || result == 0 && document.websafeKey.compareTo(after[1]) > 0;
+    }
+
+    private static String encodeCursor(Document document) {
+        String name = document.name == null ? "" : document.name;
+        return BaseEncoding.base64Url().encode(
+                (document.websafeKey + "\n" + name).getBytes(UTF_8));
+    }
+
+    private static String[] decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        String decoded = new String(BaseEncoding.base64Url().decode(cursor), UTF_8);
+        int separator = decoded.indexOf('\n');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return new String[] { decoded.substring(separator + 1), decoded.substring(0, separator) };
+    }
+
+    /**
+     * Returns the number of Conferences in the index.
+     *
+     * @return the number of documents.
+     */
+    public synchronized int size() {
+        return live.cardinality();
+    }
+
+    /**
+     * Estimates the memory used by the postings and the sorted arrays.
+     *
+     * Doesn't count the documents themselves, whose Strings are mostly shared with the keys of
+     * the posting maps.
+     *
+     * @return the estimated footprint in bytes.
+     */
+    public synchronized long getFootprintBytes() {
+        long bytes = live.size() / 8;
+        bytes += postingsFootprint(cities) + postingsFootprint(topics) + postingsFootprint(months)
+                + postingsFootprint(startDays);
+        bytes += 4L * (sortedMaxAttendees.length + sortedMaxAttendeesDocuments.length);
+        return bytes;
+    }
+
+    private static long postingsFootprint(Map<?, BitSet> postings) {
+        long bytes = 0;
+        for (BitSet bitmap : postings.values()) {
+            bytes += bitmap.size() / 8;
+        }
+        return bytes;
+    }
+}
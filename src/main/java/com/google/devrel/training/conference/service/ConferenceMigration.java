@@ -0,0 +1,118 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * Saves again the Conferences saved before the time buckets, so that the date range queries
+ * find them.
+ *
+ * The buckets of a Conference are filled in when it is loaded, this only completes the
+ * migration of the Conferences that are not saved again otherwise. Each Conference is saved in
+ * its own transaction, so that concurrent changes are not lost.
+ */
+public class ConferenceMigration {
+
+    /**
+     * The outcome of one batch.
+     */
+    public static class Batch {
+        private final int scanned;
+        private final int migrated;
+        private final String nextCursor;
+
+        private Batch(int scanned, int migrated, String nextCursor) {
+            this.scanned = scanned;
+            this.migrated = migrated;
+            this.nextCursor = nextCursor;
+        }
+
+        public int getScanned() {
+            return scanned;
+        }
+
+        public int getMigrated() {
+            return migrated;
+        }
+
+        /**
+         * Returns the cursor to continue from, null once every Conference has been scanned.
+         * @return the websafe cursor of the next batch.
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    private ConferenceMigration() {}
+
+    /**
+     * Migrates the Conferences of one batch.
+     *
+     * @param cursor the cursor returned with the previous batch, null for the first one.
+     * @return the number of Conferences scanned and migrated, and the cursor of the next batch.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static Batch migrateBatch(String cursor) {
+        Query<Conference> query = ofy().transactionless().load().type(Conference.class)
+                .limit(Constants.CONFERENCE_MIGRATION_BATCH_SIZE);
+        Cursor start = ConferencePager.cursor(cursor);
+        if (start != null) {
+            query = query.startAt(start);
+        }
+        QueryResultIterator<Conference> iterator = query.iterator();
+        List<Key<Conference>> pending = new ArrayList<>();
+        int scanned = 0;
+        while (iterator.hasNext()) {
+            Conference conference = iterator.next();
+            scanned++;
+            if (conference.isTimeBucketsPending()) {
+                pending.add(Key.create(conference.getProfileKey(), Conference.class,
+                        conference.getId()));
+            }
+        }
+        List<Conference> migrated = new ArrayList<>(pending.size());
+        for (Key<Conference> conferenceKey : pending) {
+            Conference conference = migrate(conferenceKey);
+            if (conference != null) {
+                migrated.add(conference);
+            }
+        }
+        if (!migrated.isEmpty()) {
+            ConferenceChanges.committed(migrated);
+            // The date range queries find them now
+            QueryCache.bumpGenerations(Collections.singleton(Conference.START_DATE));
+        }
+        // A short batch means every Conference has been scanned.
+        String nextCursor = scanned < Constants.CONFERENCE_MIGRATION_BATCH_SIZE
+                ? null : iterator.getCursor().toWebSafeString();
+        // Don't keep the scanned Conferences in the session cache for the next batches
+        ofy().clear();
+        return new Batch(scanned, migrated.size(), nextCursor);
+    }
+
+    private static Conference migrate(final Key<Conference> conferenceKey) {
+        return ofy().transact(new Work<Conference>() {
+            @Override
+            public Conference run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference == null || !conference.isTimeBucketsPending()) {
+                    return null;
+                }
+                ofy().save().entity(conference).now();
+                return conference;
+            }
+        });
+    }
+}
@@ -0,0 +1,225 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencePage;
+import com.google.devrel.training.conference.domain.ConferenceView;
+import com.google.devrel.training.conference.form.ConferenceQueryPlan;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * Runs Conference queries one page at a time using datastore query cursors.
+ */
+public class ConferencePager {
+
+    /**
+     * Separates the bucket from the datastore cursor in the cursors of bucket scans.
+     */
+    private static final String BUCKET_CURSOR_SEPARATOR = "~";
+
+    private ConferencePager() {}
+
+    /**
+     * Returns the page size to use for the requested one.
+     *
+     * @param pageSize the requested page size, may be null.
+     * @return the default page size when none is requested, capped at the maximum page size.
+     */
+    public static int pageSize(Integer pageSize) {
+        if (pageSize == null || pageSize <= 0) {
+            return Constants.DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(pageSize, Constants.MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Decodes a cursor sent by the client.
+     *
+     * @param cursor the websafe cursor, may be null.
+     * @return the Cursor, or null when none is given.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static Cursor cursor(String cursor) {
+        return cursor == null || cursor.isEmpty() ? null : Cursor.fromWebSafeString(cursor);
+    }
+
+    /**
+     * One page of Conference keys, together with the cursor for the next page.
+     */
+    public static class KeyPage implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<Key<Conference>> keys;
+        private final String nextCursor;
+
+        public KeyPage(ArrayList<Key<Conference>> keys, String nextCursor) {
+            this.keys = keys;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Key<Conference>> getKeys() {
+            return keys;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * Fetches a single page of the keys matched by the query, with a keys-only query.
+     *
+     * @param query the query to run.
+     * @param pageSize the requested page size, may be null.
+     * @param cursor the cursor returned with the previous page, null for the first page.
+     * @return the page of keys and the cursor for the next one.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static KeyPage pageKeys(Query<Conference> query, Integer pageSize, String cursor) {
+        int limit = pageSize(pageSize);
+        query = query.limit(limit);
+        Cursor start = cursor(cursor);
+        if (start != null) {
+            query = query.startAt(start);
+        }
+        QueryResultIterator<Key<Conference>> iterator = query.keys().iterator();
+        ArrayList<Key<Conference>> keys = new ArrayList<>(limit);
+        while (iterator.hasNext()) {
+            keys.add(iterator.next());
+        }
+        // A short page means the query is exhausted.
+        String nextCursor = keys.size() < limit ? null : iterator.getCursor().toWebSafeString();
+        return new KeyPage(keys, nextCursor);
+    }
+
+    /**
+     * Fetches a single page of the keys matched by a planned query.
+     *
+     * Without residual filters this is a keys-only query. Otherwise the Conferences are streamed
+     * in chunks of {@link Constants#RESIDUAL_SCAN_CHUNK} and the residual filters applied to
+     * them until the page is full or the query is exhausted. The scan stops after
+     * {@link Constants#RESIDUAL_SCAN_MILLIS} though, so a very selective filter may still return
+     * a short or even empty page, together with a cursor to continue from: only a page without a
+     * cursor means there are no more results. The scanned Conferences stay in the session cache,
+     * so loading the matched keys afterwards doesn't hit the datastore again.
+     *
+     * A bucket scan runs the query of each bucket in turn, with the same time budget for the
+     * whole page; its cursor is the bucket to continue from and the datastore cursor within it.
+     *
+     * @param plan the plan of the query.
+     * @param pageSize the requested page size, may be null.
+     * @param cursor the cursor returned with the previous page, null for the first page.
+     * @return the page of keys and the cursor for the next one.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static KeyPage pageKeys(ConferenceQueryPlan plan, Integer pageSize, String cursor) {
+        if (plan.isBucketScan()) {
+            return pageBuckets(plan, pageSize, cursor);
+        }
+        if (!plan.hasResidual()) {
+            return pageKeys(plan.getQuery(), pageSize, cursor);
+        }
+        int limit = pageSize(pageSize);
+        long deadline = System.currentTimeMillis() + Constants.RESIDUAL_SCAN_MILLIS;
+        Query<Conference> query = plan.getQuery().chunk(Constants.RESIDUAL_SCAN_CHUNK);
+        Cursor start = cursor(cursor);
+        if (start != null) {
+            query = query.startAt(start);
+        }
+        QueryResultIterator<Conference> iterator = query.iterator();
+        ArrayList<Key<Conference>> keys = new ArrayList<>(limit);
+        boolean exhausted = scan(plan, iterator, keys, limit, deadline);
+        String nextCursor = exhausted ? null : iterator.getCursor().toWebSafeString();
+        return new KeyPage(keys, nextCursor);
+    }
+
+    private static KeyPage pageBuckets(ConferenceQueryPlan plan, Integer pageSize,
+                                       String cursor) {
+        List<Integer> buckets = plan.getBuckets();
+        int first = 0;
+        Cursor start = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.indexOf(BUCKET_CURSOR_SEPARATOR);
+            first = separator < 0 ? -1
+                    : buckets.indexOf(Integer.parseInt(cursor.substring(0, separator)));
+            if (first < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            start = cursor(cursor.substring(separator + 1));
+        }
+        int limit = pageSize(pageSize);
+        long deadline = System.currentTimeMillis() + Constants.RESIDUAL_SCAN_MILLIS;
+        ArrayList<Key<Conference>> keys = new ArrayList<>(limit);
+        for (int i = first; i < buckets.size(); i++) {
+            int bucket = buckets.get(i);
+            Query<Conference> query = plan.getBucketQuery(bucket)
+                    .chunk(Constants.RESIDUAL_SCAN_CHUNK);
+            if (start != null) {
+                query = query.startAt(start);
+                start = null;
+            }
+            QueryResultIterator<Conference> iterator = query.iterator();
+            if (!scan(plan, iterator, keys, limit, deadline)) {
+                return new KeyPage(keys, bucket + BUCKET_CURSOR_SEPARATOR
+                        + iterator.getCursor().toWebSafeString());
+            }
+        }
+        return new KeyPage(keys, null);
+    }
+
+    /**
+     * Adds the keys of the Conferences matching the residual filters until the page is full,
+     * the query is exhausted or the deadline has passed.
+     *
+     * @return true when the query is exhausted, so that the page needs no cursor.
+     */
+    private static boolean scan(ConferenceQueryPlan plan, QueryResultIterator<Conference> iterator,
+                                List<Key<Conference>> keys, int limit, long deadline) {
+        while (keys.size() < limit && iterator.hasNext()) {
+            Conference conference = iterator.next();
+            if (plan.matches(conference)) {
+                keys.add(Key.create(conference.getProfileKey(), Conference.class,
+                        conference.getId()));
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+        }
+        // A full page keeps a cursor, even if nothing follows it.
+        return keys.size() < limit;
+    }
+
+    /**
+     * Fetches a single page of the query and returns the views of its Conferences.
+     *
+     * @param query the query to run.
+     * @param pageSize the requested page size, may be null.
+     * @param cursor the cursor returned with the previous page, null for the first page.
+     * @return the page of Conference views and the cursor for the next one.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static ConferencePage page(Query<Conference> query, Integer pageSize, String cursor) {
+        int limit = pageSize(pageSize);
+        query = query.limit(limit);
+        Cursor start = cursor(cursor);
+        if (start != null) {
+            query = query.startAt(start);
+        }
+        QueryResultIterator<Conference> iterator = query.iterator();
+        List<Conference> items = new ArrayList<>(limit);
+        while (iterator.hasNext()) {
+            items.add(iterator.next());
+        }
+        // A short page means the query is exhausted.
+        String nextCursor = items.size() < limit ? null : iterator.getCursor().toWebSafeString();
+        List<ConferenceView> views = ConferenceViewCache.viewsOf(items);
+        return new ConferencePage(views, nextCursor);
+    }
+}
@@ -0,0 +1,382 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the records of a bulk conference import one at a time, so that the input is streamed
+ * rather than held in memory.
+ *
+ * A record is a map from field names to values: Strings for CSV, and Strings, Numbers,
+ * Booleans, Lists and Maps for NDJSON. A malformed record is reported with an
+ * IllegalArgumentException, after which the next record can still be read.
+ */
+public abstract class ConferenceRecordReader implements Closeable {
+
+    final BufferedReader reader;
+
+    /**
+     * The number of lines read so far.
+     */
+    int lines;
+
+    /**
+     * The line the last record started on.
+     */
+    int line;
+
+    private ConferenceRecordReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Returns a reader of CSV records: a header line with the field names, then one record per
+     * line. Quoted fields may contain commas, doubled quotes and line breaks.
+     *
+     * @param reader the input.
+     * @return the record reader.
+     */
+    public static ConferenceRecordReader csv(Reader reader) {
+        return new Csv(reader);
+    }
+
+    /**
+     * Returns a reader of newline delimited JSON records, one JSON object per line.
+     *
+     * @param reader the input.
+     * @return the record reader.
+     */
+    public static ConferenceRecordReader ndjson(Reader reader) {
+        return new Ndjson(reader);
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the fields of the record, or null at the end of the input.
+     * @throws IOException when the input can't be read.
+     * @throws IllegalArgumentException when the record is malformed.
+     */
+    public abstract Map<String, Object> next() throws IOException;
+
+    /**
+     * Returns the line the last record started on, for error reports.
+     * @return the 1-based line number.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /*
+     * Reads the next non blank line, null at the end of the input.
+     */
+    String nextLine() throws IOException {
+        String text;
+        do {
+            text = reader.readLine();
+            lines++;
+        } while (text != null && text.trim().isEmpty());
+        line = lines;
+        return text;
+    }
+
+    private static class Csv extends ConferenceRecordReader {
+
+        private List<String> header;
+
+        private Csv(Reader reader) {
+            super(reader);
+        }
+
+        @Override
+        public Map<String, Object> next() throws IOException {
+            if (header == null) {
+                header = parseRecord();
+                if (header == null) {
+                    return null;
+                }
+                for (int i = 0; i < header.size(); i++) {
+                    header.set(i, header.get(i).trim());
+                }
+            }
+            List<String> values = parseRecord();
+            if (values == null) {
+                return null;
+            }
+            if (values.size() != header.size()) {
+                throw new IllegalArgumentException("Expected " + header.size()
+                        + " fields but found " + values.size());
+            }
+            Map<String, Object> record = new LinkedHashMap<>();
+            for (int i = 0; i < values.size(); i++) {
+                if (!values.get(i).isEmpty()) {
+                    record.put(header.get(i), values.get(i));
+                }
+            }
+            return record;
+        }
+
+        private List<String> parseRecord() throws IOException {
+            String text = nextLine();
+            if (text == null) {
+                return null;
+            }
+            List<String> values = new ArrayList<>();
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i == text.length()) {
+                    if (!quoted) {
+                        break;
+                    }
+                    // A quoted field goes on on the next line
+                    text = reader.readLine();
+                    lines++;
+                    if (text == null) {
+                        throw new IllegalArgumentException("Unterminated quoted field");
+                    }
+                    value.append('\n');
+                    i = 0;
+                    continue;
+                }
+                char c = text.charAt(i++);
+                if (quoted) {
+                    if (c != '"') {
+                        value.append(c);
+                    } else if (i < text.length() && text.charAt(i) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    values.add(value.toString());
+                    value.setLength(0);
+                } else {
+                    value.append(c);
+                }
+            }
+            values.add(value.toString());
+            return values;
+        }
+    }
+
+    private static class Ndjson extends ConferenceRecordReader {
+
+        private String text;
+        private int pos;
+
+        private Ndjson(Reader reader) {
+            super(reader);
+        }
+
+        @Override
+        public Map<String, Object> next() throws IOException {
+            text = nextLine();
+            if (text == null) {
+                return null;
+            }
+            pos = 0;
+            skipWhitespace();
+            if (peek() != '{') {
+                throw error("Expected a JSON object");
+            }
+            Object value = parseValue();
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("Unexpected trailing characters");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> record = (Map<String, Object>) value;
+            return record;
+        }
+
+        private Object parseValue() {
+            skipWhitespace();
+            char c = peek();
+            switch (c) {
+                case '{':
+                    return parseObject();
+                case '[':
+                    return parseArray();
+                case '"':
+                    return parseString();
+                case 't':
+                    return literal("true", Boolean.TRUE);
+                case 'f':
+                    return literal("false", Boolean.FALSE);
+                case 'n':
+                    return literal("null", null);
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return parseNumber();
+                    }
+                    throw error("Unexpected character '" + c + "'");
+            }
+        }
+
+        private Map<String, Object> parseObject() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String name = parseString();
+                skipWhitespace();
+                expect(':');
+                Object value = parseValue();
+                if (value != null) {
+                    object.put(name, value);
+                }
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> parseArray() {
+            List<Object> array = new ArrayList<>();
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(parseValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = read();
+                if (c == '"') {
+                    return value.toString();
+                } else if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                c = read();
+                switch (c) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        // \" \\ and \/
+                        value.append(c);
+                }
+            }
+        }
+
+        private Number parseNumber() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                BigDecimal number = new BigDecimal(text.substring(start, pos));
+                try {
+                    return number.longValueExact();
+                } catch (ArithmeticException e) {
+                    return number.doubleValue();
+                }
+            } catch (NumberFormatException e) {
+                throw error("Invalid number");
+            }
+        }
+
+        private Object literal(String literal, Object value) {
+            if (!text.startsWith(literal, pos)) {
+                throw error("Unexpected character '" + peek() + "'");
+            }
+            pos += literal.length();
+            return value;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos == text.length()) {
+                throw error("Unexpected end of line");
+            }
+            return text.charAt(pos);
+        }
+
+        private char read() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (read() != c) {
+                pos--;
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (pos + 1));
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.google.devrel.training.conference.service;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import com.google.common.io.BaseEncoding;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.ConferencePager.KeyPage;
+import com.googlecode.objectify.Key;
+
+/**
+ * In-memory full-text index of the Conference names and descriptions.
+ *
+ * Text is split into lowercase words of letters and digits. Every word maps to the documents
+ * holding it and how many times, a word of the name counting {@link #NAME_WEIGHT} times. A
+ * search matches the Conferences holding all the words of the query, the last word also
+ * matching as a prefix while the user is still typing it, and ranks them with BM25. Only the
+ * top of the ranking needed for the page is kept, in a bounded heap.
+ *
+ * Like the ConferenceIndex, each instance holds its own index, see IndexHolder.
+ */
+public class ConferenceTextIndex {
+
+    private static final Logger LOG = Logger.getLogger(ConferenceTextIndex.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * How many times a word of the name counts, relative to a word of the description.
+     */
+    private static final int NAME_WEIGHT = 3;
+
+    /**
+     * The BM25 parameters: term frequency saturation and document length normalization.
+     */
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    /**
+     * Weight of the words only matching the last word of the query as a prefix.
+     */
+    private static final double PREFIX_WEIGHT = 0.5;
+
+    private static final IndexHolder<ConferenceTextIndex> HOLDER =
+            new IndexHolder<ConferenceTextIndex>() {
+        @Override
+        ConferenceTextIndex build(Iterable<Conference> conferences) {
+            long start = System.currentTimeMillis();
+            ConferenceTextIndex index = new ConferenceTextIndex(conferences);
+            LOG.info(String.format("Built the conference text index in %d ms: %d conferences,"
+                    + " %d words", System.currentTimeMillis() - start, index.size(),
+                    index.terms.size()));
+            return index;
+        }
+
+        @Override
+        void apply(ConferenceTextIndex index, Conference conference) {
+            index.apply(conference);
+        }
+    };
+
+    /**
+     * The indexed words of one Conference.
+     */
+    private static class Document {
+        private final Key<Conference> key;
+        private final String websafeKey;
+        private String[] terms;
+        private int length;
+
+        private Document(Key<Conference> key) {
+            this.key = key;
+            this.websafeKey = key.getString();
+        }
+    }
+
+    /**
+     * The documents holding one word, and how many times, in no particular order.
+     */
+    private static class Postings {
+        private int[] documents = new int[2];
+        private int[] frequencies = new int[2];
+        private int size;
+
+        private void add(int documentId, int frequency) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            documents[size] = documentId;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        private void remove(int documentId) {
+            for (int i = 0; i < size; i++) {
+                if (documents[i] == documentId) {
+                    size--;
+                    documents[i] = documents[size];
+                    frequencies[i] = frequencies[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A matching document and its score.
+     */
+    private static class Hit {
+        private final Document document;
+        private final double score;
+
+        private Hit(Document document, double score) {
+            this.document = document;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Orders hits best first: by descending score, then by key.
+     */
+    private static final Comparator<Hit> BY_RANK = new Comparator<Hit>() {
+        @Override
+        public int compare(Hit a, Hit b) {
+            int result = Double.compare(b.score, a.score);
+            return result != 0 ? result : a.document.websafeKey.compareTo(b.document.websafeKey);
+        }
+    };
+
+    private final List<Document> documents = new ArrayList<>();
+    private final Map<Key<Conference>, Integer> documentIds = new HashMap<>();
+    private final NavigableMap<String, Postings> terms = new TreeMap<>();
+    private long totalLength;
+
+    ConferenceTextIndex(Iterable<Conference> conferences) {
+        for (Conference conference : conferences) {
+            apply(conference);
+        }
+    }
+
+    /**
+     * Returns the index of this instance, building it on first use.
+     *
+     * @return the index.
+     */
+    public static ConferenceTextIndex get() {
+        return HOLDER.get();
+    }
+
+    /**
+     * Builds the index of this instance unless it has been built already, when the instance
+     * warms up.
+     */
+    public static void build() {
+        HOLDER.build();
+    }
+
+    /**
+     * Applies a change of a Conference to the index of this instance, if it has been built.
+     *
+     * @param conference the Conference that has been saved.
+     */
+    public static void update(Conference conference) {
+        HOLDER.update(conference);
+    }
+
+    /**
+     * Drops the index of this instance, it is built again on next use.
+     */
+    public static void clear() {
+        HOLDER.clear();
+    }
+
+    /**
+     * Splits text into lowercase words of letters and digits.
+     *
+     * @param text the text, may be null.
+     * @return the words, in order.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lowercase = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowercase.length(); i++) {
+            boolean letterOrDigit = i < lowercase.length()
+                    && Character.isLetterOrDigit(lowercase.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                tokens.add(lowercase.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Adds or updates the document of a Conference.
+     *
+     * @param conference the Conference to index.
+     */
+    synchronized void apply(Conference conference) {
+        Key<Conference> key = Key.create(conference.getProfileKey(), Conference.class,
+                conference.getId());
+        Integer documentId = documentIds.get(key);
+        Document document;
+        if (documentId == null) {
+            documentId = documents.size();
+            document = new Document(key);
+            documents.add(document);
+            documentIds.put(key, documentId);
+        } else {
+            document = documents.get(documentId);
+            for (String term : document.terms) {
+                Postings postings = terms.get(term);
+                postings.remove(documentId);
+                if (postings.size == 0) {
+                    terms.remove(term);
+                }
+            }
+            totalLength -= document.length;
+        }
+
+        Map<String, Integer> frequencies = new HashMap<>();
+        count(frequencies, tokenize(conference.getName()), NAME_WEIGHT);
+        count(frequencies, tokenize(conference.getDescription()), 1);
+        document.terms = frequencies.keySet().toArray(new String[frequencies.size()]);
+        document.length = 0;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            Postings postings = terms.get(entry.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(entry.getKey(), postings);
+            }
+            postings.add(documentId, entry.getValue());
+            document.length += entry.getValue();
+        }
+        totalLength += document.length;
+    }
+
+    private static void count(Map<String, Integer> frequencies, List<String> tokens, int weight) {
+        for (String token : tokens) {
+            Integer frequency = frequencies.get(token);
+            frequencies.put(token, (frequency == null ? 0 : frequency) + weight);
+        }
+    }
+
+    /**
+     * Returns one page of the Conferences matching all the words of a query, best first.
+     *
+     * Unless the query ends with a space, its last word also matches the words starting with
+     * it, at most {@link Constants#MAX_SEARCH_PREFIX_EXPANSIONS} of them. The cursor of the
+     * page is only understood by the index; the ranking may shift between pages when
+     * Conferences are saved meanwhile.
+     *
+     * @param query the words to search for.
+     * @param pageSize the requested page size, may be null.
+     * @param cursor the cursor returned with the previous page, null for the first page.
+     * @return the page of keys and the cursor for the next one.
+     * @throws IllegalArgumentException when the query has no word or too many, or the cursor is
+     *         not valid.
+     */
+    public KeyPage search(String query, Integer pageSize, String cursor) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            throw new IllegalArgumentException("The query has no word to search for");
+        }
+        if (words.size() > Constants.MAX_SEARCH_TERMS) {
+            throw new IllegalArgumentException("The query has more than "
+                    + Constants.MAX_SEARCH_TERMS + " words");
+        }
+        boolean prefix = Character.isLetterOrDigit(query.charAt(query.length() - 1));
+        int limit = ConferencePager.pageSize(pageSize);
+        Hit after = decodeCursor(cursor);
+
+        // Keep the best limit + 1 hits after the cursor, the worst one on top.
+        PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, Collections.reverseOrder(BY_RANK));
+        synchronized (this) {
+            int count = documents.size();
+            double averageLength = count == 0 ? 0 : (double) totalLength / count;
+            double[] scores = new double[count];
+            // How many words of the query each document matched so far
+            int[] matched = new int[count];
+            List<Integer> candidates = new ArrayList<>();
+            for (int word = 0; word < words.size(); word++) {
+                String term = words.get(word);
+                boolean last = word == words.size() - 1;
+                Map<String, Postings> expansions = prefix && last
+                        ? terms.subMap(term, true, term + Character.MAX_VALUE, false)
+                        : Collections.<String, Postings>emptyMap();
+                Postings exact = terms.get(term);
+                if (exact == null && expansions.isEmpty()) {
+                    return new KeyPage(new ArrayList<Key<Conference>>(0), null);
+                }
+                if (exact != null) {
+                    score(exact, 1.0, word, scores, matched, candidates, averageLength);
+                }
+                int expanded = 0;
+                for (Map.Entry<String, Postings> entry : expansions.entrySet()) {
+                    if (expanded == Constants.MAX_SEARCH_PREFIX_EXPANSIONS) {
+                        break;
+                    }
+                    if (!entry.getKey().equals(term)) {
+                        score(entry.getValue(), PREFIX_WEIGHT, word, scores, matched, candidates,
+                                averageLength);
+                        expanded++;
+                    }
+                }
+            }
+            for (int documentId : candidates) {
+                if (matched[documentId] < words.size()) {
+                    continue;
+                }
+                Hit hit = new Hit(documents.get(documentId), scores[documentId]);
+                if (after != null && BY_RANK.compare(hit, after) <= 0) {
+                    continue;
+                }
+                top.add(hit);
+                if (top.size() > limit + 1) {
+                    top.poll();
+                }
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(top);
+        Collections.sort(hits, BY_RANK);
+        ArrayList<Key<Conference>> keys = new ArrayList<>(Math.min(limit, hits.size()));
+        for (Hit hit : hits.subList(0, Math.min(limit, hits.size()))) {
+            keys.add(hit.document.key);
+        }
+        String nextCursor = null;
+        if (hits.size() > limit) {
+            nextCursor = encodeCursor(hits.get(limit - 1));
+        }
+        return new KeyPage(keys, nextCursor);
+    }
+
+    /*
+     * Adds the BM25 score of one word to the documents holding it that matched all the previous
+     * words of the query. A document can match a prefix through several words.
+     */
+    private void score(Postings postings, double weight, int word, double[] scores,
+                       int[] matched, List<Integer> candidates, double averageLength) {
+        int count = documents.size();
+        double idf = Math.log(1 + (count - postings.size + 0.5) / (postings.size + 0.5));
+        for (int i = 0; i < postings.size; i++) {
+            int documentId = postings.documents[i];
+            if (matched[documentId] < word) {
+                continue;
+            }
+            if (word == 0 && matched[documentId] == 0) {
+                candidates.add(documentId);
+            }
+            double frequency = postings.frequencies[i];
+            double norm = K1 * (1 - B + B * documents.get(documentId).length / averageLength);
+            scores[documentId] += weight * idf * frequency * (K1 + 1) / (frequency + norm);
+            matched[documentId] = word + 1;
+        }
+    }
+
+    private static String encodeCursor(Hit hit) {
+        return BaseEncoding.base64Url().encode(
+                (hit.document.websafeKey + "\n" + hit.score).getBytes(UTF_8));
+    }
+
+    private static Hit decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        String decoded = new String(BaseEncoding.base64Url().decode(cursor), UTF_8);
+        int separator = decoded.indexOf('\n');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        Document document = new Document(Key.<Conference>create(decoded.substring(0, separator)));
+        return new Hit(document, Double.parseDouble(decoded.substring(separator + 1)));
+    }
+
+    /**
+     * Returns the number of Conferences in the index.
+     *
+     * @return the number of documents.
+     */
+    public synchronized int size() {
+        return documents.size();
+    }
+}
@@ -0,0 +1,102 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceView;
+import com.googlecode.objectify.Key;
+
+/**
+ * The response views of the Conferences recently served by this JVM, so that every version of
+ * a Conference is only turned into a ConferenceView once.
+ *
+ * Entries don't need to be invalidated: a cached view is only reused while it shows the same
+ * values as the Conference being served, which also holds for changes saved by other
+ * instances. A view that differs only in its seats available is copied rather than rebuilt.
+ */
+public class ConferenceViewCache {
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong BUILDS = new AtomicLong();
+
+    /**
+     * The views, in access order so that the eldest entry is the least recently used.
+     */
+    private static final Map<Key<Conference>, ConferenceView> VIEWS =
+            new LinkedHashMap<Key<Conference>, ConferenceView>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Key<Conference>, ConferenceView> eldest) {
+                    return size() > Constants.CONFERENCE_VIEW_CACHE_SIZE;
+                }
+            };
+
+    private ConferenceViewCache() {}
+
+    /**
+     * Fills in what is not stored on the Conferences themselves, organizer names and the seats
+     * available of sharded Conferences, each in one batch, and returns their views.
+     *
+     * @param conferences the Conferences to serialize.
+     * @return their views, in the same order.
+     */
+    public static List<ConferenceView> viewsOf(Collection<Conference> conferences) {
+        new OrganizerResolver().resolve(conferences);
+        SeatAllocator.applySeatsAvailable(conferences);
+        List<ConferenceView> views = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            views.add(view(conference));
+        }
+        return views;
+    }
+
+    /**
+     * Returns the view of a Conference whose organizer name and seats available are already
+     * filled in.
+     *
+     * @param conference the Conference to serialize.
+     * @return its view.
+     */
+    public static ConferenceView view(Conference conference) {
+        Key<Conference> key = conference.getKey();
+        ConferenceView cached;
+        synchronized (VIEWS) {
+            cached = VIEWS.get(key);
+        }
+        ConferenceView view = conference.toView(cached);
+        if (view == cached) {
+            HITS.incrementAndGet();
+        } else {
+            BUILDS.incrementAndGet();
+            synchronized (VIEWS) {
+                VIEWS.put(key, view);
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public static void clear() {
+        synchronized (VIEWS) {
+            VIEWS.clear();
+        }
+    }
+
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    public static long getBuilds() {
+        return BUILDS.get();
+    }
+}
@@ -0,0 +1,332 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.UnsupportedEncodingException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.utils.SystemProperty;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+
+/**
+ * Sends the confirmation emails queued in the pull queue, one batch at a time.
+ *
+ * Tasks only carry the recipient and the Conference key. The Conferences of a whole batch are
+ * loaded at once and the emails rendered from the cached confirmation EmailTemplate, then sent
+ * over a single mail session and transport connection.
+ * Every task is then acknowledged or retried on its own: sent tasks are deleted, tasks that
+ * failed are released for a later batch, and tasks that can never be sent are dropped.
+ *
+ * No email is sent once the lease of its batch is about to expire, since another run could then
+ * lease and send it again: the tasks left are released right away instead.
+ */
+public class ConfirmationEmailWorker {
+
+    private static final Logger LOG = Logger.getLogger(ConfirmationEmailWorker.class.getName());
+
+    private static final String CONFIRMATION_TEMPLATE = "confirmation";
+
+    private final Queue queue;
+
+    private final Session session;
+
+    public ConfirmationEmailWorker() {
+        this(QueueFactory.getQueue(Constants.CONFIRMATION_EMAIL_QUEUE),
+                Session.getDefaultInstance(new Properties(), null));
+    }
+
+    public ConfirmationEmailWorker(Queue queue, Session session) {
+        this.queue = queue;
+        this.session = session;
+    }
+
+    /**
+     * Returns the pull task for the confirmation email of a new Conference.
+     *
+     * @param email the email address of the organizer.
+     * @param websafeConferenceKey the String representation of the Conference Key.
+     * @return the task to add to the pull queue.
+     */
+    public static TaskOptions task(String email, String websafeConferenceKey) {
+        return TaskOptions.Builder.withMethod(TaskOptions.Method.PULL)
+                .param("email", email)
+                .param("conference", websafeConferenceKey);
+    }
+
+    /**
+     * Builds the confirmation email of a new Conference from its description, for the tasks
+     * that were queued with the full description instead of the Conference key.
+     *
+     * @param session the mail session.
+     * @param email the email address of the organizer.
+     * @param info the description of the Conference.
+     * @return the message.
+     * @throws MessagingException when the message can't be built, e.g. for an invalid address.
+     */
+    public static Message message(Session session, String email, String info)
+            throws MessagingException {
+        return message(session, email, "You created a new Conference!",
+                "Hi, you have created a following conference.\n" + info);
+    }
+
+    private static Message message(Session session, String email, String subject, String body)
+            throws MessagingException {
+        Message message = new MimeMessage(session);
+        try {
+            message.setFrom(new InternetAddress(String.format("noreply@%s.appspotmail.com",
+                    SystemProperty.applicationId.get()), "Conference Central"));
+            message.addRecipient(Message.RecipientType.TO, new InternetAddress(email, ""));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        message.setSubject(subject);
+        message.setText(body);
+        return message;
+    }
+
+    /**
+     * Leases and sends batches until the queue is empty or the deadline has passed.
+     *
+     * @param deadlineMillis the time after which no new batch is leased.
+     * @return the number of emails sent.
+     */
+    public int drain(long deadlineMillis) {
+        int sent = 0;
+        while (System.currentTimeMillis() < deadlineMillis) {
+            // Taken before leasing, so the lease never ends before it
+            long leaseExpiresAt = System.currentTimeMillis()
+                    + TimeUnit.SECONDS.toMillis(Constants.CONFIRMATION_EMAIL_LEASE_SECONDS);
+            List<TaskHandle> tasks = queue.leaseTasks(Constants.CONFIRMATION_EMAIL_LEASE_SECONDS,
+                    TimeUnit.SECONDS, Constants.CONFIRMATION_EMAIL_BATCH_SIZE);
+            if (tasks.isEmpty()) {
+                break;
+            }
+            Delivery delivery = deliver(tasks, leaseExpiresAt);
+            if (!delivery.getDone().isEmpty()) {
+                queue.deleteTask(delivery.getDone());
+            }
+            for (TaskHandle task : delivery.getRetry()) {
+                queue.modifyTaskLease(task, Constants.CONFIRMATION_EMAIL_RETRY_SECONDS,
+                        TimeUnit.SECONDS);
+            }
+            for (TaskHandle task : delivery.getUnsent()) {
+                queue.modifyTaskLease(task, 0, TimeUnit.SECONDS);
+            }
+            sent += delivery.getSent();
+        }
+        return sent;
+    }
+
+    /**
+     * The outcome of sending one batch.
+     */
+    static class Delivery {
+        private final List<TaskHandle> done = new ArrayList<>();
+        private final List<TaskHandle> retry = new ArrayList<>();
+        private final List<TaskHandle> unsent = new ArrayList<>();
+        private int sent;
+
+        /**
+         * Returns the tasks to delete: the sent ones and the ones that can never be sent.
+         */
+        List<TaskHandle> getDone() {
+            return done;
+        }
+
+        /**
+         * Returns the tasks to send again in a later batch.
+         */
+        List<TaskHandle> getRetry() {
+            return retry;
+        }
+
+        /**
+         * Returns the tasks not tried because the lease was about to expire, to release now.
+         */
+        List<TaskHandle> getUnsent() {
+            return unsent;
+        }
+
+        int getSent() {
+            return sent;
+        }
+    }
+
+    /**
+     * Sends the emails of a batch of tasks over one transport connection.
+     *
+     * Stops sending {@link Constants#CONFIRMATION_EMAIL_LEASE_MARGIN_MILLIS} before the lease
+     * expires, leaving time to delete the sent tasks while they are still leased.
+     *
+     * @param tasks the leased tasks.
+     * @param leaseExpiresAt the time the lease of the tasks expires.
+     * @return which tasks are done, which ones must be retried and which ones were not tried.
+     */
+    Delivery deliver(List<TaskHandle> tasks, long leaseExpiresAt) {
+        long sendDeadline = leaseExpiresAt - Constants.CONFIRMATION_EMAIL_LEASE_MARGIN_MILLIS;
+        Delivery delivery = new Delivery();
+        Map<TaskHandle, Message> messages = messages(tasks, delivery);
+        if (messages.isEmpty()) {
+            return delivery;
+        }
+        if (System.currentTimeMillis() >= sendDeadline) {
+            delivery.unsent.addAll(messages.keySet());
+            return delivery;
+        }
+        Transport transport;
+        try {
+            transport = session.getTransport("smtp");
+            transport.connect();
+        } catch (MessagingException e) {
+            LOG.log(Level.WARNING, "Failed to connect to the mail transport", e);
+            delivery.retry.addAll(messages.keySet());
+            return delivery;
+        }
+        try {
+            for (Map.Entry<TaskHandle, Message> entry : messages.entrySet()) {
+                if (System.currentTimeMillis() >= sendDeadline) {
+                    delivery.unsent.add(entry.getKey());
+                } else {
+                    send(transport, entry.getKey(), entry.getValue(), delivery);
+                }
+            }
+        } finally {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOG.log(Level.WARNING, "Failed to close the mail transport", e);
+            }
+        }
+        return delivery;
+    }
+
+    /**
+     * Builds the messages of a batch, loading all its Conferences at once. Tasks whose message
+     * can never be built are added to the done tasks.
+     */
+    private Map<TaskHandle, Message> messages(List<TaskHandle> tasks, Delivery delivery) {
+        Map<TaskHandle, Map<String, String>> params = new LinkedHashMap<>();
+        Set<String> conferenceKeys = new HashSet<>();
+        for (TaskHandle task : tasks) {
+            Map<String, String> taskParams = new HashMap<>();
+            try {
+                for (Map.Entry<String, String> param : task.extractParams()) {
+                    taskParams.put(param.getKey(), param.getValue());
+                }
+            } catch (UnsupportedEncodingException | RuntimeException e) {
+                drop(task, delivery, e);
+                continue;
+            }
+            params.put(task, taskParams);
+            if (taskParams.containsKey("conference")) {
+                conferenceKeys.add(taskParams.get("conference"));
+            }
+        }
+        Map<String, Conference> conferences = new HashMap<>();
+        for (Conference conference
+                : BatchLoader.<Conference>loadWebsafe(conferenceKeys).getFound()) {
+            conferences.put(conference.getWebsafeKey(), conference);
+        }
+
+        EmailTemplate template = EmailTemplate.get(CONFIRMATION_TEMPLATE);
+        Map<TaskHandle, Message> messages = new LinkedHashMap<>();
+        for (Map.Entry<TaskHandle, Map<String, String>> entry : params.entrySet()) {
+            TaskHandle task = entry.getKey();
+            String email = entry.getValue().get("email");
+            String conferenceKey = entry.getValue().get("conference");
+            try {
+                if (email == null) {
+                    throw new IllegalArgumentException("The task has no email address");
+                }
+                if (conferenceKey == null) {
+                    messages.put(task, message(session, email, entry.getValue().get("info")));
+                    continue;
+                }
+                Conference conference = conferences.get(conferenceKey);
+                if (conference == null) {
+                    throw new IllegalArgumentException("No Conference found with key: "
+                            + conferenceKey);
+                }
+                Map<String, Object> values = values(conference);
+                messages.put(task, message(session, email, template.renderSubject(values),
+                        template.renderBody(values)));
+            } catch (MessagingException | RuntimeException e) {
+                drop(task, delivery, e);
+            }
+        }
+        return messages;
+    }
+
+    private static Map<String, Object> values(Conference conference) {
+        DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.LONG, Locale.US);
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", conference.getName());
+        values.put("organizer", conference.getOrganizerDisplayName());
+        values.put("city", conference.getCity());
+        values.put("topics", conference.getTopics() == null
+                ? null : Joiner.on(", ").join(conference.getTopics()));
+        values.put("startDate", conference.getStartDate() == null
+                ? null : dateFormat.format(conference.getStartDate()));
+        values.put("endDate", conference.getEndDate() == null
+                ? null : dateFormat.format(conference.getEndDate()));
+        values.put("maxAttendees", conference.getMaxAttendees());
+        return values;
+    }
+
+    private static void drop(TaskHandle task, Delivery delivery, Exception e) {
+        // Sending again won't fix a malformed task
+        LOG.log(Level.SEVERE, String.format("Dropping confirmation email task %s",
+                task.getName()), e);
+        delivery.done.add(task);
+    }
+
+    private void send(Transport transport, TaskHandle task, Message message, Delivery delivery) {
+        String email = null;
+        try {
+            Address[] recipients = message.getAllRecipients();
+            email = Arrays.toString(recipients);
+            message.saveChanges();
+            transport.sendMessage(message, recipients);
+            delivery.done.add(task);
+            delivery.sent++;
+        } catch (SendFailedException e) {
+            if (e.getValidUnsentAddresses() == null || e.getValidUnsentAddresses().length == 0) {
+                // No valid address to send it to, it would fail forever
+                LOG.log(Level.WARNING, String.format("Dropping mail to %s", email), e);
+                delivery.done.add(task);
+            } else {
+                LOG.log(Level.WARNING, String.format("Failed to send an mail to %s", email), e);
+                delivery.retry.add(task);
+            }
+        } catch (MessagingException e) {
+            LOG.log(Level.WARNING, String.format("Failed to send an mail to %s", email), e);
+            delivery.retry.add(task);
+        }
+    }
+}
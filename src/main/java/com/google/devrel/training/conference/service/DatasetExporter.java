@@ -0,0 +1,137 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * Exports the Conferences, Profiles or Registrations as NDJSON records, one batch at a time.
+ *
+ * Each batch is a query of at most {@link Constants#EXPORT_BATCH_SIZE} entities started from
+ * the cursor of the previous batch. Its records are written as soon as they are read and the
+ * session cache is cleared afterwards, so the memory used doesn't grow with the number of
+ * entities exported, and an export can be resumed from the cursor of any batch.
+ */
+public class DatasetExporter {
+
+    /**
+     * The kinds that can be exported.
+     */
+    public enum Kind {
+        CONFERENCES(Conference.class),
+        PROFILES(Profile.class),
+        REGISTRATIONS(Registration.class);
+
+        private final Class<?> type;
+
+        private Kind(Class<?> type) {
+            this.type = type;
+        }
+    }
+
+    private DatasetExporter() {}
+
+    /**
+     * Writes the records of one batch.
+     *
+     * @param kind the kind to export.
+     * @param cursor the cursor returned with the previous batch, null for the first one.
+     * @param writer where to write the records.
+     * @return the cursor of the next batch, null once every entity has been exported.
+     * @throws IOException when the records can't be written.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static String exportBatch(Kind kind, String cursor, NdjsonWriter writer)
+            throws IOException {
+        Query<?> query = ofy().transactionless().load().type(kind.type)
+                .limit(Constants.EXPORT_BATCH_SIZE).chunk(Constants.EXPORT_BATCH_SIZE);
+        Cursor start = ConferencePager.cursor(cursor);
+        if (start != null) {
+            query = query.startAt(start);
+        }
+        QueryResultIterator<?> iterator = query.iterator();
+        int exported;
+        if (kind == Kind.CONFERENCES) {
+            exported = writeConferences(iterator, writer);
+        } else {
+            exported = 0;
+            while (iterator.hasNext()) {
+                Object entity = iterator.next();
+                writer.write(entity instanceof Profile
+                        ? record((Profile) entity) : record((Registration) entity));
+                exported++;
+            }
+        }
+        String nextCursor = exported < Constants.EXPORT_BATCH_SIZE
+                ? null : iterator.getCursor().toWebSafeString();
+        // Don't keep the exported entities in the session cache for the rest of the export
+        ofy().clear();
+        return nextCursor;
+    }
+
+    /*
+     * The seats available of sharded Conferences are summed for the whole batch at once, so the
+     * Conferences of a batch are held until it has been read.
+     */
+    private static int writeConferences(QueryResultIterator<?> iterator, NdjsonWriter writer)
+            throws IOException {
+        List<Conference> conferences = new ArrayList<>(Constants.EXPORT_BATCH_SIZE);
+        while (iterator.hasNext()) {
+            conferences.add((Conference) iterator.next());
+        }
+        SeatAllocator.applySeatsAvailable(conferences);
+        for (Conference conference : conferences) {
+            writer.write(record(conference));
+        }
+        return conferences.size();
+    }
+
+    static Map<String, Object> record(Conference conference) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("websafeKey", conference.getWebsafeKey());
+        record.put("id", conference.getId());
+        record.put("organizerUserId", conference.getOrganizerUserId());
+        record.put("name", conference.getName());
+        record.put("description", conference.getDescription());
+        record.put("topics", conference.getTopics());
+        record.put("city", conference.getCity());
+        record.put("startDate", conference.getStartDate());
+        record.put("endDate", conference.getEndDate());
+        record.put("month", conference.getMonth());
+        record.put("maxAttendees", conference.getMaxAttendees());
+        record.put("seatsAvailable", conference.getSeatsAvailable());
+        record.put("seatShards", conference.getSeatShards());
+        return record;
+    }
+
+    static Map<String, Object> record(Profile profile) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("userId", profile.getUserId());
+        record.put("displayName", profile.getDisplayName());
+        record.put("mainEmail", profile.getMainEmail());
+        record.put("teeShirtSize", profile.getTeeShirtSize());
+        record.put("conferenceKeysToAttend", profile.getConferenceKeysToAttend());
+        return record;
+    }
+
+    static Map<String, Object> record(Registration registration) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("userId", registration.getUserId());
+        record.put("conferenceKey", registration.getConferenceKey().getString());
+        record.put("displayName", registration.getDisplayName());
+        record.put("registeredAt", registration.getRegisteredAt());
+        return record;
+    }
+}
@@ -0,0 +1,73 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+/**
+ * Refreshes the display name of a Profile where it is denormalized, in the entities of one kind
+ * that are children of the Profile.
+ *
+ * The keys of the children are read with one ancestor query, then they are updated in
+ * transactions of at most {@link Constants#DISPLAY_NAME_REFRESH_BATCH_SIZE} entities, below the
+ * limit of entities per put. Every transaction reads the display name from the Profile itself, so
+ * that a rename committed meanwhile is not overwritten by this one.
+ *
+ * @param <E> the kind of the children.
+ */
+abstract class DisplayNameRefresh<E> {
+
+    private final Class<E> type;
+
+    DisplayNameRefresh(Class<E> type) {
+        this.type = type;
+    }
+
+    /**
+     * Sets the display name of a child.
+     *
+     * @param entity the child.
+     * @param displayName the display name of the Profile.
+     */
+    abstract void update(E entity, String displayName);
+
+    /**
+     * Called once the transaction of a batch has committed, does nothing by default.
+     *
+     * @param entities the children saved by the transaction.
+     */
+    void committed(Collection<E> entities) {}
+
+    /**
+     * Refreshes the display name in every child of the given Profile.
+     *
+     * @param profileKey the key of the Profile.
+     */
+    void refresh(final Key<Profile> profileKey) {
+        List<Key<E>> keys = ofy().load().type(type).ancestor(profileKey).keys().list();
+        for (final List<Key<E>> batch
+                : Lists.partition(keys, Constants.DISPLAY_NAME_REFRESH_BATCH_SIZE)) {
+            Collection<E> saved = ofy().transact(new Work<Collection<E>>() {
+                @Override
+                public Collection<E> run() {
+                    Profile profile = ofy().load().key(profileKey).now();
+                    // Deleted children are not in the result
+                    Collection<E> entities = ofy().load().keys(batch).values();
+                    for (E entity : entities) {
+                        update(entity, profile.getDisplayName());
+                    }
+                    ofy().save().entities(entities).now();
+                    return entities;
+                }
+            });
+            committed(saved);
+        }
+    }
+}
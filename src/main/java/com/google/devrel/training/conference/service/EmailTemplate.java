@@ -0,0 +1,117 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * An email template, compiled once and cached for the life of the instance.
+ *
+ * Templates are the text files in /templates on the classpath: the first line is the subject
+ * and the rest is the body. Both may hold ${name} placeholders, replaced by the values given to
+ * render; a placeholder without a value renders as an empty String.
+ */
+public class EmailTemplate {
+
+    private static final ConcurrentMap<String, EmailTemplate> TEMPLATES =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A compiled text: literals[i] is followed by the value of names[i], and the last literal
+     * ends the text.
+     */
+    private static class Text {
+        private final String[] literals;
+        private final String[] names;
+
+        private Text(String source) {
+            List<String> literals = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            int start = 0;
+            int open;
+            while ((open = source.indexOf("${", start)) >= 0) {
+                int close = source.indexOf('}', open);
+                if (close < 0) {
+                    break;
+                }
+                literals.add(source.substring(start, open));
+                names.add(source.substring(open + 2, close));
+                start = close + 1;
+            }
+            literals.add(source.substring(start));
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.names = names.toArray(new String[names.size()]);
+        }
+
+        private String render(Map<String, ?> values) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < names.length; i++) {
+                result.append(literals[i]);
+                Object value = values.get(names[i]);
+                if (value != null) {
+                    result.append(value);
+                }
+            }
+            return result.append(literals[names.length]).toString();
+        }
+    }
+
+    private final Text subject;
+
+    private final Text body;
+
+    EmailTemplate(String source) {
+        int newline = source.indexOf('\n');
+        this.subject = new Text(newline < 0 ? source : source.substring(0, newline).trim());
+        this.body = new Text(newline < 0 ? "" : source.substring(newline + 1));
+    }
+
+    /**
+     * Returns the compiled template with the given name.
+     *
+     * @param name the name of the template file, without the .txt extension.
+     * @return the template.
+     * @throws IllegalArgumentException when there is no such template.
+     */
+    public static EmailTemplate get(String name) {
+        EmailTemplate template = TEMPLATES.get(name);
+        if (template == null) {
+            template = new EmailTemplate(load(name));
+            EmailTemplate existing = TEMPLATES.putIfAbsent(name, template);
+            if (existing != null) {
+                template = existing;
+            }
+        }
+        return template;
+    }
+
+    private static String load(String name) {
+        InputStream in = EmailTemplate.class.getResourceAsStream("/templates/" + name + ".txt");
+        if (in == null) {
+            throw new IllegalArgumentException("No email template " + name);
+        }
+        try {
+            try {
+                return new String(ByteStreams.toByteArray(in), "UTF-8");
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read email template " + name, e);
+        }
+    }
+
+    public String renderSubject(Map<String, ?> values) {
+        return subject.render(values);
+    }
+
+    public String renderBody(Map<String, ?> values) {
+        return body.render(values);
+    }
+}
@@ -0,0 +1,150 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.devrel.training.conference.Constants;
+
+/**
+ * The latencies and API calls of every endpoint served by this instance, since it started or
+ * since the last reset.
+ *
+ * RequestContextFilter records each request under the name of its endpoint once it is done.
+ */
+public class EndpointMetrics {
+
+    /**
+     * The name the requests are recorded under once there are too many endpoints, so that
+     * requests for random paths can't grow the map without bounds.
+     */
+    static final String OTHER = "other";
+
+    private static final ConcurrentMap<String, EndpointMetrics> ENDPOINTS =
+            new ConcurrentHashMap<>();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong datastoreGets = new AtomicLong();
+    private final AtomicLong datastorePuts = new AtomicLong();
+    private final AtomicLong datastoreQueries = new AtomicLong();
+    private final AtomicLong transactionRetries = new AtomicLong();
+    private final AtomicLong memcacheHits = new AtomicLong();
+    private final AtomicLong memcacheMisses = new AtomicLong();
+    private final AtomicLong taskQueueCalls = new AtomicLong();
+
+    private EndpointMetrics() {}
+
+    /**
+     * Records a request.
+     *
+     * @param endpoint the name of the endpoint.
+     * @param micros the latency of the request in microseconds.
+     * @param metrics the API calls made by the request.
+     */
+    public static void record(String endpoint, long micros, RequestMetrics metrics) {
+        EndpointMetrics endpointMetrics = ENDPOINTS.get(endpoint);
+        if (endpointMetrics == null) {
+            if (ENDPOINTS.size() >= Constants.MAX_METRICS_ENDPOINTS) {
+                endpoint = OTHER;
+            }
+            ENDPOINTS.putIfAbsent(endpoint, new EndpointMetrics());
+            endpointMetrics = ENDPOINTS.get(endpoint);
+        }
+        endpointMetrics.latency.record(micros);
+        endpointMetrics.datastoreGets.addAndGet(metrics.getDatastoreGets());
+        endpointMetrics.datastorePuts.addAndGet(metrics.getDatastorePuts());
+        endpointMetrics.datastoreQueries.addAndGet(metrics.getDatastoreQueries());
+        endpointMetrics.transactionRetries.addAndGet(metrics.getTransactionRetries());
+        endpointMetrics.memcacheHits.addAndGet(metrics.getMemcacheHits());
+        endpointMetrics.memcacheMisses.addAndGet(metrics.getMemcacheMisses());
+        endpointMetrics.taskQueueCalls.addAndGet(metrics.getTaskQueueCalls());
+    }
+
+    /**
+     * Returns the metrics of every endpoint, sorted by name.
+     *
+     * @return the snapshots, keyed by endpoint.
+     */
+    public static Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, EndpointMetrics> entry : ENDPOINTS.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshotOne());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public static void clear() {
+        ENDPOINTS.clear();
+    }
+
+    private Snapshot snapshotOne() {
+        return new Snapshot(latency.snapshot(), datastoreGets.get(), datastorePuts.get(),
+                datastoreQueries.get(), transactionRetries.get(), memcacheHits.get(),
+                memcacheMisses.get(), taskQueueCalls.get());
+    }
+
+    /**
+     * The metrics of one endpoint. API call counts are totals over all its requests.
+     */
+    public static class Snapshot {
+
+        private final LatencyHistogram.Snapshot latency;
+        private final long datastoreGets;
+        private final long datastorePuts;
+        private final long datastoreQueries;
+        private final long transactionRetries;
+        private final long memcacheHits;
+        private final long memcacheMisses;
+        private final long taskQueueCalls;
+
+        Snapshot(LatencyHistogram.Snapshot latency, long datastoreGets, long datastorePuts,
+                long datastoreQueries, long transactionRetries, long memcacheHits,
+                long memcacheMisses, long taskQueueCalls) {
+            this.latency = latency;
+            this.datastoreGets = datastoreGets;
+            this.datastorePuts = datastorePuts;
+            this.datastoreQueries = datastoreQueries;
+            this.transactionRetries = transactionRetries;
+            this.memcacheHits = memcacheHits;
+            this.memcacheMisses = memcacheMisses;
+            this.taskQueueCalls = taskQueueCalls;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        public long getDatastoreGets() {
+            return datastoreGets;
+        }
+
+        public long getDatastorePuts() {
+            return datastorePuts;
+        }
+
+        public long getDatastoreQueries() {
+            return datastoreQueries;
+        }
+
+        public long getTransactionRetries() {
+            return transactionRetries;
+        }
+
+        public long getMemcacheHits() {
+            return memcacheHits;
+        }
+
+        public long getMemcacheMisses() {
+            return memcacheMisses;
+        }
+
+        public long getTaskQueueCalls() {
+            return taskQueueCalls;
+        }
+    }
+}
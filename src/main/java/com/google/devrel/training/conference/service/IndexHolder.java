@@ -0,0 +1,165 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+
+/**
+ * Holds the in-memory index of Conferences of this instance and keeps it in step with the
+ * datastore, for the ConferenceIndex and the ConferenceTextIndex.
+ *
+ * The index is built from a snapshot of all the Conferences once, when the instance warms up or
+ * on first use. Conferences saved on this instance are applied to it right away, including
+ * those saved while it is being built: they are applied again once the snapshot is complete, so
+ * that an older copy read by the snapshot doesn't win. The changes made on other instances are
+ * picked up at most every {@link Constants#SEARCH_INDEX_REFRESH_MILLIS} by querying the
+ * Conferences updated since the last refresh, so a refresh costs as much as the changes, not as
+ * the whole dataset.
+ *
+ * @param <I> the type of the index.
+ */
+abstract class IndexHolder<I> {
+
+    private static final Logger LOG = Logger.getLogger(IndexHolder.class.getName());
+
+    private volatile I current;
+
+    /**
+     * When the snapshot or the last refresh started.
+     */
+    private volatile long refreshedAt;
+
+    /**
+     * The Conferences saved during the build, null when no build is running.
+     */
+    private List<Conference> pending;
+
+    private final Object buildLock = new Object();
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * Creates the index of a snapshot of the Conferences.
+     *
+     * @param conferences all the Conferences.
+     * @return the index.
+     */
+    abstract I build(Iterable<Conference> conferences);
+
+    /**
+     * Adds or updates the document of a Conference.
+     *
+     * @param index the index.
+     * @param conference the Conference.
+     */
+    abstract void apply(I index, Conference conference);
+
+    /**
+     * Returns the index, building it if this instance doesn't have one yet.
+     *
+     * When the index is due for a refresh, one request applies the Conferences updated since the
+     * last one while the others keep using it as it is.
+     *
+     * @return the index.
+     */
+    I get() {
+        I index = current;
+        if (index == null) {
+            return build();
+        }
+        if (System.currentTimeMillis() - refreshedAt > Constants.SEARCH_INDEX_REFRESH_MILLIS
+                && refreshing.compareAndSet(false, true)) {
+            try {
+                refresh(index);
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index unless it has been built already.
+     *
+     * @return the index.
+     */
+    I build() {
+        synchronized (buildLock) {
+            I index = current;
+            if (index != null) {
+                return index;
+            }
+            synchronized (this) {
+                pending = new ArrayList<>();
+            }
+            long start = System.currentTimeMillis();
+            try {
+                index = build(ofy().transactionless().load().type(Conference.class)
+                        .chunk(Constants.SEARCH_INDEX_BUILD_CHUNK));
+            } finally {
+                synchronized (this) {
+                    if (index != null) {
+                        for (Conference conference : pending) {
+                            apply(index, conference);
+                        }
+                        refreshedAt = start;
+                        current = index;
+                    }
+                    pending = null;
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Applies a change of a Conference to the index, if it has been built or is being built.
+     *
+     * @param conference the Conference that has been saved.
+     */
+    void update(Conference conference) {
+        I index;
+        synchronized (this) {
+            if (pending != null) {
+                pending.add(conference);
+            }
+            index = current;
+        }
+        if (index != null) {
+            apply(index, conference);
+        }
+    }
+
+    /**
+     * Applies the Conferences updated since the last refresh, and a little before to allow for
+     * the commits still in flight and the eventual consistency of the query.
+     */
+    void refresh(I index) {
+        long start = System.currentTimeMillis();
+        Date since = new Date(refreshedAt - Constants.SEARCH_INDEX_REFRESH_OVERLAP_MILLIS);
+        int applied = 0;
+        for (Conference conference : ofy().transactionless().load().type(Conference.class)
+                .filter(Conference.UPDATED_AT + " >=", since)
+                .chunk(Constants.SEARCH_INDEX_BUILD_CHUNK)) {
+            apply(index, conference);
+            applied++;
+        }
+        refreshedAt = start;
+        LOG.fine(String.format("Refreshed %s in %d ms: %d conferences", index.getClass()
+                .getSimpleName(), System.currentTimeMillis() - start, applied));
+    }
+
+    /**
+     * Drops the index, it is built again on next use.
+     */
+    synchronized void clear() {
+        current = null;
+    }
+}
@@ -0,0 +1,121 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Writes records as newline delimited JSON, one JSON object per line.
+ *
+ * Values can be Strings, Numbers, Booleans, Enums, Dates (written as ISO 8601 UTC strings),
+ * Collections and Maps; null values are left out. Not thread safe.
+ */
+public class NdjsonWriter implements Flushable, Closeable {
+
+    private final Writer out;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    public NdjsonWriter(Writer out) {
+        this.out = out;
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Writes one record on its own line.
+     *
+     * @param record the fields of the record, in the order to write them.
+     * @throws IOException when the output can't be written.
+     */
+    public void write(Map<String, ?> record) throws IOException {
+        writeValue(record);
+        out.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.write("null");
+        } else if (value instanceof String || value instanceof Enum) {
+            writeString(value.toString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof Date) {
+            writeString(dateFormat.format((Date) value));
+        } else if (value instanceof Map) {
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeString(entry.getKey().toString());
+                out.write(':');
+                writeValue(entry.getValue());
+            }
+            out.write('}');
+        } else if (value instanceof Collection) {
+            out.write('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeValue(element);
+            }
+            out.write(']');
+        } else {
+            throw new IllegalArgumentException("Can't write a " + value.getClass().getName());
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
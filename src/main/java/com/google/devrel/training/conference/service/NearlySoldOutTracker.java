@@ -0,0 +1,147 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
+import com.googlecode.objectify.Work;
+
+/**
+ * Maintains the NearlySoldOut set and the announcement cached from it.
+ *
+ * Registrations update the set when they move a Conference across the threshold, so the
+ * announcement is current without any query. The set entity is only written on those
+ * crossings, in its own transaction after the registration has committed.
+ */
+public class NearlySoldOutTracker {
+
+    private NearlySoldOutTracker() {}
+
+    /**
+     * Returns the announcement of the nearly sold out Conferences.
+     *
+     * @return the announcement, or null when no Conference is nearly sold out.
+     */
+    public static String getMessage() {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object cached = memcacheService.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        String message;
+        if (cached instanceof String) {
+            message = (String) cached;
+        } else {
+            NearlySoldOut nearlySoldOut = ofy().load().key(NearlySoldOut.key()).now();
+            message = nearlySoldOut == null ? null : nearlySoldOut.getMessage();
+            // An empty String caches that there is no announcement
+            message = message == null ? "" : message;
+            memcacheService.put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, message,
+                    Expiration.byDeltaSeconds(Constants.ANNOUNCEMENT_CACHE_SECONDS));
+        }
+        return message.isEmpty() ? null : message;
+    }
+
+    /**
+     * Updates the set after a registration or an unregistration has committed.
+     *
+     * For Conferences with sharded seats the crossing is detected on the cached sum of the
+     * shards. When no sum is cached, the shards are counted and the set is updated from the sum,
+     * since the reconciliation only scans the seats counted on the Conference entities.
+     *
+     * @param conference the Conference as saved by the transaction.
+     * @param cachedSeatsAvailable the cached sum of the shards after the change, may be null.
+     * @param delta -1 after a registration, +1 after an unregistration, 0 after an update.
+     */
+    public static void seatsChanged(Conference conference, Long cachedSeatsAvailable, int delta) {
+        long seatsAvailable;
+        if (conference.isSeatsSharded()) {
+            if (cachedSeatsAvailable == null) {
+                SeatAllocator.applySeatsAvailable(Collections.singletonList(conference));
+                seatsAvailable = conference.getSeatsAvailable();
+            } else if (Conference.isNearlySoldOut(cachedSeatsAvailable)
+                    == Conference.isNearlySoldOut(cachedSeatsAvailable - delta)) {
+                return;
+            } else {
+                seatsAvailable = cachedSeatsAvailable;
+            }
+        } else if (conference.isNearlySoldOutChanged()) {
+            seatsAvailable = conference.getSeatsAvailable();
+        } else {
+            return;
+        }
+        final String websafeConferenceKey = conference.getWebsafeKey();
+        final String name = conference.getName();
+        final boolean nearlySoldOut = Conference.isNearlySoldOut(seatsAvailable);
+        boolean changed = ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                NearlySoldOut set = load();
+                if (!set.update(websafeConferenceKey, name, nearlySoldOut)) {
+                    return false;
+                }
+                ofy().save().entity(set).now();
+                return true;
+            }
+        });
+        if (changed) {
+            MemcacheServiceFactory.getMemcacheService().delete(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        }
+    }
+
+    /**
+     * Replaces the set with the result of a full scan, to fix any update that was missed.
+     *
+     * The scan only sees the seats counted on the Conference entities, so Conferences already in
+     * the set whose seats are sharded are checked against the sum of their shards instead.
+     *
+     * @param scanned the names of the nearly sold out Conferences found by the scan, keyed by
+     *     websafe key.
+     */
+    public static void reconcile(Map<String, String> scanned) {
+        final Map<String, String> conferences = new HashMap<>(scanned);
+        List<String> unconfirmed = new ArrayList<>();
+        for (String websafeConferenceKey : load().getConferences().keySet()) {
+            if (!conferences.containsKey(websafeConferenceKey)) {
+                unconfirmed.add(websafeConferenceKey);
+            }
+        }
+        if (!unconfirmed.isEmpty()) {
+            List<Conference> found = BatchLoader.<Conference>loadWebsafe(unconfirmed).getFound();
+            SeatAllocator.applySeatsAvailable(found);
+            for (Conference conference : found) {
+                if (conference.isSeatsSharded()
+                        && Conference.isNearlySoldOut(conference.getSeatsAvailable())) {
+                    conferences.put(conference.getWebsafeKey(), conference.getName());
+                }
+            }
+        }
+
+        boolean changed = ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                NearlySoldOut set = load();
+                if (!set.replace(conferences)) {
+                    return false;
+                }
+                ofy().save().entity(set).now();
+                return true;
+            }
+        });
+        if (changed) {
+            MemcacheServiceFactory.getMemcacheService().delete(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        }
+    }
+
+    private static NearlySoldOut load() {
+        NearlySoldOut set = ofy().load().key(NearlySoldOut.key()).now();
+        return set == null ? new NearlySoldOut() : set;
+    }
+}
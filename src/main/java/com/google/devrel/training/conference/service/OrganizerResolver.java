@@ -0,0 +1,88 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+
+/**
+ * Resolves organizer display names for the Conferences of a single request.
+ *
+ * Create one instance per request: every distinct organizer is loaded at most once, and all the
+ * organizers of a result list are loaded in one batch before the list is serialized.
+ */
+public class OrganizerResolver {
+
+    private static final DisplayNameRefresh<Conference> DISPLAY_NAME_REFRESH =
+            new DisplayNameRefresh<Conference>(Conference.class) {
+                @Override
+                void update(Conference conference, String displayName) {
+                    conference.updateOrganizerDisplayName(displayName);
+                }
+
+                @Override
+                void committed(Collection<Conference> conferences) {
+                    ConferenceChanges.committed(conferences);
+                }
+            };
+
+    private final Map<Key<Profile>, String> displayNames = new HashMap<>();
+
+    /**
+     * Supplies the organizer display name of every given Conference that doesn't have it yet.
+     *
+     * @param conferences the Conferences that are about to be serialized.
+     * @return the same Conferences, for method chaining.
+     */
+    public <C extends Collection<Conference>> C resolve(C conferences) {
+        Set<Key<Profile>> unknown = new LinkedHashSet<>();
+        for (Conference conference : conferences) {
+            if (!conference.hasOrganizerDisplayName()
+                    && !displayNames.containsKey(conference.getProfileKey())) {
+                unknown.add(conference.getProfileKey());
+            }
+        }
+        if (!unknown.isEmpty()) {
+            Map<Key<Profile>, Profile> organizers = ofy().load().keys(unknown);
+            for (Key<Profile> key : unknown) {
+                Profile organizer = organizers.get(key);
+                displayNames.put(key, organizer == null ? key.getName() : organizer.getDisplayName());
+            }
+        }
+        for (Conference conference : conferences) {
+            if (!conference.hasOrganizerDisplayName()) {
+                conference.updateOrganizerDisplayName(displayNames.get(conference.getProfileKey()));
+            }
+        }
+        return conferences;
+    }
+
+    /**
+     * Supplies the organizer display name of a single Conference.
+     *
+     * @param conference the Conference that is about to be serialized.
+     * @return the same Conference, for method chaining.
+     */
+    public Conference resolve(Conference conference) {
+        resolve(Collections.singletonList(conference));
+        return conference;
+    }
+
+    /**
+     * Refreshes the denormalized organizer display name of every Conference organized by the
+     * given Profile, and applies the changes to the caches and the indexes batch by batch.
+     *
+     * @param profileKey the key of the organizer's Profile.
+     */
+    public static void refreshDisplayName(Key<Profile> profileKey) {
+        DISPLAY_NAME_REFRESH.refresh(profileKey);
+    }
+}
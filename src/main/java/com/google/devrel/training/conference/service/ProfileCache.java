@@ -0,0 +1,115 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+
+/**
+ * Cache of Profiles keyed by userId.
+ *
+ * Profiles are memoized for the current request, so a user's Profile is read at most once per
+ * request, and kept in memcache across requests. The cache is write-through: every code path
+ * that saves a Profile puts the saved Profile back with {@link #put(Profile)}.
+ *
+ * Inside a transaction the cache is bypassed and the Profile is read from the datastore, so it
+ * takes part in the transaction.
+ */
+public class ProfileCache {
+
+    private ProfileCache() {}
+
+    /**
+     * Returns the Profile of the given user.
+     *
+     * @param userId the userId of the user.
+     * @return the Profile, or null when the user has no Profile yet.
+     */
+    public static Profile get(String userId) {
+        if (ofy().getTransaction() != null) {
+            return ofy().load().key(Key.create(Profile.class, userId)).now();
+        }
+        RequestContext context = RequestContext.current();
+        if (context != null && context.getProfiles().containsKey(userId)) {
+            return context.getProfiles().get(userId);
+        }
+
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object cached = memcacheService.get(memcacheKey(userId));
+        Profile profile;
+        if (cached instanceof Entity) {
+            profile = ofy().load().fromEntity((Entity) cached);
+        } else {
+            profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+            if (profile != null) {
+                // Don't overwrite a Profile put by a save that committed after this read
+                memcacheService.put(memcacheKey(userId), ofy().save().toEntity(profile),
+                        Expiration.byDeltaSeconds(Constants.PROFILE_CACHE_SECONDS),
+                        SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+            }
+        }
+        if (context != null) {
+            context.getProfiles().put(userId, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Puts a Profile that has just been saved (and committed) into the cache.
+     *
+     * @param profile the saved Profile.
+     */
+    public static void put(Profile profile) {
+        RequestContext context = RequestContext.current();
+        if (context != null) {
+            context.getProfiles().put(profile.getUserId(), profile);
+        }
+        MemcacheServiceFactory.getMemcacheService().put(memcacheKey(profile.getUserId()),
+                ofy().save().toEntity(profile),
+                Expiration.byDeltaSeconds(Constants.PROFILE_CACHE_SECONDS));
+    }
+
+    /**
+     * Puts several Profiles that have just been saved into the cache.
+     *
+     * @param profiles the saved Profiles.
+     */
+    public static void putAll(Iterable<Profile> profiles) {
+        RequestContext context = RequestContext.current();
+        Map<String, Entity> entities = new HashMap<>();
+        for (Profile profile : profiles) {
+            if (context != null) {
+                context.getProfiles().put(profile.getUserId(), profile);
+            }
+            entities.put(memcacheKey(profile.getUserId()), ofy().save().toEntity(profile));
+        }
+        MemcacheServiceFactory.getMemcacheService().putAll(entities,
+                Expiration.byDeltaSeconds(Constants.PROFILE_CACHE_SECONDS));
+    }
+
+    /**
+     * Removes the Profile of the given user from the cache.
+     *
+     * @param userId the userId of the user.
+     */
+    public static void invalidate(String userId) {
+        RequestContext context = RequestContext.current();
+        if (context != null) {
+            context.getProfiles().remove(userId);
+        }
+        MemcacheServiceFactory.getMemcacheService().delete(memcacheKey(userId));
+    }
+
+    private static String memcacheKey(String userId) {
+        return Constants.MEMCACHE_PROFILE_PREFIX + userId;
+    }
+}
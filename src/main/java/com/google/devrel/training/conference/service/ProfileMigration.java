@@ -0,0 +1,152 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * Completes the migration of the registrations of every Profile: saves again the Profiles
+ * still holding their registrations as a list of websafe keys, so that they are stored in the
+ * compact format, and creates the Registration entities missing for registrations made before
+ * the rosters.
+ *
+ * Profiles are converted when they are loaded anyway, this only completes the migration of the
+ * Profiles that are not saved again otherwise. Each Profile is migrated in its own
+ * transaction, together with its Registrations, so that concurrent registrations are not lost.
+ */
+public class ProfileMigration {
+
+    /**
+     * The outcome of one batch.
+     */
+    public static class Batch {
+        private final int scanned;
+        private final int migrated;
+        private final String nextCursor;
+
+        private Batch(int scanned, int migrated, String nextCursor) {
+            this.scanned = scanned;
+            this.migrated = migrated;
+            this.nextCursor = nextCursor;
+        }
+
+        public int getScanned() {
+            return scanned;
+        }
+
+        public int getMigrated() {
+            return migrated;
+        }
+
+        /**
+         * Returns the cursor to continue from, null once every Profile has been scanned.
+         * @return the websafe cursor of the next batch.
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    private ProfileMigration() {}
+
+    /**
+     * Migrates the Profiles of one batch.
+     *
+     * @param cursor the cursor returned with the previous batch, null for the first one.
+     * @return the number of Profiles scanned and migrated, and the cursor of the next batch.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static Batch migrateBatch(String cursor) {
+        Query<Profile> query = ofy().transactionless().load().type(Profile.class)
+                .limit(Constants.PROFILE_MIGRATION_BATCH_SIZE);
+        Cursor start = ConferencePager.cursor(cursor);
+        if (start != null) {
+            query = query.startAt(start);
+        }
+        QueryResultIterator<Profile> iterator = query.iterator();
+        List<Profile> profiles = new ArrayList<>(Constants.PROFILE_MIGRATION_BATCH_SIZE);
+        List<Key<Registration>> registrationKeys = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Profile profile = iterator.next();
+            profiles.add(profile);
+            registrationKeys.addAll(registrationKeys(profile));
+        }
+        // Find the missing Registrations of the whole batch with as few multi-gets as possible
+        Set<Key<Registration>> existing = new HashSet<>();
+        for (List<Key<Registration>> keys :
+                Lists.partition(registrationKeys, Constants.MAX_BATCH_GET_KEYS)) {
+            existing.addAll(ofy().transactionless().load().keys(keys).keySet());
+        }
+        int scanned = profiles.size();
+        int migrated = 0;
+        for (Profile profile : profiles) {
+            boolean complete = !profile.isMigrationPending()
+                    && existing.containsAll(registrationKeys(profile));
+            if (!complete && migrate(profile.getUserId())) {
+                migrated++;
+            }
+        }
+        // A short batch means every Profile has been scanned.
+        String nextCursor = scanned < Constants.PROFILE_MIGRATION_BATCH_SIZE
+                ? null : iterator.getCursor().toWebSafeString();
+        return new Batch(scanned, migrated, nextCursor);
+    }
+
+    private static boolean migrate(final String userId) {
+        Profile saved = ofy().transact(new Work<Profile>() {
+            @Override
+            public Profile run() {
+                Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+                if (profile == null) {
+                    return null;
+                }
+                Map<Key<Registration>, Registration> existing =
+                        ofy().load().keys(registrationKeys(profile));
+                List<Object> entities = new ArrayList<>();
+                for (Key<Conference> conferenceKey : profile.getConferenceKeys()) {
+                    if (!existing.containsKey(Registration.key(userId, conferenceKey))) {
+                        // When the user registered is not known any more.
+                        entities.add(new Registration(profile, conferenceKey, null));
+                    }
+                }
+                if (profile.isMigrationPending()) {
+                    entities.add(profile);
+                }
+                if (entities.isEmpty()) {
+                    return null;
+                }
+                ofy().save().entities(entities).now();
+                return profile;
+            }
+        });
+        if (saved == null) {
+            return false;
+        }
+        ProfileCache.put(saved);
+        return true;
+    }
+
+    private static List<Key<Registration>> registrationKeys(Profile profile) {
+        List<Key<Conference>> conferenceKeys = profile.getConferenceKeys();
+        List<Key<Registration>> keys = new ArrayList<>(conferenceKeys.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            keys.add(Registration.key(profile.getUserId(), conferenceKey));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,123 @@
+package com.google.devrel.training.conference.service;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.condition.Always;
+
+/**
+ * Runs read-only list queries that only need a few properties of each entity.
+ *
+ * When all the properties are projectable the query is run as a projection query, so the
+ * datastore answers it from the index and only those properties are sent back. Otherwise it
+ * falls back to loading the full entities. Either way the caller reads the properties from the
+ * returned low-level Entities, so it doesn't have to care which one ran.
+ */
+public class ProjectionLoader {
+
+    private static final Logger LOG = Logger.getLogger(ProjectionLoader.class.getName());
+
+    private ProjectionLoader() {}
+
+    /**
+     * Runs the query and returns the given properties of the matching entities.
+     *
+     * Projected integer properties come back as Long, like they do in full entities.
+     *
+     * @param query a low-level query on the kind of entityClass, with its filters and sort
+     *     orders set.
+     * @param entityClass the Objectify entity class of the kind, used to tell which properties
+     *     are projectable.
+     * @param properties the properties the caller reads.
+     * @return the matching entities, holding at least the given properties.
+     */
+    public static List<Entity> list(Query query, Class<?> entityClass, String... properties) {
+        List<PropertyProjection> projections = new ArrayList<>(properties.length);
+        for (String property : properties) {
+            Field field = projectableField(entityClass, property);
+            if (field == null) {
+                LOG.info(String.format("%s.%s is not projectable, loading full entities",
+                        entityClass.getSimpleName(), property));
+                projections = null;
+                break;
+            }
+            projections.add(new PropertyProjection(property, projectedType(field.getType())));
+        }
+        if (projections != null) {
+            for (PropertyProjection projection : projections) {
+                query.addProjection(projection);
+            }
+        }
+        return DatastoreServiceFactory.getDatastoreService().prepare(query)
+                .asList(FetchOptions.Builder.withDefaults());
+    }
+
+    /**
+     * Returns whether a property can be projected: it has to be always indexed and single
+     * valued, otherwise a projection query would skip or repeat entities.
+     *
+     * @param entityClass the Objectify entity class.
+     * @param property the name of the property.
+     * @return true when the property is projectable.
+     */
+    static boolean isProjectable(Class<?> entityClass, String property) {
+        return projectableField(entityClass, property) != null;
+    }
+
+    private static Field projectableField(Class<?> entityClass, String property) {
+        for (Class<?> type = entityClass; type != null; type = type.getSuperclass()) {
+            Field field;
+            try {
+                field = type.getDeclaredField(property);
+            } catch (NoSuchFieldException e) {
+                continue;
+            }
+            Index index = field.getAnnotation(Index.class);
+            boolean projectable = index != null && isAlways(index)
+                    && !Iterable.class.isAssignableFrom(field.getType())
+                    && !field.getType().isArray();
+            return projectable ? field : null;
+        }
+        return null;
+    }
+
+    private static boolean isAlways(Index index) {
+        for (Class<?> condition : index.value()) {
+            if (condition != Always.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the type the datastore stores a field as, so that projected values come back
+     * the same as in full entities; null leaves them as raw values.
+     */
+    private static Class<?> projectedType(Class<?> fieldType) {
+        if (fieldType == int.class || fieldType == Integer.class || fieldType == long.class
+                || fieldType == Long.class || fieldType == short.class || fieldType == Short.class) {
+            return Long.class;
+        }
+        if (fieldType == float.class || fieldType == Float.class || fieldType == double.class
+                || fieldType == Double.class) {
+            return Double.class;
+        }
+        if (fieldType == boolean.class || fieldType == Boolean.class) {
+            return Boolean.class;
+        }
+        if (fieldType == String.class || fieldType == Date.class) {
+            return fieldType;
+        }
+        return null;
+    }
+}
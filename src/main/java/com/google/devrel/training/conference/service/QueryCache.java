@@ -0,0 +1,117 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.ConferencePager.KeyPage;
+
+/**
+ * Memcache of Conference query results, keyed by the canonical form of the query.
+ *
+ * Entries hold pages of keys rather than Conferences; the Conferences themselves are then loaded
+ * with one batch get, so an entry never holds stale Conference data.
+ *
+ * Entries are never deleted. Instead every Conference property that can be filtered on has a
+ * generation counter, and the generations of the filtered properties are part of the cache key.
+ * Committing a Conference whose filtered properties changed bumps their generations, so the next
+ * lookup misses and the old entries simply expire.
+ */
+public class QueryCache {
+
+    private QueryCache() {}
+
+    /**
+     * Returns the cache key of a page of the query.
+     *
+     * Reads the current generations of the filtered properties, so compute the key before
+     * running the query: an entry put under it is then never newer than its generations.
+     *
+     * @param form the query.
+     * @return the cache key.
+     */
+    public static String cacheKey(ConferenceQueryForm form) {
+        List<String> fields = new ArrayList<>(form.filteredFields());
+        // Every result is ordered by name, so a new name affects every query.
+        fields.add(Conference.NAME);
+        Map<String, Object> generations = generations(fields);
+
+        StringBuilder key = new StringBuilder(Constants.MEMCACHE_QUERY_PREFIX)
+                .append(form.canonicalFilters());
+        for (String field : fields) {
+            key.append('|').append(field).append('@').append(generations.get(generationKey(field)));
+        }
+        key.append("|size=").append(ConferencePager.pageSize(form.getPageSize()));
+        if (form.getCursor() != null) {
+            key.append("|cursor=").append(form.getCursor());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached page of keys.
+     *
+     * @param cacheKey a key computed by {@link #cacheKey(ConferenceQueryForm)}.
+     * @return the cached page, or null on a miss.
+     */
+    public static KeyPage get(String cacheKey) {
+        Object cached = MemcacheServiceFactory.getMemcacheService().get(cacheKey);
+        return cached instanceof KeyPage ? (KeyPage) cached : null;
+    }
+
+    /**
+     * Caches a page of keys.
+     *
+     * @param cacheKey a key computed by {@link #cacheKey(ConferenceQueryForm)}.
+     * @param page the page of keys returned by the query.
+     */
+    public static void put(String cacheKey, KeyPage page) {
+        MemcacheServiceFactory.getMemcacheService().put(cacheKey, page,
+                Expiration.byDeltaSeconds(Constants.QUERY_CACHE_SECONDS));
+    }
+
+    /**
+     * Bumps the generations of the given Conference properties.
+     *
+     * @param fields the names of the properties that have changed.
+     */
+    public static void bumpGenerations(Collection<String> fields) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        for (String field : fields) {
+            // A counter evicted from memcache starts again from the current time, so it can't
+            // come back to a generation that is still in use.
+            memcacheService.increment(generationKey(field), 1, System.currentTimeMillis());
+        }
+    }
+
+    private static Map<String, Object> generations(List<String> fields) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        List<String> keys = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            keys.add(generationKey(field));
+        }
+        Map<String, Object> generations = memcacheService.getAll(keys);
+        if (generations.size() < keys.size()) {
+            Long now = System.currentTimeMillis();
+            for (String key : keys) {
+                if (!generations.containsKey(key)) {
+                    memcacheService.put(key, now, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+                }
+            }
+            generations = memcacheService.getAll(keys);
+        }
+        return generations;
+    }
+
+    private static String generationKey(String field) {
+        return Constants.MEMCACHE_QUERY_GENERATION_PREFIX + field;
+    }
+}
@@ -0,0 +1,97 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.devrel.training.conference.domain.Profile;
+
+/**
+ * State that lives for the duration of a single request.
+ *
+ * RequestContextFilter begins a context before each request and ends it afterwards. Outside of
+ * a request (a cron started without the filter, a unit test) there is no current context and
+ * request-scoped caching is simply skipped.
+ */
+public class RequestContext {
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    private static final String UNKNOWN_ENDPOINT = "unknown";
+
+    /**
+     * Profiles read or written during this request, keyed by userId. A null value records that
+     * the user has no Profile.
+     */
+    private final Map<String, Profile> profiles = new HashMap<>();
+
+    private final RequestMetrics metrics = new RequestMetrics();
+
+    private RequestLog log;
+
+    private RequestContext(String endpoint) {
+        log = new RequestLog(endpoint);
+    }
+
+    /**
+     * Begins a new context for the current thread.
+     *
+     * @return the new context.
+     */
+    public static RequestContext begin() {
+        return begin(UNKNOWN_ENDPOINT);
+    }
+
+    /**
+     * Begins a new context for the current thread.
+     *
+     * @param endpoint the name of the endpoint the request is for.
+     * @return the new context.
+     */
+    public static RequestContext begin(String endpoint) {
+        RequestContext context = new RequestContext(endpoint);
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Ends the context of the current thread.
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Returns the context of the current thread.
+     *
+     * @return the current context, null outside of a request.
+     */
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    Map<String, Profile> getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * Returns the API calls made so far by this request.
+     *
+     * @return the metrics of this request.
+     */
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the log of this request, written once it ends.
+     *
+     * @return the log of this request.
+     */
+    public RequestLog getLog() {
+        return log;
+    }
+
+    void setLog(RequestLog log) {
+        this.log = log;
+    }
+}
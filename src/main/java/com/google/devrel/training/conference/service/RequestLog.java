@@ -0,0 +1,193 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import com.google.devrel.training.conference.Constants;
+
+/**
+ * The log of a single request, written as one summary record when the request ends.
+ *
+ * During the request, fields and events are only buffered: messages are kept as a format and
+ * its arguments and only formatted if the record is written. The record is written for a
+ * sample of the requests of each endpoint, and always for slow requests and requests with a
+ * warning. The sample rate is the system property conference.log.sampleRate.ENDPOINT, or
+ * conference.log.sampleRate for endpoints without one, 1 when neither is set.
+ *
+ * Outside of a request events are logged right away, like with a plain Logger.
+ */
+public class RequestLog {
+
+    private static final Logger LOG = Logger.getLogger(RequestLog.class.getName());
+
+    private static final ConcurrentMap<String, Double> SAMPLE_RATES = new ConcurrentHashMap<>();
+
+    private final String endpoint;
+
+    private final boolean sampled;
+
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+
+    private final List<Event> events = new ArrayList<>();
+
+    private Level level = Level.INFO;
+
+    private Throwable thrown;
+
+    RequestLog(String endpoint, boolean sampled) {
+        this.endpoint = endpoint;
+        this.sampled = sampled;
+    }
+
+    RequestLog(String endpoint) {
+        this(endpoint, ThreadLocalRandom.current().nextDouble() < sampleRate(endpoint));
+    }
+
+    /**
+     * Returns the log of the current request.
+     *
+     * @return the log, null outside of a request.
+     */
+    public static RequestLog current() {
+        RequestContext context = RequestContext.current();
+        return context == null ? null : context.getLog();
+    }
+
+    /**
+     * Adds a field to the summary of the current request, e.g. its number of results.
+     *
+     * @param name the name of the field.
+     * @param value the value, formatted with toString() only if the summary is written.
+     */
+    public static void put(String name, Object value) {
+        RequestLog log = current();
+        if (log != null) {
+            log.fields.put(name, value);
+        }
+    }
+
+    /**
+     * Adds an INFO event to the current request.
+     *
+     * @param format the String.format() format of the message.
+     * @param args the arguments, formatted only if the summary is written.
+     */
+    public static void info(String format, Object... args) {
+        log(Level.INFO, null, format, args);
+    }
+
+    /**
+     * Adds a WARNING event to the current request, which makes sure its summary is written.
+     *
+     * @param thrown the cause of the warning, may be null.
+     * @param format the String.format() format of the message.
+     * @param args the arguments of the message.
+     */
+    public static void warning(Throwable thrown, String format, Object... args) {
+        log(Level.WARNING, thrown, format, args);
+    }
+
+    private static void log(Level level, Throwable thrown, String format, Object... args) {
+        RequestLog log = current();
+        if (log == null) {
+            if (LOG.isLoggable(level)) {
+                LOG.log(level, String.format(format, args), thrown);
+            }
+            return;
+        }
+        if (log.events.size() < Constants.REQUEST_LOG_MAX_EVENTS) {
+            log.events.add(new Event(level, format, args));
+        }
+        if (level.intValue() > log.level.intValue()) {
+            log.level = level;
+        }
+        if (thrown != null && log.thrown == null) {
+            log.thrown = thrown;
+        }
+    }
+
+    /**
+     * Writes the summary of the request, if it is sampled, slow or had a warning.
+     *
+     * @param micros the latency of the request in microseconds.
+     * @param metrics the API calls made by the request.
+     */
+    public void finish(long micros, RequestMetrics metrics) {
+        boolean slow = micros >= Constants.REQUEST_LOG_SLOW_MILLIS * 1000;
+        if (!(sampled || slow || level.intValue() > Level.INFO.intValue())
+                || !LOG.isLoggable(level)) {
+            return;
+        }
+        StringBuilder message = new StringBuilder(endpoint)
+                .append(String.format(Locale.ROOT, " %.1f ms", micros / 1000.0));
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            message.append(' ').append(field.getKey()).append('=').append(field.getValue());
+        }
+        message.append(" datastoreGets=").append(metrics.getDatastoreGets())
+                .append(" datastorePuts=").append(metrics.getDatastorePuts())
+                .append(" datastoreQueries=").append(metrics.getDatastoreQueries())
+                .append(" transactionRetries=").append(metrics.getTransactionRetries())
+                .append(" memcacheHits=").append(metrics.getMemcacheHits())
+                .append(" memcacheMisses=").append(metrics.getMemcacheMisses());
+        for (Event event : events) {
+            message.append("\n  ").append(event.level).append(' ').append(event.format());
+        }
+        LogRecord record = new LogRecord(level, message.toString());
+        record.setLoggerName(LOG.getName());
+        record.setThrown(thrown);
+        LOG.log(record);
+    }
+
+    /**
+     * Returns the sample rate of an endpoint, read once from the system properties.
+     */
+    static double sampleRate(String endpoint) {
+        Double rate = SAMPLE_RATES.get(endpoint);
+        if (rate == null) {
+            String value = System.getProperty(Constants.REQUEST_LOG_SAMPLE_RATE_PROPERTY + "."
+                    + endpoint, System.getProperty(Constants.REQUEST_LOG_SAMPLE_RATE_PROPERTY));
+            try {
+                rate = value == null ? 1 : Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                LOG.warning(String.format("Invalid log sample rate for %s: %s", endpoint, value));
+                rate = 1.0;
+            }
+            if (SAMPLE_RATES.size() < Constants.MAX_METRICS_ENDPOINTS) {
+                SAMPLE_RATES.putIfAbsent(endpoint, rate);
+            }
+        }
+        return rate;
+    }
+
+    boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * A buffered event, formatted only when written.
+     */
+    private static class Event {
+        private final Level level;
+        private final String format;
+        private final Object[] args;
+
+        Event(Level level, String format, Object[] args) {
+            this.level = level;
+            this.format = format;
+            this.args = args;
+        }
+
+        String format() {
+            return args.length == 0 ? format : String.format(format, args);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The API calls made by a single request, counted by the RpcMetricsDelegate.
+ *
+ * Counters are atomic since an asynchronous call may complete on another thread than the one
+ * of the request.
+ */
+public class RequestMetrics {
+
+    private final AtomicInteger datastoreGets = new AtomicInteger();
+    private final AtomicInteger datastorePuts = new AtomicInteger();
+    private final AtomicInteger datastoreQueries = new AtomicInteger();
+    private final AtomicInteger transactionRetries = new AtomicInteger();
+    private final AtomicInteger memcacheHits = new AtomicInteger();
+    private final AtomicInteger memcacheMisses = new AtomicInteger();
+    private final AtomicInteger taskQueueCalls = new AtomicInteger();
+
+    /**
+     * Returns the metrics of the current request.
+     *
+     * @return the metrics, null outside of a request.
+     */
+    public static RequestMetrics current() {
+        RequestContext context = RequestContext.current();
+        return context == null ? null : context.getMetrics();
+    }
+
+    public int getDatastoreGets() {
+        return datastoreGets.get();
+    }
+
+    public int getDatastorePuts() {
+        return datastorePuts.get();
+    }
+
+    public int getDatastoreQueries() {
+        return datastoreQueries.get();
+    }
+
+    /**
+     * Returns the number of commits that failed on contention, each retried by Objectify.
+     */
+    public int getTransactionRetries() {
+        return transactionRetries.get();
+    }
+
+    public int getMemcacheHits() {
+        return memcacheHits.get();
+    }
+
+    public int getMemcacheMisses() {
+        return memcacheMisses.get();
+    }
+
+    public int getTaskQueueCalls() {
+        return taskQueueCalls.get();
+    }
+
+    void datastoreGet() {
+        datastoreGets.incrementAndGet();
+    }
+
+    void datastorePut() {
+        datastorePuts.incrementAndGet();
+    }
+
+    void datastoreQuery() {
+        datastoreQueries.incrementAndGet();
+    }
+
+    void transactionRetry() {
+        transactionRetries.incrementAndGet();
+    }
+
+    void memcacheGet(int hits, int misses) {
+        memcacheHits.addAndGet(hits);
+        memcacheMisses.addAndGet(misses);
+    }
+
+    void taskQueueCall() {
+        taskQueueCalls.incrementAndGet();
+    }
+}
@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.RosterPage;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * The rosters of the Conferences, read from their Registration entities.
+ *
+ * The roster query is not an ancestor query, so a registration shows up in the roster shortly
+ * after it is committed rather than right away.
+ */
+public class Roster {
+
+    private static final DisplayNameRefresh<Registration> DISPLAY_NAME_REFRESH =
+            new DisplayNameRefresh<Registration>(Registration.class) {
+                @Override
+                void update(Registration registration, String displayName) {
+                    registration.updateDisplayName(displayName);
+                }
+            };
+
+    private Roster() {}
+
+    /**
+     * Fetches a single page of the roster of a Conference, in the order of the attendees' userIds.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param pageSize the requested page size, may be null.
+     * @param cursor the cursor returned with the previous page, null for the first page.
+     * @return the page of Registrations and the cursor for the next one.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    public static RosterPage page(Key<Conference> conferenceKey, Integer pageSize, String cursor) {
+        int limit = ConferencePager.pageSize(pageSize);
+        Query<Registration> query = ofy().load().type(Registration.class)
+                .filter(Registration.CONFERENCE_KEY, conferenceKey).limit(limit);
+        Cursor start = ConferencePager.cursor(cursor);
+        if (start != null) {
+            query = query.startAt(start);
+        }
+        QueryResultIterator<Registration> iterator = query.iterator();
+        List<Registration> items = new ArrayList<>(limit);
+        while (iterator.hasNext()) {
+            items.add(iterator.next());
+        }
+        // A short page means the query is exhausted.
+        String nextCursor = items.size() < limit ? null : iterator.getCursor().toWebSafeString();
+        return new RosterPage(items, nextCursor);
+    }
+
+    /**
+     * Returns the number of users registered to attend a Conference.
+     *
+     * This is the number of seats taken, so it is kept up to date by the seat counters rather
+     * than by counting Registrations.
+     *
+     * @param conference the Conference.
+     * @return the number of registrations.
+     */
+    public static int count(Conference conference) {
+        SeatAllocator.applySeatsAvailable(Collections.singletonList(conference));
+        return conference.getMaxAttendees() - conference.getSeatsAvailable();
+    }
+
+    /**
+     * Refreshes the denormalized display name of every Registration of the given Profile.
+     *
+     * @param profileKey the key of the attendee's Profile.
+     */
+    public static void refreshDisplayName(Key<Profile> profileKey) {
+        DISPLAY_NAME_REFRESH.refresh(profileKey);
+    }
+}
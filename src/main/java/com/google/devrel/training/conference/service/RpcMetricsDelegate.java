@@ -0,0 +1,216 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.MemcacheServicePb.MemcacheGetRequest;
+import com.google.appengine.api.memcache.MemcacheServicePb.MemcacheGetResponse;
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * Counts the datastore, memcache and task queue calls of each request in its RequestMetrics.
+ *
+ * Installed once in front of the ApiProxy delegate, it passes every call through unchanged.
+ * Calls made outside of a request are not counted.
+ */
+public class RpcMetricsDelegate implements ApiProxy.Delegate<ApiProxy.Environment> {
+
+    private static final Logger LOG = Logger.getLogger(RpcMetricsDelegate.class.getName());
+
+    /** DatastoreV3Pb.Error.ErrorCode.CONCURRENT_TRANSACTION */
+    private static final int CONCURRENT_TRANSACTION = 2;
+
+    private final ApiProxy.Delegate<ApiProxy.Environment> delegate;
+
+    RpcMetricsDelegate(ApiProxy.Delegate<ApiProxy.Environment> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Installs the delegate in front of the current one, unless it already is.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void install() {
+        ApiProxy.Delegate<ApiProxy.Environment> delegate = ApiProxy.getDelegate();
+        if (delegate != null && !(delegate instanceof RpcMetricsDelegate)) {
+            ApiProxy.setDelegate(new RpcMetricsDelegate(delegate));
+        }
+    }
+
+    @Override
+    public byte[] makeSyncCall(ApiProxy.Environment environment, String packageName,
+            String methodName, byte[] request) {
+        RequestMetrics metrics = RequestMetrics.current();
+        count(metrics, packageName, methodName);
+        byte[] response;
+        try {
+            response = delegate.makeSyncCall(environment, packageName, methodName, request);
+        } catch (ApiProxy.ApplicationException e) {
+            failed(metrics, methodName, e);
+            throw e;
+        }
+        completed(metrics, packageName, methodName, request, response);
+        return response;
+    }
+
+    @Override
+    public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String packageName,
+            String methodName, byte[] request, ApiProxy.ApiConfig apiConfig) {
+        RequestMetrics metrics = RequestMetrics.current();
+        count(metrics, packageName, methodName);
+        Future<byte[]> future = delegate.makeAsyncCall(environment, packageName, methodName,
+                request, apiConfig);
+        if (metrics == null || !("Commit".equals(methodName)
+                || ("memcache".equals(packageName) && "Get".equals(methodName)))) {
+            return future;
+        }
+        return new CountingFuture(future, metrics, packageName, methodName, request);
+    }
+
+    @Override
+    public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+        delegate.log(environment, record);
+    }
+
+    @Override
+    public void flushLogs(ApiProxy.Environment environment) {
+        delegate.flushLogs(environment);
+    }
+
+    @Override
+    public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+        return delegate.getRequestThreads(environment);
+    }
+
+    /**
+     * Counts a call when it is made.
+     */
+    private static void count(RequestMetrics metrics, String packageName, String methodName) {
+        if (metrics == null) {
+            return;
+        }
+        if ("datastore_v3".equals(packageName)) {
+            switch (methodName) {
+                case "Get":
+                    metrics.datastoreGet();
+                    break;
+                case "Put":
+                    metrics.datastorePut();
+                    break;
+                case "RunQuery":
+                    metrics.datastoreQuery();
+                    break;
+                default:
+                    break;
+            }
+        } else if ("taskqueue".equals(packageName)) {
+            metrics.taskQueueCall();
+        }
+    }
+
+    /**
+     * Counts what is only known from the response: memcache hits and misses.
+     */
+    private static void completed(RequestMetrics metrics, String packageName, String methodName,
+            byte[] request, byte[] response) {
+        if (metrics == null || !"memcache".equals(packageName) || !"Get".equals(methodName)) {
+            return;
+        }
+        try {
+            int keys = MemcacheGetRequest.parseFrom(request).getKeyCount();
+            int hits = MemcacheGetResponse.parseFrom(response).getItemCount();
+            metrics.memcacheGet(hits, Math.max(keys - hits, 0));
+        } catch (Exception e) {
+            LOG.log(Level.FINE, "Failed to count a memcache get", e);
+        }
+    }
+
+    /**
+     * Counts what is only known from a failure: commits that failed on contention.
+     */
+    private static void failed(RequestMetrics metrics, String methodName, Throwable e) {
+        if (metrics != null && "Commit".equals(methodName)
+                && e instanceof ApiProxy.ApplicationException
+                && ((ApiProxy.ApplicationException) e).getApplicationError()
+                        == CONCURRENT_TRANSACTION) {
+            metrics.transactionRetry();
+        }
+    }
+
+    /**
+     * A pending call, counted once when its result is first read.
+     */
+    private static class CountingFuture implements Future<byte[]> {
+
+        private final Future<byte[]> future;
+        private final RequestMetrics metrics;
+        private final String packageName;
+        private final String methodName;
+        private final byte[] request;
+        private boolean counted;
+
+        CountingFuture(Future<byte[]> future, RequestMetrics metrics, String packageName,
+                String methodName, byte[] request) {
+            this.future = future;
+            this.metrics = metrics;
+            this.packageName = packageName;
+            this.methodName = methodName;
+            this.request = request;
+        }
+
+        @Override
+        public byte[] get() throws InterruptedException, ExecutionException {
+            try {
+                return completed(future.get());
+            } catch (ExecutionException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public byte[] get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return completed(future.get(timeout, unit));
+            } catch (ExecutionException e) {
+                throw failed(e);
+            }
+        }
+
+        private synchronized byte[] completed(byte[] response) {
+            if (!counted) {
+                counted = true;
+                RpcMetricsDelegate.completed(metrics, packageName, methodName, request, response);
+            }
+            return response;
+        }
+
+        private synchronized ExecutionException failed(ExecutionException e) {
+            if (!counted) {
+                counted = true;
+                RpcMetricsDelegate.failed(metrics, methodName, e.getCause());
+            }
+            return e;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+    }
+}
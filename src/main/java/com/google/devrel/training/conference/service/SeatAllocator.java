@@ -0,0 +1,352 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.googlecode.objectify.Key;
+
+/**
+ * Allocates seats of Conferences whose seats are split across SeatShard entities.
+ *
+ * Each registration only writes one randomly chosen shard, so registrations for a popular
+ * Conference spread over several entity groups instead of serializing on a single one.
+ */
+public class SeatAllocator {
+
+    /**
+     * Seats booked or given back across several shards.
+     */
+    public static class Allocation {
+        private final List<SeatShard> shards;
+        private final int seats;
+
+        private Allocation(List<SeatShard> shards, int seats) {
+            this.shards = shards;
+            this.seats = seats;
+        }
+
+        /**
+         * Returns the updated shards to save.
+         * @return the shards that changed.
+         */
+        public List<SeatShard> getShards() {
+            return shards;
+        }
+
+        /**
+         * Returns the number of seats booked or given back, which may be less than requested.
+         * @return the number of seats.
+         */
+        public int getSeats() {
+            return seats;
+        }
+    }
+
+    private SeatAllocator() {}
+
+    /**
+     * Splits the capacity of a new Conference across its seat shards.
+     *
+     * @param conference a Conference with sharded seats.
+     * @return the shards to save along with the Conference.
+     */
+    public static List<SeatShard> createShards(Conference conference) {
+        Key<Conference> conferenceKey = conferenceKey(conference);
+        int shards = conference.getSeatShards();
+        int seatsPerShard = conference.getMaxAttendees() / shards;
+        int remainder = conference.getMaxAttendees() % shards;
+        List<SeatShard> result = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            result.add(new SeatShard(conferenceKey, i, seatsPerShard + (i < remainder ? 1 : 0)));
+        }
+        return result;
+    }
+
+    /**
+     * Loads every shard of a Conference, as part of the current transaction if there is one.
+     *
+     * Inside a transaction, every shard joins it: there are at most
+     * {@link Constants#MAX_SEAT_SHARDS} of them, within the entity group limit of a transaction.
+     *
+     * @param conference a Conference with sharded seats.
+     * @return the shards by index, null for a shard that doesn't exist.
+     */
+    public static List<SeatShard> loadAllShards(Conference conference) {
+        List<Key<SeatShard>> keys = shardKeys(conference);
+        Map<Key<SeatShard>, SeatShard> shards = ofy().load().keys(keys);
+        List<SeatShard> result = new ArrayList<>(keys.size());
+        for (Key<SeatShard> key : keys) {
+            result.add(shards.get(key));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of seats allocated across the shards.
+     *
+     * @param shards the shards of a Conference, as returned by loadAllShards.
+     * @return the seats allocated.
+     */
+    public static int seatsAllocated(List<SeatShard> shards) {
+        int allocated = 0;
+        for (SeatShard shard : shards) {
+            if (shard != null) {
+                allocated += shard.getCapacity() - shard.getSeatsAvailable();
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * Spreads the seats left by a new capacity of a Conference evenly across its shards, each
+     * shard keeping the seats already allocated on it.
+     *
+     * @param conference a Conference with sharded seats, its maxAttendees already updated.
+     * @param shards the shards of the Conference, as returned by loadAllShards.
+     * @return the shards to save, including the ones that were missing.
+     */
+    public static List<SeatShard> resizeShards(Conference conference, List<SeatShard> shards) {
+        int free = conference.getMaxAttendees() - seatsAllocated(shards);
+        int freePerShard = free / shards.size();
+        int remainder = free % shards.size();
+        Key<Conference> conferenceKey = conferenceKey(conference);
+        List<SeatShard> result = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int shardFree = freePerShard + (i < remainder ? 1 : 0);
+            SeatShard shard = shards.get(i);
+            if (shard == null) {
+                shard = new SeatShard(conferenceKey, i, shardFree);
+            } else {
+                shard.resize(shard.getCapacity() - shard.getSeatsAvailable() + shardFree);
+            }
+            result.add(shard);
+        }
+        return result;
+    }
+
+    /**
+     * Books one seat on a random shard that still has seats.
+     *
+     * Must be called inside a transaction: only the chosen shard is read transactionally, the
+     * others are read outside the transaction so they don't join it.
+     *
+     * @param conference a Conference with sharded seats.
+     * @return the updated shard to save, or null when there are no seats available.
+     */
+    public static SeatShard bookSeat(Conference conference) {
+        for (SeatShard candidate : candidates(conference, true)) {
+            SeatShard shard = ofy().load().key(Key.create(candidate)).now();
+            if (shard != null && shard.getSeatsAvailable() > 0) {
+                shard.bookSeat();
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives back one seat to a random shard that has seats allocated.
+     *
+     * Must be called inside a transaction, see {@link #bookSeat(Conference)}.
+     *
+     * @param conference a Conference with sharded seats.
+     * @return the updated shard to save, or null when no seats are allocated.
+     */
+    public static SeatShard giveBackSeat(Conference conference) {
+        for (SeatShard candidate : candidates(conference, false)) {
+            SeatShard shard = ofy().load().key(Key.create(candidate)).now();
+            if (shard != null && shard.getSeatsAvailable() < shard.getCapacity()) {
+                shard.giveBackSeat();
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Books up to the given number of seats, taking them from the shards in random order.
+     *
+     * Must be called inside a transaction. Unlike {@link #bookSeat(Conference)}, every shard
+     * that looks like it has seats joins the transaction; there are at most
+     * {@link Constants#MAX_SEAT_SHARDS} of them, within the entity group limit of a transaction.
+     *
+     * @param conference a Conference with sharded seats.
+     * @param seats the number of seats to book.
+     * @return the updated shards to save and the number of seats booked.
+     */
+    public static Allocation bookSeats(Conference conference, int seats) {
+        return allocate(conference, seats, true);
+    }
+
+    /**
+     * Gives back up to the given number of seats, to the shards in random order.
+     *
+     * Must be called inside a transaction, see {@link #bookSeats(Conference, int)}.
+     *
+     * @param conference a Conference with sharded seats.
+     * @param seats the number of seats to give back.
+     * @return the updated shards to save and the number of seats given back.
+     */
+    public static Allocation giveBackSeats(Conference conference, int seats) {
+        return allocate(conference, seats, false);
+    }
+
+    private static Allocation allocate(Conference conference, int seats, boolean booking) {
+        List<Key<SeatShard>> keys = new ArrayList<>(conference.getSeatShards());
+        for (SeatShard candidate : candidates(conference, booking)) {
+            keys.add(Key.create(candidate));
+        }
+        // Read the candidates transactionally, in one batch
+        Map<Key<SeatShard>, SeatShard> shards = ofy().load().keys(keys);
+        List<SeatShard> changed = new ArrayList<>();
+        int allocated = 0;
+        for (Key<SeatShard> key : keys) {
+            SeatShard shard = shards.get(key);
+            if (shard == null || allocated == seats) {
+                continue;
+            }
+            int before = allocated;
+            while (allocated < seats && (booking ? shard.getSeatsAvailable() > 0
+                    : shard.getSeatsAvailable() < shard.getCapacity())) {
+                if (booking) {
+                    shard.bookSeat();
+                } else {
+                    shard.giveBackSeat();
+                }
+                allocated++;
+            }
+            if (allocated > before) {
+                changed.add(shard);
+            }
+        }
+        return new Allocation(changed, allocated);
+    }
+
+    /**
+     * Returns the shards that currently look like they can book (or give back) a seat, in
+     * random order.
+     */
+    private static List<SeatShard> candidates(Conference conference, boolean booking) {
+        List<SeatShard> candidates = new ArrayList<>(conference.getSeatShards());
+        for (SeatShard shard : loadShards(conference)) {
+            if (booking ? shard.getSeatsAvailable() > 0
+                    : shard.getSeatsAvailable() < shard.getCapacity()) {
+                candidates.add(shard);
+            }
+        }
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+        return candidates;
+    }
+
+    private static Collection<SeatShard> loadShards(Conference conference) {
+        return ofy().transactionless().load().keys(shardKeys(conference)).values();
+    }
+
+    private static List<Key<SeatShard>> shardKeys(Conference conference) {
+        Key<Conference> conferenceKey = conferenceKey(conference);
+        List<Key<SeatShard>> keys = new ArrayList<>(conference.getSeatShards());
+        for (int i = 0; i < conference.getSeatShards(); i++) {
+            keys.add(SeatShard.key(conferenceKey, i));
+        }
+        return keys;
+    }
+
+    /**
+     * Updates the seats available of every sharded Conference with the sum of its shards.
+     *
+     * The sums are cached in memcache; the shards of all the Conferences missing from the cache
+     * are loaded in one batch.
+     *
+     * @param conferences the Conferences that are about to be returned to the client.
+     */
+    public static void applySeatsAvailable(Collection<Conference> conferences) {
+        Map<String, Conference> sharded = new HashMap<>();
+        for (Conference conference : conferences) {
+            if (conference.isSeatsSharded()) {
+                sharded.put(cacheKey(conference), conference);
+            }
+        }
+        if (sharded.isEmpty()) {
+            return;
+        }
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Map<String, Object> cached = memcacheService.getAll(sharded.keySet());
+
+        List<Key<SeatShard>> missingShards = new ArrayList<>();
+        for (Map.Entry<String, Conference> entry : sharded.entrySet()) {
+            Object seats = cached.get(entry.getKey());
+            if (seats instanceof Number) {
+                entry.getValue().updateSeatsAvailable(((Number) seats).intValue());
+            } else {
+                missingShards.addAll(shardKeys(entry.getValue()));
+            }
+        }
+        if (missingShards.isEmpty()) {
+            return;
+        }
+        Map<Key<SeatShard>, SeatShard> shards = ofy().load().keys(missingShards);
+        Map<String, Long> sums = new HashMap<>();
+        for (Map.Entry<String, Conference> entry : sharded.entrySet()) {
+            if (cached.containsKey(entry.getKey())) {
+                continue;
+            }
+            long sum = 0;
+            for (Key<SeatShard> key : shardKeys(entry.getValue())) {
+                SeatShard shard = shards.get(key);
+                if (shard != null) {
+                    sum += shard.getSeatsAvailable();
+                }
+            }
+            entry.getValue().updateSeatsAvailable((int) sum);
+            sums.put(entry.getKey(), sum);
+        }
+        memcacheService.putAll(sums,
+                Expiration.byDeltaSeconds(Constants.SEATS_AVAILABLE_CACHE_SECONDS));
+    }
+
+    /**
+     * Adjusts the cached sum of the shards after a booking or give back has been committed.
+     *
+     * Only a cached sum is adjusted, so this is a no-op for Conferences that are not sharded;
+     * a missing sum is recomputed from the shards on next read.
+     *
+     * @param websafeConferenceKey the String representation of the Conference Key.
+     * @param delta -1 after a booking, +1 after a give back.
+     * @return the adjusted sum, or null when no sum is cached.
+     */
+    public static Long adjustCachedSeatsAvailable(String websafeConferenceKey, long delta) {
+        return MemcacheServiceFactory.getMemcacheService().increment(
+                Constants.MEMCACHE_SEATS_AVAILABLE_PREFIX + websafeConferenceKey, delta);
+    }
+
+    /**
+     * Drops the cached sum of the shards, after the shards of a Conference were resized.
+     *
+     * @param websafeConferenceKey the String representation of the Conference Key.
+     */
+    public static void invalidateCachedSeatsAvailable(String websafeConferenceKey) {
+        MemcacheServiceFactory.getMemcacheService().delete(
+                Constants.MEMCACHE_SEATS_AVAILABLE_PREFIX + websafeConferenceKey);
+    }
+
+    private static String cacheKey(Conference conference) {
+        return Constants.MEMCACHE_SEATS_AVAILABLE_PREFIX + conference.getWebsafeKey();
+    }
+
+    private static Key<Conference> conferenceKey(Conference conference) {
+        return Key.create(conference.getProfileKey(), Conference.class, conference.getId());
+    }
+}
@@ -0,0 +1,169 @@
+package com.google.devrel.training.conference.service;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import com.google.devrel.training.conference.Constants;
+
+/**
+ * The time buckets Conferences are indexed in by start date, for the date range queries.
+ *
+ * A month bucket is yyyymm, a week bucket is the ISO week as yyyyww (the year being the ISO
+ * week-based year). Both are computed in UTC, so that a bucket is the same on every instance.
+ * A date range is answered by querying the buckets overlapping it, week buckets for short
+ * ranges and month buckets for longer ones, and filtering the exact dates in memory.
+ */
+public class TimeBuckets {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * The granularity of the buckets.
+     */
+    public static enum Granularity {
+        WEEK, MONTH
+    }
+
+    private TimeBuckets() {}
+
+    /**
+     * Returns the month bucket of a date.
+     *
+     * @param date the date, may be null.
+     * @return the month as yyyymm, 0 when date is null.
+     */
+    public static int monthBucket(Date date) {
+        if (date == null) {
+            return 0;
+        }
+        Calendar calendar = calendar(date);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * Returns the week bucket of a date.
+     *
+     * @param date the date, may be null.
+     * @return the ISO week as yyyyww, 0 when date is null.
+     */
+    public static int weekBucket(Date date) {
+        if (date == null) {
+            return 0;
+        }
+        GregorianCalendar calendar = calendar(date);
+        return calendar.getWeekYear() * 100 + calendar.get(Calendar.WEEK_OF_YEAR);
+    }
+
+    /**
+     * Returns the granularity to scan a range of days with: weeks, unless the range overlaps
+     * more than {@link Constants#MAX_WEEK_BUCKETS} weeks.
+     *
+     * @param first the first day of the range.
+     * @param last the last day of the range, inclusive.
+     * @return the granularity.
+     */
+    public static Granularity granularity(Date first, Date last) {
+        return buckets(first, last, Granularity.WEEK, Constants.MAX_WEEK_BUCKETS + 1).size()
+                <= Constants.MAX_WEEK_BUCKETS ? Granularity.WEEK : Granularity.MONTH;
+    }
+
+    /**
+     * Returns the buckets overlapping a range of days, in chronological order.
+     *
+     * @param first the first day of the range.
+     * @param last the last day of the range, inclusive.
+     * @param granularity the granularity of the buckets.
+     * @param max the maximum number of buckets to return.
+     * @return at most max buckets, the first ones when the range overlaps more.
+     */
+    public static List<Integer> buckets(Date first, Date last, Granularity granularity,
+                                        int max) {
+        List<Integer> buckets = new ArrayList<>();
+        GregorianCalendar calendar = calendar(first);
+        while (!calendar.getTime().after(last) && buckets.size() < max) {
+            if (granularity == Granularity.WEEK) {
+                buckets.add(weekBucket(calendar.getTime()));
+                // On to the Monday of the next week
+                calendar.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
+                calendar.add(Calendar.WEEK_OF_YEAR, 1);
+            } else {
+                buckets.add(monthBucket(calendar.getTime()));
+                calendar.set(Calendar.DAY_OF_MONTH, 1);
+                calendar.add(Calendar.MONTH, 1);
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Parses a day.
+     *
+     * @param day the day as yyyy-MM-dd.
+     * @return the start of the day in UTC.
+     * @throws IllegalArgumentException when the day is not a valid yyyy-MM-dd date.
+     */
+    public static Date parseDay(String day) {
+        String trimmed = day == null ? "" : day.trim();
+        ParsePosition position = new ParsePosition(0);
+        Date date = dayFormat().parse(trimmed, position);
+        if (date == null || position.getIndex() != trimmed.length()) {
+            throw new IllegalArgumentException("Invalid date, expected yyyy-MM-dd: " + day);
+        }
+        return date;
+    }
+
+    /**
+     * Formats the day of a date.
+     *
+     * @param date the date, may be null.
+     * @return the day as yyyy-MM-dd in UTC, null when date is null.
+     */
+    public static String formatDay(Date date) {
+        return date == null ? null : dayFormat().format(date);
+    }
+
+    /**
+     * Returns the day a number of days after the given one.
+     *
+     * @param day the start of a day.
+     * @param days the number of days to add, may be negative.
+     * @return the start of the other day.
+     */
+    public static Date addDays(Date day, int days) {
+        return new Date(day.getTime() + days * DAY_MILLIS);
+    }
+
+    /**
+     * Returns the start of the current day.
+     *
+     * @return the start of today in UTC.
+     */
+    public static Date today() {
+        long now = System.currentTimeMillis();
+        return new Date(now - now % DAY_MILLIS);
+    }
+
+    private static GregorianCalendar calendar(Date date) {
+        GregorianCalendar calendar = new GregorianCalendar(UTC);
+        // ISO 8601 weeks
+        calendar.setFirstDayOfWeek(Calendar.MONDAY);
+        calendar.setMinimalDaysInFirstWeek(4);
+        calendar.setTime(date);
+        return calendar;
+    }
+
+    private static SimpleDateFormat dayFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setLenient(false);
+        format.setTimeZone(UTC);
+        return format;
+    }
+}
@@ -0,0 +1,92 @@
+package com.google.devrel.training.conference.servlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.io.CountingOutputStream;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.service.ConferencePager;
+import com.google.devrel.training.conference.service.DatasetExporter;
+import com.google.devrel.training.conference.service.NdjsonWriter;
+import com.google.devrel.training.conference.service.RequestLog;
+
+/**
+ * Streams every entity of a kind as newline delimited JSON, for admins only.
+ *
+ * The kind parameter is "conferences", "profiles" or "registrations"; with gzip=true the
+ * response is a gzip file. Records are written batch by batch straight to the response, each
+ * batch followed by a {"_cursor": ...} checkpoint line. When the time budget of the request is
+ * spent, or the response nears the 32 MB App Engine allows, the export stops after a checkpoint,
+ * and the last line is {"_done": true} only once every entity has been exported. To resume an export that stopped or was cut off, request
+ * again with the cursor of the last checkpoint and drop the records received after it.
+ */
+@SuppressWarnings("serial")
+public class ExportServlet extends HttpServlet {
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		DatasetExporter.Kind kind;
+		String cursor = req.getParameter("cursor");
+		try {
+			kind = DatasetExporter.Kind.valueOf(
+					String.valueOf(req.getParameter("kind")).toUpperCase(Locale.ENGLISH));
+			ConferencePager.cursor(cursor);
+		} catch (IllegalArgumentException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Invalid kind or cursor: " + req.getParameter("kind") + ", " + cursor);
+			return;
+		}
+		boolean gzip = Boolean.parseBoolean(req.getParameter("gzip"));
+		long deadline = System.currentTimeMillis() + Constants.EXPORT_MILLIS;
+
+		// Counts the bytes of the response, after compression
+		CountingOutputStream counter = new CountingOutputStream(resp.getOutputStream());
+		OutputStream out = counter;
+		if (gzip) {
+			resp.setContentType("application/gzip");
+			resp.setHeader("Content-Disposition", "attachment; filename=\""
+					+ kind.name().toLowerCase(Locale.ENGLISH) + ".ndjson.gz\"");
+			// Sync flushes, so each batch is sent on and counted as it is flushed
+			out = new GZIPOutputStream(out, Constants.EXPORT_BUFFER_SIZE, true);
+		} else {
+			resp.setContentType("application/x-ndjson");
+			resp.setCharacterEncoding("UTF-8");
+		}
+		NdjsonWriter writer = new NdjsonWriter(new BufferedWriter(
+				new OutputStreamWriter(out, "UTF-8"), Constants.EXPORT_BUFFER_SIZE));
+		int batches = 0;
+		try {
+			do {
+				cursor = DatasetExporter.exportBatch(kind, cursor, writer);
+				batches++;
+				if (cursor != null) {
+					writer.write(Collections.singletonMap("_cursor", cursor));
+				}
+				// Send the batch on, rather than buffering the export
+				writer.flush();
+			} while (cursor != null && System.currentTimeMillis() < deadline
+					&& counter.getCount() < Constants.EXPORT_MAX_BYTES);
+			if (cursor == null) {
+				writer.write(Collections.singletonMap("_done", true));
+			}
+		} finally {
+			// Also writes the gzip trailer
+			writer.close();
+		}
+		RequestLog.put("kind", kind.name());
+		RequestLog.put("batches", batches);
+		RequestLog.put("bytes", counter.getCount());
+		RequestLog.put("done", cursor == null);
+	}
+}
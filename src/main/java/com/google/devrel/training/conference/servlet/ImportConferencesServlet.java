@@ -0,0 +1,124 @@
+package com.google.devrel.training.conference.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.service.ConferenceImporter;
+import com.google.devrel.training.conference.service.ConferenceRecordReader;
+import com.google.devrel.training.conference.service.RequestLog;
+
+/**
+ * Imports Conferences in bulk from the body of a POST, for admins only.
+ *
+ * The body holds one Conference per record, as CSV with a header line or as newline delimited
+ * JSON, selected by the format parameter ("csv" or "ndjson") or else by the content type. The
+ * fields are organizerUserId, name, description, topics, city, startDate, endDate (yyyy-MM-dd),
+ * maxAttendees and seatShards. The body is streamed through a ConferenceImporter, so the size
+ * of an import is only limited by the size of a request.
+ *
+ * An import stops once its time budget is spent, and when a batch fails to save. Either way the
+ * response reports the last line saved: post the same body again with after=<line> to import
+ * the rest, the records starting on or before that line are skipped. When a batch failed, some
+ * of its Conferences may have been saved already and are imported twice by the rerun.
+ */
+@SuppressWarnings("serial")
+public class ImportConferencesServlet extends HttpServlet {
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		String format = req.getParameter("format");
+		if (format == null) {
+			String contentType = req.getContentType();
+			format = contentType != null && contentType.startsWith("text/csv") ? "csv" : "ndjson";
+		}
+		if (req.getCharacterEncoding() == null) {
+			req.setCharacterEncoding("UTF-8");
+		}
+		int after;
+		try {
+			String value = req.getParameter("after");
+			after = value == null ? 0 : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Invalid after: " + req.getParameter("after"));
+			return;
+		}
+		ConferenceRecordReader reader;
+		if (format.equals("csv")) {
+			reader = ConferenceRecordReader.csv(req.getReader());
+		} else if (format.equals("ndjson")) {
+			reader = ConferenceRecordReader.ndjson(req.getReader());
+		} else {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown format: " + format);
+			return;
+		}
+
+		ConferenceImporter importer = new ConferenceImporter(
+				QueueFactory.getQueue(Constants.CONFIRMATION_EMAIL_QUEUE));
+		long deadline = System.currentTimeMillis() + Constants.CONFERENCE_IMPORT_MILLIS;
+		boolean stopped = false;
+		String failure = null;
+		try {
+			while (true) {
+				Map<String, Object> record;
+				try {
+					record = reader.next();
+				} catch (IllegalArgumentException e) {
+					if (reader.getLine() > after) {
+						importer.reject(reader.getLine(), e.getMessage());
+					}
+					continue;
+				}
+				if (record == null) {
+					break;
+				}
+				if (reader.getLine() <= after) {
+					continue;
+				}
+				importer.add(reader.getLine(), record);
+				if (System.currentTimeMillis() >= deadline) {
+					stopped = true;
+					break;
+				}
+			}
+			importer.finish();
+		} catch (RuntimeException e) {
+			RequestLog.warning(e, "Import failed after line %d", importer.getSavedLine());
+			failure = e.getMessage();
+		} finally {
+			reader.close();
+		}
+
+		RequestLog.put("imported", importer.getImported());
+		RequestLog.put("rejected", importer.getRejected());
+		RequestLog.put("savedLine", importer.getSavedLine());
+		if (failure != null) {
+			resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		resp.setContentType("text/plain");
+		PrintWriter writer = resp.getWriter();
+		writer.println("Imported " + importer.getImported() + " conferences, rejected "
+				+ importer.getRejected() + ".");
+		if (failure != null) {
+			writer.println("Failed after line " + importer.getSavedLine() + ": " + failure
+					+ ". Post again with after=" + importer.getSavedLine()
+					+ " to import the rest.");
+		} else if (stopped) {
+			writer.println("Stopped at the time limit after line " + importer.getSavedLine()
+					+ ". Post again with after=" + importer.getSavedLine()
+					+ " to import the rest.");
+		}
+		for (String error : importer.getErrors()) {
+			writer.println(error);
+		}
+	}
+}
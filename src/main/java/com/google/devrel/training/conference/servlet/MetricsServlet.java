@@ -0,0 +1,87 @@
+package com.google.devrel.training.conference.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.devrel.training.conference.service.EndpointMetrics;
+import com.google.devrel.training.conference.service.LatencyHistogram;
+
+/**
+ * Returns the EndpointMetrics of this instance as JSON, for admins only.
+ *
+ * Latencies are in microseconds. With reset=true the metrics are cleared once returned, so the
+ * next snapshot only covers what happened since.
+ */
+@SuppressWarnings("serial")
+public class MetricsServlet extends HttpServlet {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		Map<String, EndpointMetrics.Snapshot> snapshots = EndpointMetrics.snapshot();
+		if (Boolean.parseBoolean(req.getParameter("reset"))) {
+			EndpointMetrics.clear();
+		}
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = resp.getWriter();
+		out.print("{");
+		for (Iterator<Map.Entry<String, EndpointMetrics.Snapshot>> it =
+				snapshots.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, EndpointMetrics.Snapshot> entry = it.next();
+			out.print(quote(entry.getKey()));
+			out.print(":");
+			print(out, entry.getValue());
+			if (it.hasNext()) {
+				out.print(",");
+			}
+		}
+		out.print("}");
+	}
+
+	private static void print(PrintWriter out, EndpointMetrics.Snapshot snapshot) {
+		LatencyHistogram.Snapshot latency = snapshot.getLatency();
+		out.print("{\"requests\":" + latency.getCount());
+		out.print(",\"latencyMicros\":{");
+		out.print(String.format(Locale.ROOT, "\"mean\":%.1f", latency.getMean()));
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			out.print(",\"" + PERCENTILE_NAMES[i] + "\":" + latency.getPercentile(PERCENTILES[i]));
+		}
+		out.print(",\"max\":" + latency.getMax() + "}");
+		out.print(",\"datastoreGets\":" + snapshot.getDatastoreGets());
+		out.print(",\"datastorePuts\":" + snapshot.getDatastorePuts());
+		out.print(",\"datastoreQueries\":" + snapshot.getDatastoreQueries());
+		out.print(",\"transactionRetries\":" + snapshot.getTransactionRetries());
+		out.print(",\"memcacheHits\":" + snapshot.getMemcacheHits());
+		out.print(",\"memcacheMisses\":" + snapshot.getMemcacheMisses());
+		out.print(",\"taskQueueCalls\":" + snapshot.getTaskQueueCalls());
+		out.print("}");
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
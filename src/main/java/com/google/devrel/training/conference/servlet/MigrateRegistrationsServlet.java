@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.service.ProfileMigration;
+import com.google.devrel.training.conference.service.RequestLog;
+
+/**
+ * Migrates the registrations of every Profile to the compact format and creates their missing
+ * Registration entities, for admins only.
+ *
+ * Runs batches until its time budget is spent, then continues in a task on the default queue
+ * from where it stopped, until every Profile has been scanned.
+ */
+@SuppressWarnings("serial")
+public class MigrateRegistrationsServlet extends HttpServlet {
+
+	private static final String PATH = "/admin/migrate_registrations";
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		migrate(req, resp);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		migrate(req, resp);
+	}
+
+	private void migrate(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		String cursor = req.getParameter("cursor");
+		long deadline = System.currentTimeMillis() + Constants.PROFILE_MIGRATION_MILLIS;
+		int scanned = 0;
+		int migrated = 0;
+		try {
+			do {
+				ProfileMigration.Batch batch = ProfileMigration.migrateBatch(cursor);
+				scanned += batch.getScanned();
+				migrated += batch.getMigrated();
+				cursor = batch.getNextCursor();
+			} while (cursor != null && System.currentTimeMillis() < deadline);
+		} catch (IllegalArgumentException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor: " + cursor);
+			return;
+		}
+		if (cursor != null) {
+			QueueFactory.getDefaultQueue().add(
+					TaskOptions.Builder.withUrl(PATH).param("cursor", cursor));
+		}
+		RequestLog.put("scanned", scanned);
+		RequestLog.put("migrated", migrated);
+		resp.setContentType("text/plain");
+		resp.getWriter().println("Scanned " + scanned + " profiles, migrated " + migrated
+				+ (cursor == null ? ", done." : ", continuing in a task."));
+	}
+}
@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.service.ConferenceMigration;
+import com.google.devrel.training.conference.service.RequestLog;
+
+/**
+ * Saves again the Conferences saved before the time buckets, so that the date range queries
+ * find them, for admins only.
+ *
+ * Runs batches until its time budget is spent, then continues in a task on the default queue
+ * from where it stopped, until every Conference has been scanned.
+ */
+@SuppressWarnings("serial")
+public class MigrateTimeBucketsServlet extends HttpServlet {
+
+	private static final String PATH = "/admin/migrate_time_buckets";
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		migrate(req, resp);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		migrate(req, resp);
+	}
+
+	private void migrate(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		String cursor = req.getParameter("cursor");
+		long deadline = System.currentTimeMillis() + Constants.CONFERENCE_MIGRATION_MILLIS;
+		int scanned = 0;
+		int migrated = 0;
+		try {
+			do {
+				ConferenceMigration.Batch batch = ConferenceMigration.migrateBatch(cursor);
+				scanned += batch.getScanned();
+				migrated += batch.getMigrated();
+				cursor = batch.getNextCursor();
+			} while (cursor != null && System.currentTimeMillis() < deadline);
+		} catch (IllegalArgumentException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor: " + cursor);
+			return;
+		}
+		if (cursor != null) {
+			QueueFactory.getDefaultQueue().add(
+					TaskOptions.Builder.withUrl(PATH).param("cursor", cursor));
+		}
+		RequestLog.put("scanned", scanned);
+		RequestLog.put("migrated", migrated);
+		resp.setContentType("text/plain");
+		resp.getWriter().println("Scanned " + scanned + " conferences, migrated " + migrated
+				+ (cursor == null ? ", done." : ", continuing in a task."));
+	}
+}
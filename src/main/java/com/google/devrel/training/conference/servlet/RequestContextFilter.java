@@ -0,0 +1,81 @@
+package com.google.devrel.training.conference.servlet;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.api.server.spi.config.ApiMethod;
+import com.google.devrel.training.conference.service.EndpointMetrics;
+import com.google.devrel.training.conference.service.RequestContext;
+import com.google.devrel.training.conference.service.RpcMetricsDelegate;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+/**
+ * Scopes a RequestContext to each request. Once the request is done, records its latency and
+ * API calls in the EndpointMetrics of its endpoint and writes its RequestLog.
+ */
+public class RequestContextFilter implements Filter {
+
+	private static final String SPI_PATH = "/_ah/spi";
+
+	/**
+	 * The names of the ConferenceApi methods, keyed by Java method name.
+	 */
+	private final Map<String, String> apiMethods = new HashMap<>();
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		for (Method method : ConferenceApi.class.getMethods()) {
+			ApiMethod apiMethod = method.getAnnotation(ApiMethod.class);
+			if (apiMethod != null) {
+				apiMethods.put(method.getName(), apiMethod.name());
+			}
+		}
+		RpcMetricsDelegate.install();
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		String endpoint = endpoint((HttpServletRequest) request);
+		RequestContext context = RequestContext.begin(endpoint);
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			long micros = (System.nanoTime() - start) / 1000;
+			RequestContext.end();
+			EndpointMetrics.record(endpoint, micros, context.getMetrics());
+			context.getLog().finish(micros, context.getMetrics());
+		}
+	}
+
+	/**
+	 * Returns the name of the ApiMethod of an Endpoints request, the path of any other one.
+	 */
+	private String endpoint(HttpServletRequest request) {
+		String path = request.getRequestURI();
+		if (path.startsWith(SPI_PATH + "/")) {
+			// e.g. /_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.getProfile
+			String methodName = path.substring(path.lastIndexOf('.') + 1);
+			String apiMethod = apiMethods.get(methodName);
+			if (apiMethod != null) {
+				return apiMethod;
+			}
+		}
+		return path;
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
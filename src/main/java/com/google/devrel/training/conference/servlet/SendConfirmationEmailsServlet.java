@@ -0,0 +1,29 @@
+package com.google.devrel.training.conference.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.service.ConfirmationEmailWorker;
+import com.google.devrel.training.conference.service.RequestLog;
+
+/**
+ * Cron that sends the confirmation emails waiting in the pull queue.
+ */
+@SuppressWarnings("serial")
+public class SendConfirmationEmailsServlet extends HttpServlet {
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		// Stop leasing before the next run starts
+		int sent = new ConfirmationEmailWorker().drain(
+				System.currentTimeMillis() + Constants.CONFIRMATION_EMAIL_DRAIN_MILLIS);
+		RequestLog.put("sent", sent);
+		resp.setStatus(200);
+	}
+}
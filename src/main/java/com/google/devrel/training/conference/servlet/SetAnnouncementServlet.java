@@ -1,45 +1,40 @@
 package com.google.devrel.training.conference.servlet;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
-import com.google.appengine.repackaged.com.google.common.base.Joiner;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.NearlySoldOutTracker;
+import com.google.devrel.training.conference.service.ProjectionLoader;
+import com.google.devrel.training.conference.service.RequestLog;
+import com.googlecode.objectify.Key;
 
 @SuppressWarnings("serial")
 public class SetAnnouncementServlet extends HttpServlet {
 	
-	private static final Logger LOGGER = Logger.getLogger(SetAnnouncementServlet.class.getName());
-	
-	private MemcacheService memCacheService = MemcacheServiceFactory.getMemcacheService();
-	
-	
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException {
-		LOGGER.log(Level.INFO, "Get announcement of conference with less than five seats availables.");
-		
 		getAnnouncement(req, resp);
 	}
 
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException {
-		LOGGER.log(Level.INFO, "Get announcement of conference with less than five seats availables.");
-		
 		getAnnouncement(req, resp);
 		
 	}
@@ -47,32 +42,26 @@ public class SetAnnouncementServlet extends HttpServlet {
 	private void getAnnouncement(HttpServletRequest req,
 			HttpServletResponse resp) {
 		
-        // Query for conferences with less than 5 seats left
-        List<Conference> list = ofy().load().type(Conference.class)
-        		.filter(Conference.SEATS_AVAILABLE + " <", 5)
-        		.filter(Conference.SEATS_AVAILABLE + " >", 0)
-        		.order(Conference.SEATS_AVAILABLE)
-        		.list();
-
-        // Iterate over the conferences with less than 5 seats less and get the name of each one
-        List<String> conferenceNames = new ArrayList<>(0);
-        for (Conference conference : list) {
-            conferenceNames.add(conference.getName());
-        }
-        if (conferenceNames.size() > 0) {
-
-            // Build a String that announces the nearly sold-out conferences
-            StringBuilder announcementStringBuilder = new StringBuilder(
-                    "Last chance to attend! The following conferences are nearly sold out: ");
-            Joiner joiner = Joiner.on(", ").skipNulls();
-            announcementStringBuilder.append(joiner.join(conferenceNames));
+        // Query for conferences with less than 5 seats left, projecting only their names
+        Query query = new Query(Key.getKind(Conference.class))
+        		.setFilter(CompositeFilterOperator.and(
+        				new FilterPredicate(Conference.SEATS_AVAILABLE, FilterOperator.LESS_THAN,
+        						Constants.NEARLY_SOLD_OUT_SEATS),
+        				new FilterPredicate(Conference.SEATS_AVAILABLE, FilterOperator.GREATER_THAN, 0)))
+        		.addSort(Conference.SEATS_AVAILABLE);
+        List<Entity> list = ProjectionLoader.list(query, Conference.class, Conference.NAME);
 
-            // Put the announcement String in memcache, keyed by Constants.MEMCACHE_ANNOUNCEMENTS_KEY
-            memCacheService.put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, announcementStringBuilder.toString());
+        // Registrations keep the NearlySoldOut set up to date, this scan only fixes missed updates
+        Map<String, String> conferences = new HashMap<>();
+        for (Entity conference : list) {
+            conferences.put(KeyFactory.keyToString(conference.getKey()),
+            		(String) conference.getProperty(Conference.NAME));
         }
+        NearlySoldOutTracker.reconcile(conferences);
+        RequestLog.put("nearlySoldOut", conferences.size());
 
         // Set the response status to 204 which means the request was successful but there's no data to send back
         // Browser stays on the same page if the get came from the browser
         resp.setStatus(200);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.google.devrel.training.conference.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.devrel.training.conference.service.ConferenceIndex;
+import com.google.devrel.training.conference.service.ConferenceTextIndex;
+
+/**
+ * Builds the ConferenceIndex and the ConferenceTextIndex when App Engine warms up a new
+ * instance, before it gets traffic.
+ */
+@SuppressWarnings("serial")
+public class WarmupServlet extends HttpServlet {
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		if (ConferenceIndex.isEnabled()) {
+			ConferenceIndex.build();
+		}
+		ConferenceTextIndex.build();
+		resp.setStatus(200);
+	}
+}
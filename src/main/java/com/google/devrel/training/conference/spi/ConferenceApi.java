@@ -3,36 +3,63 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.factory;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Named;
 
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
-import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.users.User;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencePage;
+import com.google.devrel.training.conference.domain.ConferenceView;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.google.devrel.training.conference.domain.RosterPage;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.BulkRegistrationForm;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.BatchLoader;
+import com.google.devrel.training.conference.service.BulkRegistration;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.ConferenceChanges;
+import com.google.devrel.training.conference.service.ConferenceIndex;
+import com.google.devrel.training.conference.service.ConferencePager;
+import com.google.devrel.training.conference.service.ConferencePager.KeyPage;
+import com.google.devrel.training.conference.service.ConferenceTextIndex;
+import com.google.devrel.training.conference.service.ConferenceViewCache;
+import com.google.devrel.training.conference.service.ConfirmationEmailWorker;
+import com.google.devrel.training.conference.service.NearlySoldOutTracker;
+import com.google.devrel.training.conference.service.OrganizerResolver;
+import com.google.devrel.training.conference.service.ProfileCache;
+import com.google.devrel.training.conference.service.QueryCache;
+import com.google.devrel.training.conference.service.RequestLog;
+import com.google.devrel.training.conference.service.Roster;
+import com.google.devrel.training.conference.service.SeatAllocator;
+import com.google.devrel.training.conference.service.TimeBuckets;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
@@ -43,8 +70,6 @@ import com.googlecode.objectify.cmd.Query;
 @Api(name = "conference", version = "v1", scopes = { Constants.EMAIL_SCOPE }, clientIds = {
         Constants.WEB_CLIENT_ID, Constants.API_EXPLORER_CLIENT_ID }, description = "API for the Conference Central Backend application.")
 public class ConferenceApi {
-	
-	private static final Logger LOGGER = Logger.getLogger(ConferenceApi.class.getName());
 
     /*
      * Get the display name from the user's email. For example, if the email is
@@ -66,8 +91,6 @@ public class ConferenceApi {
     @ApiMethod(name = "saveProfile", path = "profile", httpMethod = HttpMethod.POST)
     public Profile saveProfile(final User user, ProfileForm profileForm) throws UnauthorizedException {
     	
-    	LOGGER.log(Level.INFO, "Save new profile");
-    	
         String userId = null;
         String mainEmail = null;
         String displayName = null;
@@ -77,7 +100,7 @@ public class ConferenceApi {
         if(null == user) {
         	throw new UnauthorizedException("Usuario no logado");
         }
-        LOGGER.log(Level.INFO, String.format("Save new profile by user '%s'", user.getEmail()));
+        RequestLog.put("userId", user.getUserId());
 
         // Set the teeShirtSize to the value sent by the ProfileForm, if sent otherwise leave it as the default value
         if(null != profileForm.getTeeShirtSize()) {
@@ -94,18 +117,40 @@ public class ConferenceApi {
         	displayName = extractDefaultDisplayNameFromEmail(mainEmail);
         }
         
-       Profile profile = getProfile(user);
-       if(null == profile) { 
-    	   // Create a new Profile entity from the userId, displayName, mainEmail and teeShirtSize.
-    	   profile = new Profile(userId, displayName, mainEmail, teeShirtSize);
-       } else {
-    	   profile.update(displayName, teeShirtSize);
-       }
-
-        // Save the Profile entity in the datastore
-        Key<Profile> keySave = ofy().save().entity(profile).now();
+        // Update the Profile read from the datastore in a transaction, so that a concurrent
+        // registration saved in between is not overwritten with a cached copy
+        final String newUserId = userId;
+        final String newDisplayName = displayName;
+        final String newMainEmail = mainEmail;
+        final TeeShirtSize newTeeShirtSize = teeShirtSize;
+        final AtomicBoolean displayNameChanged = new AtomicBoolean();
+        Profile profile = ofy().transact(new Work<Profile>() {
+        	@Override
+        	public Profile run() {
+        		Profile profile = ofy().load().key(Key.create(Profile.class, newUserId)).now();
+        		if (null == profile) {
+        			// Create a new Profile entity from the userId, displayName, mainEmail and teeShirtSize.
+        			profile = new Profile(newUserId, newDisplayName, newMainEmail, newTeeShirtSize);
+        			displayNameChanged.set(false);
+        		} else {
+        			displayNameChanged.set(newDisplayName != null
+        					&& !newDisplayName.equals(profile.getDisplayName()));
+        			profile.update(newDisplayName, newTeeShirtSize);
+        		}
+        		// Save the Profile entity in the datastore
+        		ofy().save().entity(profile).now();
+        		return profile;
+        	}
+        });
+        ProfileCache.put(profile);
+
+        // Keep the name denormalized on the user's Conferences and Registrations up to date
+        if (displayNameChanged.get()) {
+        	Key<Profile> profileKey = Key.create(profile);
+        	OrganizerResolver.refreshDisplayName(profileKey);
+        	Roster.refreshDisplayName(profileKey);
+        }
         
-        LOGGER.log(Level.INFO, String.format("OK. Save new profile: '%s'", keySave.toString()));
         return profile;
     }
 
@@ -115,21 +160,15 @@ public class ConferenceApi {
      * @return Profile object.
      * @throws UnauthorizedException when the User object is null.
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
 	@ApiMethod(name = "getProfile", path = "profile", httpMethod = HttpMethod.GET)
     public Profile getProfile(final User user) throws UnauthorizedException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        
-        LOGGER.log(Level.INFO, String.format("Get profile from user '%s'", user.getEmail()));
-        // load the Profile Entity
-        String userId = user.getUserId();
-		Key key = Key.create(Profile.class, userId); 
-        Profile profile = (Profile) ofy().load().key(key).now();
-        
-        LOGGER.log(Level.INFO, "OK; get profile.");
-        return profile;
+        RequestLog.put("userId", user.getUserId());
+
+        // load the Profile Entity, at most once per request
+        return ProfileCache.get(user.getUserId());
     }
     
     /**
@@ -146,8 +185,7 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        
-        LOGGER.log(Level.INFO, String.format("Saving new conference by user '%s'", user.getEmail()));
+        RequestLog.put("userId", user.getUserId());
         
         // Get the userId of the logged in User
         String userId = user.getUserId();
@@ -172,79 +210,339 @@ public class ConferenceApi {
         // Create a new Conference Entity, specifying the user's Profile entity
         // as the parent of the conference
         Conference conference = new Conference(conferenceId, userId, conferenceForm);
+        conference.updateOrganizerDisplayName(profile.getDisplayName());
 
         // Save Conference and Profile Entities
         ofy().save().entity(conference).now();
+        if (conference.isSeatsSharded()) {
+        	ofy().save().entities(SeatAllocator.createShards(conference)).now();
+        }
+        ConferenceChanges.committed(conference);
 
         
-        Queue queue = QueueFactory.getQueue("sendEmails");
-        TaskOptions param = TaskOptions.Builder.withUrl("/task/sendConfirmation")
-        		.param("email", profile.getMainEmail())
-        		.param("info", conference.toString());
-        queue.add(param);
+        // Queue the confirmation email, sent in batches by the ConfirmationEmailWorker
+        Queue queue = QueueFactory.getQueue(Constants.CONFIRMATION_EMAIL_QUEUE);
+        queue.add(ConfirmationEmailWorker.task(profile.getMainEmail(), conferenceKey.getString()));
       
-        LOGGER.log(Level.INFO, String.format("OK, new conference create '%s'", conferenceKey));
+        RequestLog.put("conference", conferenceKey.getString());
         return conference;
      }
     
     
+    /**
+     * Returns a page of the Conferences created by the user.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param pageSize The maximum number of Conferences to return.
+     * @param cursor The cursor returned with the previous page, null for the first page.
+     * @return a page of Conferences and the cursor for the next page.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when the cursor is not valid.
+     */
     @ApiMethod( name = "getConferencesCreated", path = "getConferencesCreated", httpMethod = HttpMethod.POST)
-    public List<Conference> getConferenceCreated(final User user) throws UnauthorizedException {
+    public ConferencePage getConferenceCreated(final User user, @Nullable @Named("pageSize") Integer pageSize,
+    		@Nullable @Named("cursor") String cursor) throws UnauthorizedException, BadRequestException {
     	if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-    	LOGGER.log(Level.INFO, String.format("Get conference created by user loggin"));
-    	
     	Key<Profile> profileKey = Key.create(Profile.class, user.getUserId());
     	
     	Query<Conference> query = ofy().load().type(Conference.class).ancestor(profileKey).order(Conference.NAME);
-    	return query.list();
+    	return page(query, pageSize, cursor);
     }
     
     @ApiMethod( name = "getConferenceByFilters", path="getConferenceByFilters", httpMethod = HttpMethod.POST)
-    public List<Conference> qetConferenceByFilters(final User user) throws UnauthorizedException {
+    public ConferencePage qetConferenceByFilters(final User user, @Nullable @Named("pageSize") Integer pageSize,
+    		@Nullable @Named("cursor") String cursor) throws UnauthorizedException, BadRequestException {
     	if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-    	LOGGER.log(Level.INFO, "Get conference with some filters");
-    	
     	 Query<Conference> query = ofy().load().type(Conference.class).order(Conference.NAME);
     	 query = query.filter(Conference.CITY + " =", "London");
     	 query = query.filter(Conference.TOPICS + " in", Arrays.asList("Programming Languages"));
-    	 return query.list();
+    	 return page(query, pageSize, cursor);
     }
     
+    /**
+     * Returns a page of the Conferences matching the filters of the form, ordered by name.
+     *
+     * A page is full unless the query is exhausted, except when the filters that can't be run by
+     * the datastore match so few Conferences that scanning for them runs out of time: the page
+     * may then be short, or even empty, and still come with a cursor. Keep fetching until the
+     * cursor is null.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param conferenceQueryForm The filters, the page size and the cursor of the page.
+     * @return a page of Conferences and the cursor for the next page.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when a filter or the cursor is not valid.
+     */
     @ApiMethod( name = "queryConferences", path = "queryConferences", httpMethod = HttpMethod.POST)
-    public List<Conference> queryConferenceByFilters(final User user, ConferenceQueryForm conferenceQueryForm) throws UnauthorizedException {
+    public ConferencePage queryConferenceByFilters(final User user, ConferenceQueryForm conferenceQueryForm)
+    		throws UnauthorizedException, BadRequestException {
     	if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-    	LOGGER.log(Level.INFO, "Query conference with filter sending by client");
-    	
-    	Query<Conference> query = conferenceQueryForm.getQuery();
-    	List<Conference> result = query.list();
-    	
-    	LOGGER.log(Level.INFO, "Results: ");
-    	for(Conference conference : result) {
-    		LOGGER.log(Level.INFO, String.format("\t Conference: '%s'", conference.getName()));
+    	return query(conferenceQueryForm);
+    }
+
+    /**
+     * Returns a page of the Conferences starting within the next days, ordered by the week (or
+     * month, for long windows) they start in, then by name. When the in-memory index answers the
+     * queries (conference.searchIndex), they are ordered by name only, like every other query it
+     * answers. Signing in is not required.
+     *
+     * @param days The number of days to look ahead, starting today (UTC), 14 by default.
+     * @param pageSize The maximum number of Conferences to return.
+     * @param cursor The cursor returned with the previous page, null for the first page.
+     * @return a page of Conferences and the cursor for the next page.
+     * @throws BadRequestException when days is out of range or the cursor is not valid.
+     */
+    @ApiMethod(name = "upcomingConferences", path = "upcomingConferences", httpMethod = HttpMethod.GET)
+    public ConferencePage upcomingConferences(@Nullable @Named("days") Integer days,
+    		@Nullable @Named("pageSize") Integer pageSize, @Nullable @Named("cursor") String cursor)
+    		throws BadRequestException {
+    	int window = days == null ? Constants.UPCOMING_DAYS : days;
+    	if (window < 1 || window > Constants.MAX_UPCOMING_DAYS) {
+    		throw new BadRequestException("days must be between 1 and " + Constants.MAX_UPCOMING_DAYS);
     	}
-    	
+    	Date today = TimeBuckets.today();
+    	ConferenceQueryForm form = new ConferenceQueryForm()
+    			.filter(new Filter(Field.START_DATE, Operator.GTEQ, TimeBuckets.formatDay(today)))
+    			.filter(new Filter(Field.START_DATE, Operator.LT,
+    					TimeBuckets.formatDay(TimeBuckets.addDays(today, window))))
+    			.page(pageSize, cursor);
+    	return query(form);
+    }
+
+    /**
+     * Returns a page of the Conferences whose name or description holds all the words of the
+     * query, best matches first. The last word also matches as a prefix unless the query ends
+     * with a space, for search-as-you-type. Signing in is not required.
+     *
+     * @param query The words to search for.
+     * @param pageSize The maximum number of Conferences to return.
+     * @param cursor The cursor returned with the previous page, null for the first page.
+     * @return a page of Conferences and the cursor for the next page.
+     * @throws BadRequestException when the query has no word or too many, or the cursor is not valid.
+     */
+    @ApiMethod(name = "searchConferences", path = "searchConferences", httpMethod = HttpMethod.GET)
+    public ConferencePage searchConferences(@Named("query") String query,
+    		@Nullable @Named("pageSize") Integer pageSize, @Nullable @Named("cursor") String cursor)
+    		throws BadRequestException {
+    	KeyPage keys;
+    	try {
+    		keys = ConferenceTextIndex.get().search(query == null ? "" : query, pageSize, cursor);
+    	} catch (IllegalArgumentException e) {
+    		throw new BadRequestException(e.getMessage());
+    	}
+    	// Load the Conferences of the page in one batch, in the order of the ranking
+    	BatchLoader.Result<Conference> conferences = BatchLoader.load(keys.getKeys());
+    	ConferencePage result = new ConferencePage(
+    			ConferenceViewCache.viewsOf(conferences.getFound()), keys.getNextCursor());
+    	RequestLog.put("results", result.getItems().size());
     	return result;
     }
+
+    /*
+     * Runs a Conference query one page at a time, from the index, the QueryCache or the datastore.
+     */
+    private static ConferencePage query(ConferenceQueryForm conferenceQueryForm)
+    		throws BadRequestException {
+    	KeyPage keys;
+    	try {
+    		if (ConferenceIndex.isEnabled()) {
+    			// Answer from the in-memory index of this instance
+    			keys = ConferenceIndex.get().search(conferenceQueryForm);
+    		} else {
+    			// Look for the page of keys in the QueryCache, run the planned query on a miss
+    			String cacheKey = QueryCache.cacheKey(conferenceQueryForm);
+    			keys = QueryCache.get(cacheKey);
+    			if (keys == null) {
+    				keys = ConferencePager.pageKeys(conferenceQueryForm.plan(),
+    						conferenceQueryForm.getPageSize(), conferenceQueryForm.getCursor());
+    				QueryCache.put(cacheKey, keys);
+    			}
+    		}
+    	} catch (IllegalArgumentException e) {
+    		// Invalid filters or cursor
+    		throw new BadRequestException(e.getMessage());
+    	}
+
+    	// Then load the Conferences of the page in one batch
+    	BatchLoader.Result<Conference> conferences = BatchLoader.load(keys.getKeys());
+    	ConferencePage result = new ConferencePage(
+    			ConferenceViewCache.viewsOf(conferences.getFound()), keys.getNextCursor());
+    	RequestLog.put("results", result.getItems().size());
+    	return result;
+    }
+
+    /*
+     * Fetches one page of the query, answering 400 for an invalid cursor.
+     */
+    private static ConferencePage page(Query<Conference> query, Integer pageSize, String cursor)
+    		throws BadRequestException {
+    	ConferencePage page;
+    	try {
+    		page = ConferencePager.page(query, pageSize, cursor);
+    	} catch (IllegalArgumentException e) {
+    		throw new BadRequestException("Invalid cursor: " + cursor);
+    	}
+    	RequestLog.put("results", page.getItems().size());
+    	return page;
+    }
     
     
     /**
      * Returns a Conference object with the given conferenceId.
      *
      * @param websafeConferenceKey The String representation of the Conference Key.
-     * @return a Conference object with the given conferenceId.
+     * @return a view of the Conference with the given conferenceId.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
      */
     @ApiMethod(name = "getConference", path = "conference/{websafeConferenceKey}", httpMethod = HttpMethod.GET)
-    public Conference getConference( @Named("websafeConferenceKey") final String websafeConferenceKey) throws NotFoundException {
-        
-    	Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Conference conference = ofy().load().key(conferenceKey).now();
+    public ConferenceView getConference( @Named("websafeConferenceKey") final String websafeConferenceKey) throws NotFoundException {
+        Conference conference = getCachedConference(websafeConferenceKey);
+        return ConferenceViewCache.viewsOf(Collections.singletonList(conference)).get(0);
+    }
+
+    /**
+     * Updates a Conference with the values of a ConferenceForm, for its organizer only.
+     *
+     * The seats allocated are counted from the shards when the seats are sharded, and the shards
+     * are resized along with maxAttendees in the same transaction.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param conferenceForm A ConferenceForm object representing user's inputs.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return a view of the updated Conference.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when maxAttendees is less than the seats allocated.
+     */
+    @ApiMethod(name = "updateConference", path = "conference/{websafeConferenceKey}", httpMethod = HttpMethod.PUT)
+    public ConferenceView updateConference(final User user, final ConferenceForm conferenceForm,
+    		@Named("websafeConferenceKey") final String websafeConferenceKey)
+    		throws UnauthorizedException, NotFoundException, ForbiddenException, BadRequestException {
+    	if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+    	RequestLog.put("userId", user.getUserId());
+    	if (!user.getUserId().equals(getCachedConference(websafeConferenceKey).getOrganizerUserId())) {
+    		throw new ForbiddenException("Only the organizer can update the conference");
+    	}
+    	// The Conference of the transaction, for the caches once committed
+    	final Conference[] savedConference = new Conference[1];
+    	WrappedBoolean result;
+    	try {
+    		result = ofy().transact(new Work<WrappedBoolean>() {
+    			@Override
+    			public WrappedBoolean run() {
+    				savedConference[0] = null;
+    				Conference conference = loadConference(websafeConferenceKey);
+    				if (conference == null) {
+    					return new WrappedBoolean(false,
+    							"No Conference found with key: " + websafeConferenceKey);
+    				}
+    				// Checked again on the copy that is saved, the cached one may be stale
+    				if (!user.getUserId().equals(conference.getOrganizerUserId())) {
+    					return new WrappedBoolean(false,
+    							"Only the organizer can update the conference");
+    				}
+    				if (conference.isSeatsSharded()) {
+    					List<SeatShard> shards = SeatAllocator.loadAllShards(conference);
+    					conference.updateWithConferenceForm(conferenceForm,
+    							SeatAllocator.seatsAllocated(shards));
+    					ofy().save().entities(SeatAllocator.resizeShards(conference, shards)).now();
+    				} else {
+    					conference.updateWithConferenceForm(conferenceForm);
+    				}
+    				ofy().save().entity(conference).now();
+    				savedConference[0] = conference;
+    				return new WrappedBoolean(true);
+    			}
+    		});
+    	} catch (IllegalArgumentException e) {
+    		throw new BadRequestException(e.getMessage());
+    	}
+    	if (!result.getResult()) {
+    		if (result.getReason().contains("No Conference found with key")) {
+    			throw new NotFoundException(result.getReason());
+    		} else {
+    			throw new ForbiddenException(result.getReason());
+    		}
+    	}
+    	Conference conference = savedConference[0];
+    	ConferenceChanges.committed(conference);
+    	if (conference.isSeatsSharded()) {
+    		SeatAllocator.invalidateCachedSeatsAvailable(websafeConferenceKey);
+    	}
+    	NearlySoldOutTracker.seatsChanged(conference, null, 0);
+    	return ConferenceViewCache.viewsOf(Collections.singletonList(conference)).get(0);
+    }
+
+    /**
+     * Returns a page of the users registered to attend a Conference, for its organizer only.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param pageSize The maximum number of Registrations to return.
+     * @param cursor The cursor returned with the previous page, null for the first page.
+     * @return a page of Registrations and the cursor for the next page.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when the cursor is not valid.
+     */
+    @ApiMethod(name = "getConferenceRoster", path = "conference/{websafeConferenceKey}/roster", httpMethod = HttpMethod.GET)
+    public RosterPage getConferenceRoster(final User user,
+    		@Named("websafeConferenceKey") final String websafeConferenceKey,
+    		@Nullable @Named("pageSize") Integer pageSize, @Nullable @Named("cursor") String cursor)
+    		throws UnauthorizedException, NotFoundException, ForbiddenException, BadRequestException {
+    	if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+    	RequestLog.put("userId", user.getUserId());
+    	Conference conference = getCachedConference(websafeConferenceKey);
+    	if (!user.getUserId().equals(conference.getOrganizerUserId())) {
+    		throw new ForbiddenException("Only the organizer can see the roster");
+    	}
+    	RosterPage page;
+    	try {
+    		page = Roster.page(conference.getKey(), pageSize, cursor);
+    	} catch (IllegalArgumentException e) {
+    		throw new BadRequestException("Invalid cursor: " + cursor);
+    	}
+    	RequestLog.put("results", page.getItems().size());
+    	return page;
+    }
+
+    /**
+     * Returns the number of users registered to attend a Conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the number of registrations.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     */
+    @ApiMethod(name = "getRegistrationCount", path = "conference/{websafeConferenceKey}/registrationCount", httpMethod = HttpMethod.GET)
+    public WrappedInteger getRegistrationCount(
+    		@Named("websafeConferenceKey") final String websafeConferenceKey) throws NotFoundException {
+    	return new WrappedInteger(Roster.count(getCachedConference(websafeConferenceKey)));
+    }
+
+    /*
+     * Gets a Conference from the ConferenceCache, 404 when the key is invalid or has no entity.
+     */
+    private static Conference getCachedConference(String websafeConferenceKey)
+    		throws NotFoundException {
+    	Key<Conference> conferenceKey;
+    	try {
+    		conferenceKey = Key.create(websafeConferenceKey);
+    	} catch (IllegalArgumentException e) {
+    		throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+    	}
+        Conference conference = ConferenceCache.get(conferenceKey);
         if (conference == null) {
             throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
         }
@@ -269,34 +567,54 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
 
+        // The Profile and Conference of the transaction, for the caches once committed
+        final Profile[] savedProfile = new Profile[1];
+        final Conference[] savedConference = new Conference[1];
+
         // Start transaction
         WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
         	@Override
 			public WrappedBoolean run() {
+				savedProfile[0] = null;
 				
                 try {
-	                Conference conference = getConference(websafeConferenceKey);
+	                Conference conference = loadConference(websafeConferenceKey);
 	                if (conference == null) {
 	                    return new WrappedBoolean (false, "No Conference found with key: " + websafeConferenceKey);
 	                }
+	                savedConference[0] = conference;
 	
 	                // Get the user's Profile entity
 	                Profile profile = getProfile(user);
-	                if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+	                if (profile.isRegisteredFor(conference.getKey())) {
 	                	return new WrappedBoolean (false, "Already registered");
 	                	
+	                } else if (conference.isSeatsSharded()) {
+	                	// Only a random shard is written, the Conference itself is left untouched
+	                	SeatShard shard = SeatAllocator.bookSeat(conference);
+	                	if (shard == null) {
+	                		return new WrappedBoolean (false, "No seats available");
+	                	}
+	                	profile.registerForConference(conference.getKey());
+	                	Registration registration = new Registration(profile, conference.getKey(), new Date());
+	                	ofy().save().entities(profile, shard, registration).now();
+	                	savedProfile[0] = profile;
+	                	return new WrappedBoolean(true, "Registration successful");
+	                	
 	                } else if (conference.getSeatsAvailable() <= 0) {
 	                	return new WrappedBoolean (false, "No seats available");
 	                	
 	                } else {
-	                    // Add the websafeConferenceKey to the profile's conferencesToAttend property
-	                    profile.addToConferenceKeysToAttend(websafeConferenceKey);
+	                    // Add the Conference to the profile's registrations, and to its roster
+	                    profile.registerForConference(conference.getKey());
+	                    Registration registration = new Registration(profile, conference.getKey(), new Date());
 	                    
 	                    // Decrease the conference's seatsAvailable
 	                    conference.bookSeats(1);
 	 
-	                    // Save the Conference and Profile entities
-	                    ofy().save().entity(conference).now();
+	                    // Save the Conference, Profile and Registration entities
+	                    ofy().save().entities(profile, conference, registration).now();
+	                    savedProfile[0] = profile;
 	                    
 	                    return new WrappedBoolean(true, "Registration successful");
 	                }
@@ -321,19 +639,64 @@ public class ConferenceApi {
                 throw new ForbiddenException("Unknown exception");
             }
         }
+        ProfileCache.put(savedProfile[0]);
+        // Drop any copy cached between the save and the commit
+        ConferenceCache.invalidate(Key.<Conference>create(websafeConferenceKey));
+        Long cachedSeatsAvailable = SeatAllocator.adjustCachedSeatsAvailable(websafeConferenceKey, -1);
+        NearlySoldOutTracker.seatsChanged(savedConference[0], cachedSeatsAvailable, -1);
         return result;
     }
 
+    /**
+     * Registers a group of users to attend the specified Conference, for its organizer only.
+     *
+     * The seats of the whole group are reserved at once, the users who can't be registered are
+     * reported rather than failing the whole request.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param bulkRegistrationForm The userIds of the users to register.
+     * @return the outcome of the registration of each user.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when there are no userIds or too many of them.
+     */
+    @ApiMethod(name = "registerGroupForConference", path = "conference/{websafeConferenceKey}/groupRegistration", httpMethod = HttpMethod.POST)
+    public List<RegistrationResult> registerGroupForConference(final User user,
+    		@Named("websafeConferenceKey") final String websafeConferenceKey,
+    		BulkRegistrationForm bulkRegistrationForm)
+    		throws UnauthorizedException, NotFoundException, ForbiddenException, BadRequestException {
+    	if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+    	RequestLog.put("userId", user.getUserId());
+    	List<String> userIds = bulkRegistrationForm.getUserIds();
+    	if (userIds == null || userIds.isEmpty()) {
+    		throw new BadRequestException("No userIds to register");
+    	}
+    	if (userIds.size() > Constants.MAX_BULK_REGISTRATIONS) {
+    		throw new BadRequestException("At most " + Constants.MAX_BULK_REGISTRATIONS
+    				+ " users can be registered at once");
+    	}
+    	Conference conference = getCachedConference(websafeConferenceKey);
+    	if (!user.getUserId().equals(conference.getOrganizerUserId())) {
+    		throw new ForbiddenException("Only the organizer can register a group");
+    	}
+    	RequestLog.put("requested", userIds.size());
+    	return BulkRegistration.register(conference, userIds);
+    }
+
 
  /**
      * Returns a collection of Conference Object that the user is going to attend.
      *
      * @param user An user who invokes this method, null when the user is not signed in.
-     * @return a Collection of Conferences that the user is going to attend.
+     * @return the views of the Conferences that the user is going to attend.
      * @throws UnauthorizedException when the User object is null.
      */
 	@ApiMethod(name = "getConferencesToAttend", path = "getConferencesToAttend", httpMethod = HttpMethod.GET)
-    public Collection<Conference> getConferencesToAttend(final User user)
+    public Collection<ConferenceView> getConferencesToAttend(final User user)
             throws UnauthorizedException, NotFoundException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
@@ -345,16 +708,14 @@ public class ConferenceApi {
             throw new NotFoundException("Profile doesn't exist.");
         }
 
-        // Get the value of the profile's conferenceKeysToAttend property
-        List<String> keyStringsToAttend = profile.getConferenceKeysToAttend();
-
-        // Iterate over keyStringsToAttend, and return a Collection of the
-        // Conference entities that the user has registered to atend
-        List<Conference> conferences = new ArrayList<Conference>();
-        for(String keyConference: keyStringsToAttend) {
-        	conferences.add(getConference(keyConference));
+        // Load every Conference the user has registered to attend in one batch
+        BatchLoader.Result<Conference> conferences = BatchLoader.load(profile.getConferenceKeys());
+        if (!conferences.getMissing().isEmpty()) {
+        	RequestLog.warning(null, "Conferences not found for user '%s': %s",
+        			user.getUserId(), conferences.getMissing());
         }
-        return conferences;
+        RequestLog.put("results", conferences.getFound().size());
+        return ConferenceViewCache.viewsOf(conferences.getFound());
     }
 	
 	
@@ -367,18 +728,22 @@ public class ConferenceApi {
 			throw new UnauthorizedException("Authorization required");
 		}
 
+		// The Profile and Conference of the transaction, for the caches once committed
+		final Profile[] savedProfile = new Profile[1];
+		final Conference[] savedConference = new Conference[1];
+
 		WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
 			@Override
 			public WrappedBoolean run() {
-				Key<Conference> conferenceKey = Key
-						.create(websafeConferenceKey);
-				Conference conference = ofy().load().key(conferenceKey).now();
+				savedProfile[0] = null;
+				Conference conference = loadConference(websafeConferenceKey);
 				// 404 when there is no Conference with the given conferenceId.
 				if (conference == null) {
 					return new WrappedBoolean(false,
 							"No Conference found with key: "
 									+ websafeConferenceKey);
 				}
+				savedConference[0] = conference;
 
 				// Un-registering from the Conference.
 				Profile profile = null;
@@ -387,11 +752,22 @@ public class ConferenceApi {
 				} catch (UnauthorizedException e) {
 					e.printStackTrace();
 				}
-				if (profile.getConferenceKeysToAttend().contains(
-						websafeConferenceKey)) {
-					profile.unregisterFromConference(websafeConferenceKey);
-					conference.giveBackSeats(1);
-					ofy().save().entities(profile, conference).now();
+				if (profile.isRegisteredFor(conference.getKey())) {
+					// Give back the seat before any write, so that a refusal leaves nothing to commit
+					Object seats;
+					if (conference.isSeatsSharded()) {
+						seats = SeatAllocator.giveBackSeat(conference);
+						if (seats == null) {
+							return new WrappedBoolean(false, "No seats allocated for this conference");
+						}
+					} else {
+						conference.giveBackSeats(1);
+						seats = conference;
+					}
+					profile.unregisterFromConference(conference.getKey());
+					ofy().delete().key(Registration.key(profile.getUserId(), conference.getKey())).now();
+					ofy().save().entities(profile, seats).now();
+					savedProfile[0] = profile;
 					return new WrappedBoolean(true);
 				} else {
 					return new WrappedBoolean(false,
@@ -407,19 +783,34 @@ public class ConferenceApi {
 				throw new ForbiddenException(result.getReason());
 			}
 		}
+		ProfileCache.put(savedProfile[0]);
+		// Drop any copy cached between the save and the commit
+		ConferenceCache.invalidate(Key.<Conference>create(websafeConferenceKey));
+		Long cachedSeatsAvailable = SeatAllocator.adjustCachedSeatsAvailable(websafeConferenceKey, 1);
+		NearlySoldOutTracker.seatsChanged(savedConference[0], cachedSeatsAvailable, 1);
 		// NotFoundException is actually thrown here.
 		return new WrappedBoolean(result.getResult());
 	}
+
+	/*
+	 * Loads a Conference from its websafe key, null when the key is invalid or has no entity.
+	 */
+	private static Conference loadConference(String websafeConferenceKey) {
+		Key<Conference> conferenceKey;
+		try {
+			conferenceKey = Key.create(websafeConferenceKey);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return ofy().load().key(conferenceKey).now();
+	}
     
 	
 	@ApiMethod(name = "getAnnouncement", path = "announcement", httpMethod = HttpMethod.GET)
     public Announcement getAnnouncement() {
-		LOGGER.log(Level.INFO, "Get annocencement of conference with less than five seats availables");
-		
-		MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-        Object message = memcacheService.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+		String message = NearlySoldOutTracker.getMessage();
         if (message != null) {
-            return new Announcement(message.toString());
+            return new Announcement(message);
         }
         return null;
     }
@@ -455,4 +846,20 @@ public class ConferenceApi {
             return reason;
         }
     }
+
+    /**
+     * Just a wrapper for Integer, like WrappedBoolean.
+     */
+    public static class WrappedInteger {
+
+        private final Integer result;
+
+        public WrappedInteger(Integer result) {
+            this.result = result;
+        }
+
+        public Integer getResult() {
+            return result;
+        }
+    }
 }
\ No newline at end of file
@@ -1,14 +1,25 @@
 package com.google.devrel.training.conference.domain;
 
+import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
 
 /**
  * Tests for Profile POJO.
@@ -36,6 +47,7 @@ public class ProfileTest {
 
     @After
     public void tearDown() throws Exception {
+        ofy().clear();
         helper.tearDown();
     }
 
@@ -58,6 +70,63 @@ public class ProfileTest {
         assertEquals(newTeeShirtSize, profile.getTeeShirtSize());
     }
 
+    @Test
+    public void testRegistrations() throws Exception {
+        Key<Conference> first = Key.create(Key.create(Profile.class, "organizer"),
+                Conference.class, 1L);
+        Key<Conference> second = Key.create(Key.create(Profile.class, "organizer"),
+                Conference.class, 2L);
+        assertTrue(profile.registerForConference(first));
+        assertFalse(profile.registerForConference(first));
+        assertTrue(profile.registerForConference(second));
+        assertTrue(profile.isRegisteredFor(first));
+        assertEquals(2, profile.getRegistrationCount());
+        assertEquals(new HashSet<>(Arrays.asList(first.getString(), second.getString())),
+                new HashSet<>(profile.getConferenceKeysToAttend()));
+
+        profile.unregisterFromConference(first);
+        assertFalse(profile.isRegisteredFor(first));
+        assertEquals(Arrays.asList(second), profile.getConferenceKeys());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnregisterWithoutRegistration() throws Exception {
+        profile.unregisterFromConference(Key.create(Key.create(Profile.class, "organizer"),
+                Conference.class, 1L));
+    }
+
+    @Test
+    public void testRegistrationsSurviveSave() throws Exception {
+        Key<Conference> conferenceKey = Key.create(Key.create(Profile.class, "organizer"),
+                Conference.class, 1L);
+        profile.registerForConference(conferenceKey);
+        ofy().save().entity(profile).now();
+        ofy().clear();
+        Profile loaded = ofy().load().key(Key.create(Profile.class, USER_ID)).now();
+        assertTrue(loaded.isRegisteredFor(conferenceKey));
+        assertEquals(1, loaded.getRegistrationCount());
+    }
+
+    @Test
+    public void testMigrateConferenceKeysToAttend() throws Exception {
+        Key<Conference> conferenceKey = Key.create(Key.create(Profile.class, "organizer"),
+                Conference.class, 1L);
+        // A Profile saved before registrations, with the websafe keys of its Conferences.
+        Entity legacy = new Entity(KeyFactory.createKey("Profile", USER_ID));
+        legacy.setProperty("displayName", DISPLAY_NAME);
+        legacy.setProperty("conferenceKeysToAttend", Arrays.asList(conferenceKey.getString()));
+        DatastoreServiceFactory.getDatastoreService().put(legacy);
+
+        Profile loaded = ofy().load().key(Key.create(Profile.class, USER_ID)).now();
+        assertTrue(loaded.isMigrationPending());
+        assertTrue(loaded.isRegisteredFor(conferenceKey));
+
+        Entity saved = ofy().save().toEntity(loaded);
+        assertFalse(loaded.isMigrationPending());
+        assertNull(saved.getProperty("conferenceKeysToAttend"));
+        assertTrue(saved.hasProperty("registrations"));
+    }
+
     /*
     @Test
     public void testListValues() throws Exception {
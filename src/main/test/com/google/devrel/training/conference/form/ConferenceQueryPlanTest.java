@@ -0,0 +1,201 @@
+package com.google.devrel.training.conference.form;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.service.ConferencePager;
+import com.google.devrel.training.conference.service.ConferencePager.KeyPage;
+import com.google.devrel.training.conference.service.TimeBuckets;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for ConferenceQueryPlan.
+ */
+public class ConferenceQueryPlanTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static Conference conference(long id, String city, int month, int maxAttendees,
+            String... topics) {
+        Calendar start = new GregorianCalendar(2026, month - 1, 10);
+        return new Conference(id, "organizer", new ConferenceForm("Conference " + id, "",
+                Arrays.asList(topics), city, start.getTime(), start.getTime(), maxAttendees));
+    }
+
+    @Test
+    public void testPushesMostSelectiveField() throws Exception {
+        ConferenceQueryPlan plan = new ConferenceQueryForm()
+                .filter(new Filter(Field.MONTH, Operator.GT, "3"))
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.LT, "100"))
+                .plan();
+        assertEquals("Pushed: [city == 'London'], residual: [month > 3, maxAttendees < 100]",
+                plan.toString());
+        assertTrue(plan.hasResidual());
+    }
+
+    @Test
+    public void testPushesAllRangeFiltersOfOneField() throws Exception {
+        ConferenceQueryPlan plan = new ConferenceQueryForm()
+                .filter(new Filter(Field.MONTH, Operator.GTEQ, "3"))
+                .filter(new Filter(Field.MONTH, Operator.LTEQ, "5"))
+                .plan();
+        assertEquals("Pushed: [month >= 3, month <= 5], residual: []", plan.toString());
+        assertFalse(plan.hasResidual());
+    }
+
+    @Test
+    public void testNotEqualIsResidual() throws Exception {
+        ConferenceQueryPlan plan = new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, Operator.NE, "Web"))
+                .plan();
+        assertTrue(plan.hasResidual());
+        assertTrue(plan.matches(conference(1, "London", 6, 50, "Cloud")));
+        assertFalse(plan.matches(conference(2, "London", 6, 50, "Cloud", "Web")));
+    }
+
+    @Test
+    public void testInequalitiesOnSeveralFields() throws Exception {
+        ofy().save().entities(
+                conference(1, "London", 2, 50, "Web"),
+                conference(2, "London", 6, 50, "Web"),
+                conference(3, "Paris", 7, 50, "Cloud"),
+                conference(4, "Tokyo", 8, 500, "Web")).now();
+        ofy().clear();
+
+        ConferenceQueryForm form = new ConferenceQueryForm()
+                .filter(new Filter(Field.MONTH, Operator.GT, "4"))
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.LT, "100"))
+                .filter(new Filter(Field.TOPIC, Operator.NE, "Cloud"));
+        KeyPage page = ConferencePager.pageKeys(form.plan(), null, null);
+        assertEquals(Arrays.asList(Key.create(Key.create(Profile.class, "organizer"),
+                Conference.class, 2L)), page.getKeys());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testResidualScanFillsThePageBeyondOneChunk() throws Exception {
+        List<Conference> conferences = new ArrayList<>();
+        for (int id = 1; id <= Constants.RESIDUAL_SCAN_CHUNK + 100; id++) {
+            conferences.add(conference(id, "London", 6, 50, "Web"));
+        }
+        // Sorted last by name
+        conferences.add(conference(9999, "London", 6, 50, "Cloud"));
+        ofy().save().entities(conferences).now();
+        ofy().clear();
+
+        ConferenceQueryForm form = new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, Operator.NE, "Web"));
+        KeyPage page = ConferencePager.pageKeys(form.plan(), 1, null);
+        assertEquals(Arrays.asList(Key.create(Key.create(Profile.class, "organizer"),
+                Conference.class, 9999L)), page.getKeys());
+    }
+
+    @Test
+    public void testStringValuesAreTrimmedLikeTheCacheKey() throws Exception {
+        ofy().save().entities(
+                conference(1, "London", 6, 50, "Web"),
+                conference(2, "Paris", 6, 50, "Web")).now();
+        ofy().clear();
+
+        ConferenceQueryForm form = new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, " London "));
+        assertEquals("city==London", form.canonicalFilters());
+        assertTrue(form.plan().matches(conference(1, "London", 6, 50, "Web")));
+        KeyPage page = ConferencePager.pageKeys(form.plan(), null, null);
+        assertEquals(Arrays.asList(Key.create(Key.create(Profile.class, "organizer"),
+                Conference.class, 1L)), page.getKeys());
+    }
+
+    private static Conference startingOn(long id, String name, String day) {
+        Date start = TimeBuckets.parseDay(day);
+        return new Conference(id, "organizer", new ConferenceForm(name, "", null, "London",
+                start, start, 50));
+    }
+
+    @Test
+    public void testScansWeekBucketsOfStartDateRange() throws Exception {
+        ConferenceQueryPlan plan = new ConferenceQueryForm()
+                .filter(new Filter(Field.START_DATE, Operator.GTEQ, "2026-03-02"))
+                .filter(new Filter(Field.START_DATE, Operator.LT, "2026-03-16"))
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .plan();
+        assertEquals("Buckets: startWeek in [202610, 202611], residual: [startDate >= '2026-03-02',"
+                + " startDate < '2026-03-16', city == 'London']", plan.toString());
+
+        // Over five weeks, the city is more selective
+        plan = new ConferenceQueryForm()
+                .filter(new Filter(Field.START_DATE, Operator.GTEQ, "2026-03-02"))
+                .filter(new Filter(Field.START_DATE, Operator.LTEQ, "2026-04-05"))
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .plan();
+        assertFalse(plan.isBucketScan());
+        assertTrue(plan.matches(startingOn(1, "In", "2026-04-05")));
+        assertFalse(plan.matches(startingOn(2, "Out", "2026-04-06")));
+    }
+
+    @Test
+    public void testPagesThroughMonthBuckets() throws Exception {
+        ofy().save().entities(
+                startingOn(1, "Before", "2026-01-31"),
+                startingOn(2, "Zebra", "2026-02-01"),
+                startingOn(3, "Alpha", "2026-02-20"),
+                startingOn(4, "March", "2026-03-15"),
+                startingOn(5, "Late", "2026-04-10"),
+                startingOn(6, "After", "2026-04-11")).now();
+        ofy().clear();
+
+        ConferenceQueryForm form = new ConferenceQueryForm()
+                .filter(new Filter(Field.START_DATE, Operator.GTEQ, "2026-02-01"))
+                .filter(new Filter(Field.START_DATE, Operator.LTEQ, "2026-04-10"));
+        ConferenceQueryPlan plan = form.plan();
+        assertEquals(Arrays.asList(202602, 202603, 202604), plan.getBuckets());
+
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            KeyPage page = ConferencePager.pageKeys(plan, 2, cursor);
+            for (Key<Conference> key : page.getKeys()) {
+                ids.add(key.getId());
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        // By month, then by name
+        assertEquals(Arrays.asList(3L, 2L, 4L, 5L), ids);
+    }
+}
@@ -0,0 +1,64 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for BatchLoader.
+ */
+public class BatchLoaderTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private Conference saveConference(long id, String name) {
+        Conference conference = new Conference(id, USER_ID,
+                new ConferenceForm(name, null, null, null, null, null, 10));
+        ofy().save().entity(conference).now();
+        return conference;
+    }
+
+    @Test
+    public void testLoadWebsafeKeepsOrderAndReportsMissing() throws Exception {
+        Conference first = saveConference(1L, "First");
+        Conference second = saveConference(2L, "Second");
+        String absent = Key.create(
+                Key.create(Profile.class, USER_ID), Conference.class, 3L).getString();
+
+        BatchLoader.Result<Conference> result = BatchLoader.loadWebsafe(Arrays.asList(
+                second.getWebsafeKey(), absent, "not-a-key", first.getWebsafeKey()));
+
+        List<Conference> found = result.getFound();
+        assertEquals(2, found.size());
+        assertEquals("Second", found.get(0).getName());
+        assertEquals("First", found.get(1).getName());
+        assertEquals(Arrays.asList(absent, "not-a-key"), result.getMissing());
+    }
+}
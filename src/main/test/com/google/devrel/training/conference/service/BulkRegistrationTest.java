@@ -0,0 +1,61 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+
+/**
+ * Tests for BulkRegistration.
+ */
+public class BulkRegistrationTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy(), new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ofy().save().entities(new Profile("1", "One", "one@gmail.com", TeeShirtSize.M),
+                new Profile("2", "Two", "two@gmail.com", TeeShirtSize.M)).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testConferenceDeletedBeforeTheBooking() throws Exception {
+        // Never saved, like a Conference deleted since the caller loaded it
+        Conference conference = new Conference(1L, "organizer", new ConferenceForm("Devoxx",
+                null, null, "Antwerp", null, null, 10));
+
+        List<RegistrationResult> results = BulkRegistration.register(conference,
+                Arrays.asList("1", "2", "3"));
+        assertEquals(3, results.size());
+        assertEquals(BulkRegistration.NO_CONFERENCE, results.get(0).getReason());
+        assertEquals(BulkRegistration.NO_CONFERENCE, results.get(1).getReason());
+        assertFalse(results.get(1).getResult());
+        assertEquals(BulkRegistration.NO_PROFILE, results.get(2).getReason());
+        assertFalse(ofy().load().type(Profile.class).id("1").now()
+                .isRegisteredFor(conference.getKey()));
+    }
+}
@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for ConferenceCache.
+ */
+public class ConferenceCacheTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
+
+    private Key<Conference> conferenceKey;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceKey = Key.create(Key.create(Profile.class, USER_ID), Conference.class, 1L);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        ConferenceCache.clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testReadThroughAndInvalidateOnCommit() throws Exception {
+        Conference conference = new Conference(1L, USER_ID,
+                new ConferenceForm("Name", null, null, null, null, null, 10));
+        ofy().save().entity(conference).now();
+
+        long misses = ConferenceCache.getMisses();
+        long l1Hits = ConferenceCache.getL1Hits();
+        Conference first = ConferenceCache.get(conferenceKey);
+        Conference second = ConferenceCache.get(conferenceKey);
+        assertEquals(misses + 1, ConferenceCache.getMisses());
+        assertEquals(l1Hits + 1, ConferenceCache.getL1Hits());
+        assertEquals(10, second.getSeatsAvailable());
+        // Every read gets its own copy.
+        assertNotSame(first, second);
+
+        second.bookSeats(1);
+        ofy().save().entity(second).now();
+        ConferenceChanges.committed(second);
+        assertEquals(9, ConferenceCache.get(conferenceKey).getSeatsAvailable());
+        assertEquals(misses + 2, ConferenceCache.getMisses());
+    }
+
+    @Test
+    public void testSharedTierAfterLocalClear() throws Exception {
+        ofy().save().entity(new Conference(1L, USER_ID,
+                new ConferenceForm("Name", null, null, null, null, null, 10))).now();
+        ConferenceCache.get(conferenceKey);
+        ConferenceCache.clear();
+
+        long l2Hits = ConferenceCache.getL2Hits();
+        assertEquals("Name", ConferenceCache.get(conferenceKey).getName());
+        assertEquals(l2Hits + 1, ConferenceCache.getL2Hits());
+    }
+
+    @Test
+    public void testMissingConference() throws Exception {
+        assertNull(ConferenceCache.get(conferenceKey));
+    }
+}
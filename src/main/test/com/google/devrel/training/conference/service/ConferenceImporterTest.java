@@ -0,0 +1,199 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.util.concurrent.Futures;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+
+/**
+ * Tests for ConferenceImporter and ConferenceRecordReader.
+ */
+public class ConferenceImporterTest {
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy(),
+            new LocalMemcacheServiceTestConfig());
+
+    /**
+     * The sizes of the batches of tasks added to the queue.
+     */
+    private final List<Integer> taskBatches = new ArrayList<>();
+
+    private ConferenceImporter importer;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ofy().save().entity(new Profile("organizer", "Stephan", "stephan@example.com",
+                TeeShirtSize.NOT_SPECIFIED)).now();
+        // Records the batch adds instead of queueing the tasks
+        Queue queue = (Queue) Proxy.newProxyInstance(Queue.class.getClassLoader(),
+                new Class<?>[] {Queue.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (!method.getName().equals("addAsync")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        List<?> tasks = (List<?>) args[0];
+                        taskBatches.add(tasks.size());
+                        return Futures.immediateFuture(
+                                Collections.<TaskHandle>nCopies(tasks.size(), null));
+                    }
+                });
+        importer = new ConferenceImporter(queue);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testImportCsv() throws Exception {
+        String csv = "organizerUserId,name,topics,city,startDate,maxAttendees,seatShards\n"
+                + "organizer,Devoxx,Java;Cloud,Antwerp,2014-11-10,3000,4\n"
+                + "\n"
+                + "organizer,\"JavaOne, \"\"SF\"\"\",,\"San\nFrancisco\",,100,\n"
+                + "organizer,Broken,,,2014-13-01,10,\n"
+                + "nobody,Orphan,,,,10,\n";
+        importAll(ConferenceRecordReader.csv(new StringReader(csv)));
+
+        assertEquals(2, importer.getImported());
+        assertEquals(2, importer.getRejected());
+        assertEquals(Arrays.asList("line 6: startDate must be a yyyy-MM-dd date",
+                "line 7: No Profile for organizer nobody"), importer.getErrors());
+
+        List<Conference> conferences = ofy().load().type(Conference.class).list();
+        assertEquals(2, conferences.size());
+        Conference devoxx = conferences.get(0).getName().equals("Devoxx")
+                ? conferences.get(0) : conferences.get(1);
+        Conference javaOne = devoxx == conferences.get(0) ? conferences.get(1) : conferences.get(0);
+        assertEquals(Arrays.asList("Java", "Cloud"), devoxx.getTopics());
+        assertEquals(11, devoxx.getMonth());
+        assertEquals("Stephan", devoxx.getOrganizerDisplayName());
+        assertEquals(4, ofy().load().type(SeatShard.class).count());
+        assertEquals("JavaOne, \"SF\"", javaOne.getName());
+        assertEquals("San\nFrancisco", javaOne.getCity());
+        assertEquals(Arrays.asList(2), taskBatches);
+    }
+
+    @Test
+    public void testImportNdjson() throws Exception {
+        String ndjson = "{\"organizerUserId\": \"organizer\", \"name\": \"Devoxx\","
+                + " \"topics\": [\"Java\", \"Cloud\"], \"maxAttendees\": 10,"
+                + " \"description\": \"caf\\u00e9\\n\", \"city\": null}\n"
+                + "{\"organizerUserId\": \"organizer\", \"name\": \"Broken\"\n"
+                + "{\"organizerUserId\": \"organizer\", \"name\": \"Typo\", \"maxAtendees\": 1}\n"
+                + "{\"organizerUserId\": \"organizer\", \"name\": \"Negative\", \"maxAttendees\": -1}\n";
+        importAll(ConferenceRecordReader.ndjson(new StringReader(ndjson)));
+
+        assertEquals(1, importer.getImported());
+        assertEquals(3, importer.getRejected());
+        assertTrue(importer.getErrors().get(0).startsWith("line 2: Unexpected end of line"));
+        assertEquals("line 3: Unknown field: maxAtendees", importer.getErrors().get(1));
+        assertEquals("line 4: maxAttendees must be 0 or more", importer.getErrors().get(2));
+
+        Conference conference = ofy().load().type(Conference.class).first().now();
+        assertEquals("caf\u00e9\n", conference.getDescription());
+        assertEquals(Arrays.asList("Java", "Cloud"), conference.getTopics());
+        assertEquals(10, conference.getSeatsAvailable());
+    }
+
+    @Test
+    public void testImportInSeveralBatches() throws Exception {
+        StringBuilder ndjson = new StringBuilder();
+        int records = Constants.CONFERENCE_IMPORT_BATCH_SIZE + 5;
+        for (int i = 0; i < records; i++) {
+            ndjson.append("{\"organizerUserId\": \"organizer\", \"name\": \"Conference ")
+                    .append(i).append("\", \"maxAttendees\": 10}\n");
+        }
+        importAll(ConferenceRecordReader.ndjson(new StringReader(ndjson.toString())));
+
+        assertEquals(records, importer.getImported());
+        assertEquals(records, ofy().load().type(Conference.class).count());
+        int tasks = 0;
+        for (int batch : taskBatches) {
+            assertTrue(batch <= Constants.MAX_QUEUE_ADD_TASKS);
+            tasks += batch;
+        }
+        assertEquals(records, tasks);
+    }
+
+    @Test
+    public void testSavedLineFollowsTheBatches() throws Exception {
+        assertEquals(0, importer.getSavedLine());
+        Map<String, Object> record = new HashMap<>();
+        record.put("organizerUserId", "organizer");
+        record.put("name", "Devoxx");
+        record.put("maxAttendees", "10");
+        for (int line = 1; line < Constants.CONFERENCE_IMPORT_BATCH_SIZE; line++) {
+            importer.add(line, record);
+        }
+        assertEquals(0, importer.getSavedLine());
+        // Fills the batch, which is saved
+        importer.add(Constants.CONFERENCE_IMPORT_BATCH_SIZE, record);
+        assertEquals(Constants.CONFERENCE_IMPORT_BATCH_SIZE, importer.getSavedLine());
+
+        importer.reject(Constants.CONFERENCE_IMPORT_BATCH_SIZE + 1, "Broken");
+        importer.finish();
+        assertEquals(Constants.CONFERENCE_IMPORT_BATCH_SIZE + 1, importer.getSavedLine());
+    }
+
+    @Test
+    public void testPartitionKeepsEachConferenceWithItsShards() throws Exception {
+        List<List<Object>> groups = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            groups.add(Arrays.<Object>asList("conference " + i, "shard 0", "shard 1"));
+        }
+        List<List<Object>> puts = ConferenceImporter.partition(groups, 7);
+        assertEquals(2, puts.size());
+        assertEquals(6, puts.get(0).size());
+        assertEquals("conference 2", puts.get(1).get(0));
+        assertEquals(6, puts.get(1).size());
+    }
+
+    private void importAll(ConferenceRecordReader reader) throws IOException {
+        while (true) {
+            Map<String, Object> record;
+            try {
+                record = reader.next();
+            } catch (IllegalArgumentException e) {
+                importer.reject(reader.getLine(), e.getMessage());
+                continue;
+            }
+            if (record == null) {
+                break;
+            }
+            importer.add(reader.getLine(), record);
+        }
+        importer.finish();
+    }
+}
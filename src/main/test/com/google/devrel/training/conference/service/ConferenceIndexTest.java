@@ -0,0 +1,121 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.service.ConferencePager.KeyPage;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for ConferenceIndex.
+ */
+public class ConferenceIndexTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private ConferenceIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        index = new ConferenceIndex(Arrays.asList(
+                conference(1, "Berlin", "London", 2, 50, "Web"),
+                conference(2, "Amsterdam", "London", 6, 50, "Web", "Cloud"),
+                conference(3, "Cairo", "Paris", 7, 500, "Cloud"),
+                conference(4, "Dublin", "Tokyo", 8, 200, "Web")));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    private static Conference conference(long id, String name, String city, int month,
+            int maxAttendees, String... topics) {
+        Calendar start = new GregorianCalendar(2026, month - 1, 10);
+        return new Conference(id, "organizer", new ConferenceForm(name, "",
+                Arrays.asList(topics), city, start.getTime(), start.getTime(), maxAttendees));
+    }
+
+    private static List<Long> ids(KeyPage page) {
+        List<Long> ids = new ArrayList<>();
+        for (Key<Conference> key : page.getKeys()) {
+            ids.add(key.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testOrderedByName() throws Exception {
+        assertEquals(Arrays.asList(2L, 1L, 3L, 4L), ids(index.search(new ConferenceQueryForm())));
+    }
+
+    @Test
+    public void testFilterCombination() throws Exception {
+        ConferenceQueryForm form = new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, Operator.EQ, "Web"))
+                .filter(new Filter(Field.MONTH, Operator.GT, "4"))
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.LTEQ, "200"));
+        assertEquals(Arrays.asList(2L, 4L), ids(index.search(form)));
+    }
+
+    @Test
+    public void testNotEqual() throws Exception {
+        ConferenceQueryForm form = new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, Operator.NE, "Cloud"))
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.NE, "200"));
+        assertEquals(Arrays.asList(1L), ids(index.search(form)));
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        KeyPage first = index.search(new ConferenceQueryForm().page(3, null));
+        assertEquals(Arrays.asList(2L, 1L, 3L), ids(first));
+        assertNotNull(first.getNextCursor());
+
+        KeyPage second = index.search(new ConferenceQueryForm().page(3, first.getNextCursor()));
+        assertEquals(Arrays.asList(4L), ids(second));
+        assertNull(second.getNextCursor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCursor() throws Exception {
+        index.search(new ConferenceQueryForm().page(3, "not a cursor!"));
+    }
+
+    @Test
+    public void testApplyMovesPostings() throws Exception {
+        index.apply(conference(3, "Cairo", "London", 7, 20, "Web"));
+        ConferenceQueryForm london = new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.LT, "50"));
+        assertEquals(Arrays.asList(3L), ids(index.search(london)));
+
+        ConferenceQueryForm paris = new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "Paris"));
+        assertTrue(index.search(paris).getKeys().isEmpty());
+        assertEquals(4, index.size());
+        assertTrue(index.getFootprintBytes() > 0);
+    }
+}
@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+
+/**
+ * Tests for ConferenceMigration.
+ */
+public class ConferenceMigrationTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy(),
+                    new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        // Saved before the time buckets
+        Conference conference = new Conference(1L, "organizer", new ConferenceForm("Devoxx",
+                null, null, "Antwerp", TimeBuckets.parseDay("2026-11-09"),
+                TimeBuckets.parseDay("2026-11-13"), 10));
+        Entity entity = ofy().save().toEntity(conference);
+        entity.removeProperty(Conference.START_WEEK);
+        entity.removeProperty(Conference.START_YEAR_MONTH);
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testOnlyTheMigrationInvalidatesDateRangeQueries() throws Exception {
+        ConferenceQueryForm november = new ConferenceQueryForm()
+                .filter(new Filter(Field.START_DATE, Operator.GTEQ, "2026-11-01"));
+        String cacheKey = QueryCache.cacheKey(november);
+
+        Conference loaded = ofy().load().type(Conference.class).first().now();
+        assertTrue(loaded.isTimeBucketsPending());
+        assertTrue(loaded.getChangedQueryFields().isEmpty());
+        ofy().clear();
+
+        ConferenceMigration.Batch batch = ConferenceMigration.migrateBatch(null);
+        assertEquals(1, batch.getMigrated());
+        assertNull(batch.getNextCursor());
+        assertFalse(cacheKey.equals(QueryCache.cacheKey(november)));
+        assertFalse(ofy().load().type(Conference.class).first().now().isTimeBucketsPending());
+    }
+}
@@ -0,0 +1,109 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.ConferencePager.KeyPage;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for ConferenceTextIndex.
+ */
+public class ConferenceTextIndexTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private ConferenceTextIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        index = new ConferenceTextIndex(Arrays.asList(
+                conference(1, "Devoxx", "The Java community conference, all about Java"),
+                conference(2, "JavaOne", "Sessions on the JVM"),
+                conference(3, "Cloud Summit", "Running Java in the cloud"),
+                conference(4, "JSConf", "JavaScript everywhere")));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    private static Conference conference(long id, String name, String description) {
+        return new Conference(id, "organizer", new ConferenceForm(name, description, null, null,
+                null, null, 10));
+    }
+
+    private static List<Long> ids(KeyPage page) {
+        List<Long> ids = new ArrayList<>();
+        for (Key<Conference> key : page.getKeys()) {
+            ids.add(key.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testTokenize() throws Exception {
+        assertEquals(Arrays.asList("cloud", "next", "16", "caf\u00e9"),
+                ConferenceTextIndex.tokenize("Cloud-Next '16: CAF\u00c9!"));
+    }
+
+    @Test
+    public void testMatchesAllWordsRankedByBm25() throws Exception {
+        // Devoxx mentions Java twice, Cloud Summit once in a longer text
+        assertEquals(Arrays.asList(1L, 3L), ids(index.search("java ", null, null)));
+        assertEquals(Arrays.asList(3L), ids(index.search("JAVA cloud ", null, null)));
+        assertTrue(index.search("java kotlin", null, null).getKeys().isEmpty());
+    }
+
+    @Test
+    public void testLastWordMatchesAsPrefix() throws Exception {
+        // A name word weighs most, so JavaOne comes first
+        assertEquals(Arrays.asList(2L, 1L, 4L, 3L), ids(index.search("java", null, null)));
+        assertEquals(Arrays.asList(3L), ids(index.search("java clo", null, null)));
+        assertTrue(index.search("clo java", null, null).getKeys().isEmpty());
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        KeyPage page = index.search("java", 3, null);
+        ids.addAll(ids(page));
+        assertNotNull(page.getNextCursor());
+        page = index.search("java", 3, page.getNextCursor());
+        ids.addAll(ids(page));
+        assertNull(page.getNextCursor());
+        assertEquals(Arrays.asList(2L, 1L, 4L, 3L), ids);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        Conference renamed = conference(4, "Node Summit", "Servers in JavaScript");
+        index.apply(renamed);
+        // The shorter text ranks first
+        assertEquals(Arrays.asList(4L, 3L), ids(index.search("summit", null, null)));
+        assertTrue(index.search("jsconf", null, null).getKeys().isEmpty());
+        assertEquals(4, index.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoWord() throws Exception {
+        index.search(" ?! ", null, null);
+    }
+}
@@ -0,0 +1,108 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceView;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+
+/**
+ * Tests for ConferenceViewCache.
+ */
+public class ConferenceViewCacheTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final List<String> TOPICS = Arrays.asList("Cloud", "Java");
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        ConferenceViewCache.clear();
+        helper.tearDown();
+    }
+
+    private static Conference conference(String name) {
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(name,
+                "Description", TOPICS, "London", new Date(1000), new Date(2000), 10));
+        conference.updateOrganizerDisplayName("Organizer");
+        return conference;
+    }
+
+    @Test
+    public void testViewReusedForSameVersion() throws Exception {
+        ConferenceView first = ConferenceViewCache.view(conference("Name"));
+        long hits = ConferenceViewCache.getHits();
+        // Another copy of the same version, e.g. loaded by the next request.
+        ConferenceView second = ConferenceViewCache.view(conference("Name"));
+        assertSame(first, second);
+        assertEquals(hits + 1, ConferenceViewCache.getHits());
+
+        assertEquals("Name", second.getName());
+        assertEquals(TOPICS, second.getTopics());
+        assertEquals(new Date(1000), second.getStartDate());
+        assertEquals("Organizer", second.getOrganizerDisplayName());
+        assertEquals(conference("Name").getWebsafeKey(), second.getWebsafeKey());
+    }
+
+    @Test
+    public void testSeatsChangeSharesTheRest() throws Exception {
+        ConferenceView first = ConferenceViewCache.view(conference("Name"));
+        Conference booked = conference("Name");
+        booked.bookSeats(1);
+        ConferenceView second = ConferenceViewCache.view(booked);
+        assertNotSame(first, second);
+        assertEquals(9, second.getSeatsAvailable());
+        assertSame(first.getTopics(), second.getTopics());
+        assertSame(first.getWebsafeKey(), second.getWebsafeKey());
+    }
+
+    @Test
+    public void testNewVersionRebuildsView() throws Exception {
+        ConferenceViewCache.view(conference("Name"));
+        long builds = ConferenceViewCache.getBuilds();
+        ConferenceView renamed = ConferenceViewCache.view(conference("Other name"));
+        assertEquals("Other name", renamed.getName());
+        assertEquals(builds + 1, ConferenceViewCache.getBuilds());
+        // The cache now holds the new version.
+        assertSame(renamed, ConferenceViewCache.view(conference("Other name")));
+    }
+
+    @Test
+    public void testViewsOfResolvesOrganizer() throws Exception {
+        ofy().save().entity(new Profile(USER_ID, "Organizer name", "organizer@example.com",
+                TeeShirtSize.NOT_SPECIFIED)).now();
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm("Name", null,
+                null, null, null, null, 10));
+        List<ConferenceView> views =
+                ConferenceViewCache.viewsOf(Collections.singletonList(conference));
+        assertEquals(1, views.size());
+        assertEquals("Organizer name", views.get(0).getOrganizerDisplayName());
+    }
+}
@@ -0,0 +1,131 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.ConfirmationEmailWorker.Delivery;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for ConfirmationEmailWorker.
+ */
+public class ConfirmationEmailWorkerTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private ConfirmationEmailWorker worker;
+
+    private String conferenceKey;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        Session session = Session.getInstance(new Properties());
+        LocalSmtpTransport.install(session);
+        worker = new ConfirmationEmailWorker(null, session);
+
+        Conference conference = new Conference(1, "organizer", new ConferenceForm("Devoxx",
+                "", Arrays.asList("Java", "Cloud"), "Antwerp", null, null, 10));
+        conference.updateOrganizerDisplayName("Stephan");
+        ofy().save().entity(conference).now();
+        conferenceKey = conference.getWebsafeKey();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    /*
+     * A leased task: the queue hands back the params encoded in the payload.
+     */
+    private static TaskHandle leasedTask(String name, String payload) {
+        return new TaskHandle(TaskOptions.Builder.withMethod(TaskOptions.Method.PULL)
+                .payload(payload).taskName(name), Constants.CONFIRMATION_EMAIL_QUEUE);
+    }
+
+    private TaskHandle task(String name, String email) throws Exception {
+        return leasedTask(name, "email=" + URLEncoder.encode(email, "UTF-8")
+                + "&conference=" + URLEncoder.encode(conferenceKey, "UTF-8"));
+    }
+
+    @Test
+    public void testBatchUsesOneConnection() throws Exception {
+        Delivery delivery = worker.deliver(Arrays.asList(
+                task("t1", "one@example.com"), task("t2", "two@example.com")), Long.MAX_VALUE);
+        assertEquals(2, delivery.getSent());
+        assertEquals(2, delivery.getDone().size());
+        assertEquals(1, LocalSmtpTransport.connections);
+        assertEquals(2, LocalSmtpTransport.SENT.size());
+        Message message = LocalSmtpTransport.SENT.get(0);
+        assertEquals("You created a new Conference: Devoxx", message.getSubject());
+        String body = (String) message.getContent();
+        assertTrue(body.startsWith("Hi Stephan,"));
+        assertTrue(body.contains("Topics: Java, Cloud\n"));
+        assertTrue(body.contains("Max attendees: 10\n"));
+    }
+
+    @Test
+    public void testLegacyTaskWithDescription() throws Exception {
+        Delivery delivery = worker.deliver(Collections.singletonList(
+                leasedTask("t1", "email=one%40example.com&info=Devoxx")), Long.MAX_VALUE);
+        assertEquals(1, delivery.getSent());
+        assertEquals("You created a new Conference!", LocalSmtpTransport.SENT.get(0).getSubject());
+    }
+
+    @Test
+    public void testFailuresAreRetriedIndividually() throws Exception {
+        LocalSmtpTransport.FAILING.add("two@example.com");
+        TaskHandle failing = task("t2", "two@example.com");
+        Delivery delivery = worker.deliver(Arrays.asList(
+                task("t1", "one@example.com"), failing, task("t3", "three@example.com")), Long.MAX_VALUE);
+        assertEquals(2, delivery.getSent());
+        assertEquals(Collections.singletonList(failing), delivery.getRetry());
+    }
+
+    @Test
+    public void testMalformedTaskIsDropped() throws Exception {
+        TaskHandle malformed = leasedTask("t1", "info=Conference");
+        TaskHandle deleted = leasedTask("t2", "email=one%40example.com&conference=" + Key.create(
+                Key.create(Profile.class, "organizer"), Conference.class, 2L).getString());
+        Delivery delivery = worker.deliver(Arrays.asList(malformed, deleted), Long.MAX_VALUE);
+        assertEquals(0, delivery.getSent());
+        assertEquals(Arrays.asList(malformed, deleted), delivery.getDone());
+        assertEquals(0, LocalSmtpTransport.connections);
+    }
+
+    @Test
+    public void testNothingIsSentOnceTheLeaseIsAboutToExpire() throws Exception {
+        TaskHandle first = task("t1", "one@example.com");
+        TaskHandle second = task("t2", "two@example.com");
+        Delivery delivery = worker.deliver(Arrays.asList(first, second),
+                System.currentTimeMillis() + Constants.CONFIRMATION_EMAIL_LEASE_MARGIN_MILLIS);
+        assertEquals(0, delivery.getSent());
+        assertEquals(Arrays.asList(first, second), delivery.getUnsent());
+        assertTrue(delivery.getDone().isEmpty());
+        assertEquals(0, LocalSmtpTransport.connections);
+    }
+}
@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+
+/**
+ * Tests for DatasetExporter and NdjsonWriter.
+ */
+public class DatasetExporterTest {
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy(),
+            new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testExportResumesFromCursor() throws Exception {
+        int count = Constants.EXPORT_BATCH_SIZE + 3;
+        List<Conference> conferences = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            conferences.add(new Conference(i, "organizer", new ConferenceForm("Conference " + i,
+                    null, null, null, null, null, 10)));
+        }
+        ofy().save().entities(conferences).now();
+
+        StringWriter out = new StringWriter();
+        NdjsonWriter writer = new NdjsonWriter(out);
+        String cursor = DatasetExporter.exportBatch(DatasetExporter.Kind.CONFERENCES, null,
+                writer);
+        assertNotNull(cursor);
+        assertNull(DatasetExporter.exportBatch(DatasetExporter.Kind.CONFERENCES, cursor,
+                writer));
+
+        Set<Object> ids = new HashSet<>();
+        ConferenceRecordReader reader = ConferenceRecordReader.ndjson(
+                new StringReader(out.toString()));
+        for (Map<String, Object> record = reader.next(); record != null; record = reader.next()) {
+            ids.add(record.get("id"));
+            assertEquals(10L, record.get("seatsAvailable"));
+        }
+        assertEquals(count, ids.size());
+    }
+
+    @Test
+    public void testExportProfilesAndRegistrations() throws Exception {
+        Profile profile = new Profile("1", "Tab\there \"quoted\"", "one@example.com",
+                TeeShirtSize.M);
+        Conference conference = new Conference(1, "organizer", new ConferenceForm("Devoxx",
+                null, Arrays.asList("Java"), null, null, null, 10));
+        profile.registerForConference(conference.getKey());
+        ofy().save().entities(profile, new Registration(profile, conference.getKey(),
+                new Date(0))).now();
+
+        StringWriter out = new StringWriter();
+        NdjsonWriter writer = new NdjsonWriter(out);
+        assertNull(DatasetExporter.exportBatch(DatasetExporter.Kind.PROFILES, null, writer));
+        assertNull(DatasetExporter.exportBatch(DatasetExporter.Kind.REGISTRATIONS, null,
+                writer));
+
+        assertEquals("{\"userId\":\"1\",\"displayName\":\"Tab\\there \\\"quoted\\\"\","
+                + "\"mainEmail\":\"one@example.com\",\"teeShirtSize\":\"M\","
+                + "\"conferenceKeysToAttend\":[\"" + conference.getWebsafeKey() + "\"]}\n"
+                + "{\"userId\":\"1\",\"conferenceKey\":\"" + conference.getWebsafeKey() + "\","
+                + "\"displayName\":\"Tab\\there \\\"quoted\\\"\","
+                + "\"registeredAt\":\"1970-01-01T00:00:00.000Z\"}\n", out.toString());
+    }
+}
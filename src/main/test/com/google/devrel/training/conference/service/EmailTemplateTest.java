@@ -0,0 +1,42 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for EmailTemplate.
+ */
+public class EmailTemplateTest {
+
+    @Test
+    public void testRender() throws Exception {
+        EmailTemplate template = new EmailTemplate("Hello ${name}\n${name} in ${city}${missing}.");
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "Devoxx");
+        values.put("city", "Antwerp");
+        assertEquals("Hello Devoxx", template.renderSubject(values));
+        assertEquals("Devoxx in Antwerp.", template.renderBody(values));
+    }
+
+    @Test
+    public void testUnclosedPlaceholderIsLiteral() throws Exception {
+        EmailTemplate template = new EmailTemplate("Subject\nCost: ${price");
+        assertEquals("Cost: ${price", template.renderBody(Collections.<String, Object>emptyMap()));
+    }
+
+    @Test
+    public void testTemplatesAreCached() throws Exception {
+        assertSame(EmailTemplate.get("confirmation"), EmailTemplate.get("confirmation"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingTemplate() throws Exception {
+        EmailTemplate.get("missing");
+    }
+}
@@ -0,0 +1,87 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+/**
+ * Tests for IndexHolder.
+ */
+public class IndexHolderTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    /**
+     * Indexes the names of the Conferences by id. Saves a new version of Conference 1 while
+     * it builds, like a request running at the same time.
+     */
+    private final IndexHolder<Map<Long, String>> holder = new IndexHolder<Map<Long, String>>() {
+        @Override
+        Map<Long, String> build(Iterable<Conference> conferences) {
+            Map<Long, String> index = new LinkedHashMap<>();
+            update(conference(1, "Renamed"));
+            for (Conference conference : conferences) {
+                apply(index, conference);
+            }
+            return index;
+        }
+
+        @Override
+        void apply(Map<Long, String> index, Conference conference) {
+            index.put(conference.getId(), conference.getName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ofy().save().entities(conference(1, "Devoxx"), conference(2, "JavaOne")).now();
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static Conference conference(long id, String name) {
+        return new Conference(id, "organizer", new ConferenceForm(name, null, null, null,
+                null, null, 10));
+    }
+
+    @Test
+    public void testReplaysTheUpdatesMadeDuringTheBuild() throws Exception {
+        Map<Long, String> index = holder.get();
+        // The snapshot read the old name, the update made during the build wins
+        assertEquals("Renamed", index.get(1L));
+        assertEquals("JavaOne", index.get(2L));
+        assertSame(index, holder.get());
+    }
+
+    @Test
+    public void testRefreshAppliesTheConferencesUpdatedElsewhere() throws Exception {
+        Map<Long, String> index = holder.build();
+        // Saved by another instance, without an update of this index
+        ofy().save().entity(conference(3, "Jfokus")).now();
+        ofy().clear();
+
+        holder.refresh(index);
+        assertEquals("Jfokus", index.get(3L));
+        assertEquals(3, index.size());
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        for (long value = 0; value < 100000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.highestValue(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.highestValue(bucket - 1));
+        }
+    }
+
+    @Test
+    public void testBucketPrecision() {
+        for (long value = 32; value < 1L << 40; value = value * 3 / 2) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.bucket(value));
+            assertTrue((highest - value) / (double) value < 1.0 / 32);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        assertWithin(500, snapshot.getPercentile(50));
+        assertWithin(990, snapshot.getPercentile(99));
+        assertWithin(999, snapshot.getPercentile(99.9));
+        assertEquals(1000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(99));
+        assertEquals(0, snapshot.getMean(), 0);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(String.format("%d not within 3%% of %d", actual, expected),
+                actual >= expected && actual <= expected * 1.03);
+    }
+}
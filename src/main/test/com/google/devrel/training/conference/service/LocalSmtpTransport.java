@@ -0,0 +1,59 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+
+/**
+ * Stand-in for the SMTP transport in tests: records the messages instead of sending them.
+ *
+ * Install it with {@link #install(Session)}.
+ */
+public class LocalSmtpTransport extends Transport {
+
+    static final List<Message> SENT = new ArrayList<>();
+
+    /**
+     * Sending to these addresses fails with a transient error.
+     */
+    static final Set<String> FAILING = new HashSet<>();
+
+    static int connections;
+
+    public LocalSmtpTransport(Session session, URLName urlName) {
+        super(session, urlName);
+    }
+
+    static void install(Session session) throws MessagingException {
+        SENT.clear();
+        FAILING.clear();
+        connections = 0;
+        session.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp",
+                LocalSmtpTransport.class.getName(), "test", "1.0"));
+    }
+
+    @Override
+    protected boolean protocolConnect(String host, int port, String user, String password) {
+        connections++;
+        return true;
+    }
+
+    @Override
+    public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        for (Address address : addresses) {
+            if (FAILING.contains(address.toString())) {
+                throw new MessagingException("Connection reset");
+            }
+        }
+        SENT.add(message);
+    }
+}
@@ -0,0 +1,71 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+
+/**
+ * Tests for ProfileCache.
+ */
+public class ProfileCacheTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ofy().save().entity(new Profile(USER_ID, "Name", "example@gmail.com", TeeShirtSize.M)).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RequestContext.end();
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testMemoizedForTheRequest() throws Exception {
+        RequestContext.begin();
+        Profile profile = ProfileCache.get(USER_ID);
+        assertSame(profile, ProfileCache.get(USER_ID));
+    }
+
+    @Test
+    public void testSharedAcrossRequests() throws Exception {
+        RequestContext.begin();
+        ProfileCache.get(USER_ID);
+        RequestContext.end();
+        // Served from memcache even though the datastore no longer has it.
+        ofy().delete().type(Profile.class).id(USER_ID).now();
+        RequestContext.begin();
+        assertEquals("Name", ProfileCache.get(USER_ID).getDisplayName());
+
+        ProfileCache.invalidate(USER_ID);
+        assertNull(ProfileCache.get(USER_ID));
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        Profile profile = ProfileCache.get(USER_ID);
+        profile.update("New Name", TeeShirtSize.L);
+        ofy().save().entity(profile).now();
+        ProfileCache.put(profile);
+        assertEquals("New Name", ProfileCache.get(USER_ID).getDisplayName());
+    }
+}
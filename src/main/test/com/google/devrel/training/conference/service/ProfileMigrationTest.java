@@ -0,0 +1,107 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for ProfileMigration.
+ */
+public class ProfileMigrationTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy(),
+                    new LocalMemcacheServiceTestConfig());
+
+    private DatastoreService datastore;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        datastore = DatastoreServiceFactory.getDatastoreService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static Key<Conference> conferenceKey(long id) {
+        return Key.create(Key.create(Profile.class, "organizer"), Conference.class, id);
+    }
+
+    @Test
+    public void testMigratesEveryLegacyProfile() throws Exception {
+        int legacyProfiles = Constants.PROFILE_MIGRATION_BATCH_SIZE + 5;
+        for (int i = 0; i < legacyProfiles; i++) {
+            Entity legacy = new Entity(KeyFactory.createKey("Profile", "user" + i));
+            legacy.setProperty("conferenceKeysToAttend",
+                    Arrays.asList(conferenceKey(1).getString(), conferenceKey(2).getString()));
+            datastore.put(legacy);
+        }
+        // Already in the compact format, scanned but left alone.
+        ofy().save().entity(new Profile("compact", "Name", "example@gmail.com",
+                TeeShirtSize.M)).now();
+
+        ProfileMigration.Batch first = ProfileMigration.migrateBatch(null);
+        assertEquals(Constants.PROFILE_MIGRATION_BATCH_SIZE, first.getScanned());
+        ProfileMigration.Batch second = ProfileMigration.migrateBatch(first.getNextCursor());
+        assertEquals(6, second.getScanned());
+        assertNull(second.getNextCursor());
+        assertEquals(legacyProfiles, first.getMigrated() + second.getMigrated());
+
+        Entity migrated = datastore.get(KeyFactory.createKey("Profile", "user0"));
+        assertFalse(migrated.hasProperty("conferenceKeysToAttend"));
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, "user0")).now();
+        assertFalse(profile.isMigrationPending());
+        assertTrue(profile.isRegisteredFor(conferenceKey(1)));
+        assertTrue(profile.isRegisteredFor(conferenceKey(2)));
+        // The roster entries of the old registrations were created too.
+        assertNotNull(ofy().load().key(Registration.key("user0", conferenceKey(2))).now());
+    }
+
+    @Test
+    public void testCreatesMissingRegistrations() throws Exception {
+        Profile profile = new Profile("compact", "Name", "example@gmail.com", TeeShirtSize.M);
+        profile.registerForConference(conferenceKey(1));
+        profile.registerForConference(conferenceKey(2));
+        ofy().save().entities(profile,
+                new Registration(profile, conferenceKey(1), new Date())).now();
+
+        ProfileMigration.Batch batch = ProfileMigration.migrateBatch(null);
+        assertEquals(1, batch.getMigrated());
+        Registration created = ofy().load().key(Registration.key("compact", conferenceKey(2)))
+                .now();
+        assertEquals("Name", created.getDisplayName());
+        assertNull(created.getRegisteredAt());
+
+        // Nothing left to do the second time.
+        assertEquals(0, ProfileMigration.migrateBatch(null).getMigrated());
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for ProjectionLoader.
+ */
+public class ProjectionLoaderTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ofy().save().entity(new Conference(1, "organizer", new ConferenceForm("Devoxx",
+                "A long description", Arrays.asList("Java"), "Antwerp", new Date(), new Date(),
+                10))).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testIsProjectable() throws Exception {
+        assertTrue(ProjectionLoader.isProjectable(Conference.class, Conference.NAME));
+        assertTrue(ProjectionLoader.isProjectable(Conference.class, Conference.SEATS_AVAILABLE));
+        // Multi valued, conditionally indexed, unindexed and unknown properties
+        assertFalse(ProjectionLoader.isProjectable(Conference.class, Conference.TOPICS));
+        assertFalse(ProjectionLoader.isProjectable(Conference.class, Conference.CITY));
+        assertFalse(ProjectionLoader.isProjectable(Conference.class, "description"));
+        assertFalse(ProjectionLoader.isProjectable(Conference.class, "unknown"));
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        List<Entity> entities = ProjectionLoader.list(new Query(Key.getKind(Conference.class)),
+                Conference.class, Conference.NAME, Conference.MAX_ATTENDEES);
+        assertEquals(1, entities.size());
+        assertEquals("Devoxx", entities.get(0).getProperty(Conference.NAME));
+        assertEquals(10L, entities.get(0).getProperty(Conference.MAX_ATTENDEES));
+        assertFalse(entities.get(0).hasProperty("description"));
+    }
+
+    @Test
+    public void testFallsBackToFullEntities() throws Exception {
+        List<Entity> entities = ProjectionLoader.list(new Query(Key.getKind(Conference.class)),
+                Conference.class, Conference.NAME, Conference.CITY);
+        assertEquals(1, entities.size());
+        assertEquals("Antwerp", entities.get(0).getProperty(Conference.CITY));
+        assertEquals("A long description", entities.get(0).getProperty("description"));
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.service.ConferencePager.KeyPage;
+import com.googlecode.objectify.Key;
+
+/**
+ * Tests for QueryCache.
+ */
+public class QueryCacheTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+                    new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        ConferenceCache.clear();
+        helper.tearDown();
+    }
+
+    private static ConferenceQueryForm londonInJune(String month) {
+        return new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .filter(new Filter(Field.MONTH, Operator.EQ, month));
+    }
+
+    @Test
+    public void testCanonicalKey() throws Exception {
+        ConferenceQueryForm reordered = new ConferenceQueryForm()
+                .filter(new Filter(Field.MONTH, Operator.EQ, "06"))
+                .filter(new Filter(Field.CITY, Operator.EQ, " London"));
+        assertEquals(QueryCache.cacheKey(londonInJune("6")), QueryCache.cacheKey(reordered));
+    }
+
+    @Test
+    public void testSavingAConferenceBumpsGenerations() throws Exception {
+        String cacheKey = QueryCache.cacheKey(londonInJune("6"));
+        QueryCache.put(cacheKey, new KeyPage(new ArrayList<Key<Conference>>(), null));
+        assertEquals(0, QueryCache.get(cacheKey).getKeys().size());
+
+        Conference conference = new Conference(1L, "123456789", new ConferenceForm(
+                "Name", null, Collections.<String>emptyList(), "London", null, null, 10));
+        ofy().save().entity(conference).now();
+        ConferenceChanges.committed(conference);
+        String newCacheKey = QueryCache.cacheKey(londonInJune("6"));
+        assertFalse(cacheKey.equals(newCacheKey));
+        assertNull(QueryCache.get(newCacheKey));
+    }
+}
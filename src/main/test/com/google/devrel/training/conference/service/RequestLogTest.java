@@ -0,0 +1,134 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for RequestLog.
+ */
+public class RequestLogTest {
+
+    private final Logger logger = Logger.getLogger(RequestLog.class.getName());
+
+    private final List<LogRecord> records = new ArrayList<>();
+
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    };
+
+    /**
+     * Counts how many times it is formatted.
+     */
+    private static class Formatted {
+        int count;
+
+        @Override
+        public String toString() {
+            count++;
+            return "formatted";
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        logger.addHandler(handler);
+        logger.setUseParentHandlers(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RequestContext.end();
+        logger.removeHandler(handler);
+        logger.setUseParentHandlers(true);
+    }
+
+    @Test
+    public void testSampledRequestWritesOneSummary() throws Exception {
+        RequestLog log = new RequestLog("queryConferences", true);
+        begin(log);
+        RequestLog.put("results", 12);
+        RequestLog.info("Plan: %s", "city == 'London'");
+        RequestLog.info("Second event");
+        log.finish(2500, new RequestMetrics());
+
+        assertEquals(1, records.size());
+        String message = records.get(0).getMessage();
+        assertEquals(Level.INFO, records.get(0).getLevel());
+        assertTrue(message, message.startsWith("queryConferences 2.5 ms results=12 "));
+        assertTrue(message, message.contains("\n  INFO Plan: city == 'London'"));
+        assertTrue(message, message.contains("\n  INFO Second event"));
+    }
+
+    @Test
+    public void testUnsampledRequestIsNotFormatted() throws Exception {
+        RequestLog log = new RequestLog("queryConferences", false);
+        begin(log);
+        Formatted formatted = new Formatted();
+        RequestLog.put("field", formatted);
+        RequestLog.info("%s", formatted);
+        log.finish(2500, new RequestMetrics());
+
+        assertEquals(0, records.size());
+        assertEquals(0, formatted.count);
+    }
+
+    @Test
+    public void testWarningsAndSlowRequestsAreAlwaysWritten() throws Exception {
+        RequestLog log = new RequestLog("getConferencesToAttend", false);
+        begin(log);
+        Exception e = new IllegalStateException();
+        RequestLog.warning(e, "Conferences not found: %s", "[key]");
+        log.finish(2500, new RequestMetrics());
+        assertEquals(1, records.size());
+        assertEquals(Level.WARNING, records.get(0).getLevel());
+        assertSame(e, records.get(0).getThrown());
+
+        log = new RequestLog("getConference", false);
+        begin(log);
+        log.finish(5 * 1000 * 1000, new RequestMetrics());
+        assertEquals(2, records.size());
+    }
+
+    @Test
+    public void testLogsRightAwayOutsideOfARequest() throws Exception {
+        RequestLog.info("No request: %d", 1);
+        assertEquals(1, records.size());
+        assertEquals("No request: 1", records.get(0).getMessage());
+    }
+
+    @Test
+    public void testSampleRateProperties() throws Exception {
+        System.setProperty("conference.log.sampleRate.sampleRateTest", "0");
+        try {
+            assertEquals(0, RequestLog.sampleRate("sampleRateTest"), 0);
+            assertEquals(1, RequestLog.sampleRate("sampleRateTestWithoutProperty"), 0);
+        } finally {
+            System.clearProperty("conference.log.sampleRate.sampleRateTest");
+        }
+    }
+
+    private static void begin(RequestLog log) {
+        RequestContext.begin().setLog(log);
+    }
+}
@@ -0,0 +1,106 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+
+/**
+ * Tests for RpcMetricsDelegate.
+ */
+public class RpcMetricsDelegateTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy(),
+                    new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        RpcMetricsDelegate.install();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RequestContext.end();
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testCountsDatastoreCalls() throws Exception {
+        RequestMetrics metrics = RequestContext.begin().getMetrics();
+        ofy().save().entity(new Profile("1", "Name", "example@gmail.com", TeeShirtSize.M)).now();
+        ofy().clear();
+        ofy().load().type(Profile.class).id("1").now();
+        assertEquals(1, ofy().load().type(Profile.class).list().size());
+
+        assertEquals(1, metrics.getDatastorePuts());
+        assertEquals(1, metrics.getDatastoreGets());
+        assertEquals(1, metrics.getDatastoreQueries());
+        assertEquals(0, metrics.getTransactionRetries());
+    }
+
+    @Test
+    public void testCountsMemcacheHitsAndMisses() throws Exception {
+        RequestMetrics metrics = RequestContext.begin().getMetrics();
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        memcacheService.put("a", "value");
+        memcacheService.getAll(Arrays.<Object>asList("a", "b", "c"));
+        memcacheService.get("a");
+
+        assertEquals(2, metrics.getMemcacheHits());
+        assertEquals(2, metrics.getMemcacheMisses());
+    }
+
+    @Test
+    public void testCountsContendedCommits() throws Exception {
+        RequestMetrics metrics = RequestContext.begin().getMetrics();
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Key key = KeyFactory.createKey("Counter", 1);
+        datastore.put(new Entity(key));
+
+        Transaction first = datastore.beginTransaction();
+        Entity entity = datastore.get(first, key);
+        Transaction second = datastore.beginTransaction();
+        datastore.put(second, datastore.get(second, key));
+        second.commit();
+        datastore.put(first, entity);
+        try {
+            first.commit();
+            fail();
+        } catch (ConcurrentModificationException e) {
+            // The commit Objectify would retry
+        }
+        assertEquals(1, metrics.getTransactionRetries());
+    }
+
+    @Test
+    public void testNotCountedOutsideOfARequest() throws Exception {
+        assertNull(RequestMetrics.current());
+        MemcacheServiceFactory.getMemcacheService().get("a");
+        RequestMetrics metrics = RequestContext.begin().getMetrics();
+        assertEquals(0, metrics.getMemcacheMisses());
+    }
+}
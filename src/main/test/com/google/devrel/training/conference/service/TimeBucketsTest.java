@@ -0,0 +1,39 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for TimeBuckets.
+ */
+public class TimeBucketsTest {
+
+    @Test
+    public void testBucketsUseIsoWeeksInUtc() throws Exception {
+        // 2027-01-01 is a Friday, in the last ISO week of 2026
+        assertEquals(202653, TimeBuckets.weekBucket(TimeBuckets.parseDay("2027-01-01")));
+        assertEquals(202701, TimeBuckets.weekBucket(TimeBuckets.parseDay("2027-01-04")));
+        assertEquals(202701, TimeBuckets.monthBucket(TimeBuckets.parseDay("2027-01-01")));
+        assertEquals(0, TimeBuckets.weekBucket(null));
+    }
+
+    @Test
+    public void testBucketsOfRange() throws Exception {
+        assertEquals(Arrays.asList(202652, 202653, 202701), TimeBuckets.buckets(
+                TimeBuckets.parseDay("2026-12-27"), TimeBuckets.parseDay("2027-01-04"),
+                TimeBuckets.Granularity.WEEK, 10));
+        assertEquals(Arrays.asList(202611, 202612), TimeBuckets.buckets(
+                TimeBuckets.parseDay("2026-11-30"), TimeBuckets.parseDay("2027-03-01"),
+                TimeBuckets.Granularity.MONTH, 2));
+        assertEquals(TimeBuckets.Granularity.MONTH, TimeBuckets.granularity(
+                TimeBuckets.parseDay("2026-01-01"), TimeBuckets.parseDay("2026-06-30")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidDay() throws Exception {
+        TimeBuckets.parseDay("2026-02-30");
+    }
+}
@@ -0,0 +1,242 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.SeatAllocator;
+import com.google.devrel.training.conference.spi.LoadHarness.Report;
+
+/**
+ * Load tests of the ConferenceApi endpoints on the local service stubs.
+ *
+ * They only run with -Dloadtest=true, and print a report of each mix. The number of threads,
+ * the duration of each mix and the seat shards of the registration storm can be set with
+ * -Dloadtest.threads, -Dloadtest.millis and -Dloadtest.seatShards, to compare the contention
+ * of registerForConference and unregisterFromConference before and after a change.
+ */
+public class ConferenceApiLoadTest {
+
+    private static final int THREADS = Integer.getInteger("loadtest.threads", 16);
+
+    private static final long MILLIS = Long.getLong("loadtest.millis", 10000);
+
+    private static final int SEAT_SHARDS = Integer.getInteger("loadtest.seatShards", 0);
+
+    private static final int USERS = 200;
+
+    private static final int CONFERENCES = 50;
+
+    private static final List<String> CITIES = Arrays.asList("London", "Paris", "Madrid",
+            "San Francisco", "Tokyo");
+
+    private static final List<String> TOPICS = Arrays.asList("Cloud", "Java", "Web", "Mobile",
+            "Big Data", "Programming Languages");
+
+    private final LoadHarness.Helper helper = new LoadHarness.Helper(
+            new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy(),
+            new LocalMemcacheServiceTestConfig());
+
+    private ConferenceApi conferenceApi;
+
+    private List<User> users;
+
+    private List<String> conferenceKeys;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("loadtest"));
+        helper.setUp();
+        // Per-request logging would dominate the latencies
+        Logger.getLogger("com.google.devrel.training.conference").setLevel(Level.WARNING);
+        // Every retry is logged by Objectify, they are counted in the report instead
+        Logger.getLogger("com.googlecode.objectify").setLevel(Level.SEVERE);
+        conferenceApi = new ConferenceApi();
+
+        users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            User user = new User("user" + i + "@gmail.com", "gmail.com", "user" + i);
+            conferenceApi.saveProfile(user, new ProfileForm("user" + i, TeeShirtSize.M));
+            users.add(user);
+        }
+        conferenceKeys = new ArrayList<>();
+        Random random = new Random(0);
+        Calendar calendar = Calendar.getInstance();
+        for (int i = 0; i < CONFERENCES; i++) {
+            calendar.set(2016, random.nextInt(12), 1 + random.nextInt(28));
+            Date startDate = calendar.getTime();
+            calendar.add(Calendar.DAY_OF_MONTH, 2);
+            ConferenceForm form = new ConferenceForm("Conference " + i, "Load test",
+                    Arrays.asList(TOPICS.get(i % TOPICS.size()),
+                            TOPICS.get((i + 1) % TOPICS.size())),
+                    CITIES.get(i % CITIES.size()), startDate, calendar.getTime(),
+                    // Enough seats for every user of the storm
+                    i == 0 ? USERS * 2 : 100 + random.nextInt(900), i == 0 ? SEAT_SHARDS : 0);
+            // Saved directly, createConference needs the confirmation email queue
+            Conference conference = new Conference(i + 1, users.get(i % USERS).getUserId(), form);
+            ofy().save().entity(conference).now();
+            if (conference.isSeatsSharded()) {
+                ofy().save().entities(SeatAllocator.createShards(conference)).now();
+            }
+            conferenceKeys.add(conference.getWebsafeKey());
+        }
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (Boolean.getBoolean("loadtest")) {
+            ofy().clear();
+            ConferenceCache.clear();
+            helper.tearDown();
+        }
+    }
+
+    /**
+     * All the users register and unregister for the same Conference.
+     */
+    @Test
+    public void testRegistrationStorm() throws Exception {
+        final String websafeConferenceKey = conferenceKeys.get(0);
+        Report report = new LoadHarness(helper, THREADS, MILLIS)
+                .add("registerForConference", 1, new LoadHarness.Operation() {
+                    @Override
+                    public void run(Random random) throws Exception {
+                        try {
+                            conferenceApi.registerForConference_SKELETON(randomUser(random),
+                                    websafeConferenceKey);
+                        } catch (ConflictException e) {
+                            // Already registered, which is still a full transaction
+                        }
+                    }
+                })
+                .add("unregisterFromConference", 1, new LoadHarness.Operation() {
+                    @Override
+                    public void run(Random random) throws Exception {
+                        try {
+                            conferenceApi.unregisterFromConference(randomUser(random),
+                                    websafeConferenceKey);
+                        } catch (ForbiddenException e) {
+                            // Not registered
+                        }
+                    }
+                })
+                .run();
+        print("Registration storm, seat shards: " + SEAT_SHARDS, report);
+        // Failures are part of the measure here: under this much contention the local
+        // datastore closes some transactions instead of failing their commit
+        assertTrue(report.get("registerForConference").getCalls() > 0);
+        assertTrue(report.get("unregisterFromConference").getCalls() > 0);
+    }
+
+    /**
+     * Browsing and querying Conferences, with a few registrations on the side.
+     */
+    @Test
+    public void testBrowseAndQuery() throws Exception {
+        Report report = new LoadHarness(helper, THREADS, MILLIS)
+                .add("getConference", 4, new LoadHarness.Operation() {
+                    @Override
+                    public void run(Random random) throws Exception {
+                        conferenceApi.getConference(randomConference(random));
+                    }
+                })
+                .add("queryConferences", 4, new LoadHarness.Operation() {
+                    @Override
+                    public void run(Random random) throws Exception {
+                        ConferenceQueryForm form = new ConferenceQueryForm()
+                                .filter(new Filter(Field.CITY, Operator.EQ,
+                                        CITIES.get(random.nextInt(CITIES.size()))))
+                                .filter(new Filter(Field.MONTH, Operator.GT,
+                                        String.valueOf(1 + random.nextInt(11))));
+                        conferenceApi.queryConferenceByFilters(randomUser(random), form);
+                    }
+                })
+                .add("getConferencesToAttend", 1, new LoadHarness.Operation() {
+                    @Override
+                    public void run(Random random) throws Exception {
+                        conferenceApi.getConferencesToAttend(randomUser(random));
+                    }
+                })
+                .add("registerForConference", 1, new LoadHarness.Operation() {
+                    @Override
+                    public void run(Random random) throws Exception {
+                        try {
+                            conferenceApi.registerForConference_SKELETON(randomUser(random),
+                                    randomConference(random));
+                        } catch (ConflictException e) {
+                            // Already registered
+                        }
+                    }
+                })
+                .run();
+        print("Browse and query", report);
+        assertEquals(0, report.get("queryConferences").getFailures());
+    }
+
+    /**
+     * Users saving their profiles, each on its own entity group.
+     */
+    @Test
+    public void testProfileSaves() throws Exception {
+        final TeeShirtSize[] sizes = TeeShirtSize.values();
+        Report report = new LoadHarness(helper, THREADS, MILLIS)
+                .add("saveProfile", 3, new LoadHarness.Operation() {
+                    @Override
+                    public void run(Random random) throws Exception {
+                        User user = randomUser(random);
+                        conferenceApi.saveProfile(user, new ProfileForm(user.getNickname(),
+                                sizes[random.nextInt(sizes.length)]));
+                    }
+                })
+                .add("getProfile", 1, new LoadHarness.Operation() {
+                    @Override
+                    public void run(Random random) throws Exception {
+                        conferenceApi.getProfile(randomUser(random));
+                    }
+                })
+                .run();
+        print("Profile saves", report);
+        assertEquals(0, report.get("saveProfile").getFailures());
+    }
+
+    private User randomUser(Random random) {
+        return users.get(random.nextInt(users.size()));
+    }
+
+    private String randomConference(Random random) {
+        return conferenceKeys.get(random.nextInt(conferenceKeys.size()));
+    }
+
+    private static void print(String title, Report report) {
+        System.out.printf("%s, %d threads, %d ms%n%s%n", title, THREADS, MILLIS, report);
+    }
+}
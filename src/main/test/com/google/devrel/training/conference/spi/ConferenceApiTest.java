@@ -2,21 +2,46 @@ package com.google.devrel.training.conference.spi;
 
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
-// import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencePage;
+import com.google.devrel.training.conference.domain.ConferenceView;
 import com.google.devrel.training.conference.domain.Profile;
-// import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.google.devrel.training.conference.domain.RosterPage;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.BulkRegistrationForm;
+import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.ConferenceChanges;
+import com.google.devrel.training.conference.service.ConferenceTextIndex;
+import com.google.devrel.training.conference.service.SeatAllocator;
+import com.google.devrel.training.conference.service.TimeBuckets;
 import com.googlecode.objectify.Key;
 
 /**
@@ -47,7 +72,8 @@ public class ConferenceApiTest {
     private ConferenceApi conferenceApi;
 
     private final LocalServiceTestHelper helper =
-            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
 
     @Before
     public void setUp() throws Exception {
@@ -59,6 +85,8 @@ public class ConferenceApiTest {
     @After
     public void tearDown() throws Exception {
         ofy().clear();
+        ConferenceCache.clear();
+        ConferenceTextIndex.clear();
         helper.tearDown();
     }
 
@@ -162,6 +190,357 @@ public class ConferenceApiTest {
         assertEquals(DISPLAY_NAME, profile.getDisplayName());
     }
 
+    @Test
+    public void testSaveProfileKeepsRegistrationsMissingFromTheCache() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        // Another request registers, the cached Profile doesn't have the registration yet
+        Key<Conference> conferenceKey = Key.create(Key.create(Profile.class, USER_ID),
+                Conference.class, 1L);
+        ofy().clear();
+        Profile registered = ofy().load().key(Key.create(Profile.class, USER_ID)).now();
+        registered.registerForConference(conferenceKey);
+        ofy().save().entity(registered).now();
+        ofy().clear();
+
+        conferenceApi.saveProfile(user, new ProfileForm("New Name", TEE_SHIRT_SIZE));
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, USER_ID)).now();
+        assertEquals("New Name", profile.getDisplayName());
+        assertTrue(profile.isRegisteredFor(conferenceKey));
+    }
+
+    @Test
+    public void testSaveProfileRefreshesOrganizerDisplayName() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conference.updateOrganizerDisplayName(DISPLAY_NAME);
+        ofy().save().entity(conference).now();
+        // Renaming the organizer rewrites the denormalized name on the Conference.
+        String newDisplayName = "New Name";
+        conferenceApi.saveProfile(user, new ProfileForm(newDisplayName, TEE_SHIRT_SIZE));
+        ofy().clear();
+        conference = ofy().load().key(Key.<Conference>create(conference.getWebsafeKey())).now();
+        assertTrue(conference.hasOrganizerDisplayName());
+        assertEquals(newDisplayName, conference.getOrganizerDisplayName());
+    }
+
+    @Test
+    public void testSaveProfileRefreshesDisplayNameInBatches() throws Exception {
+        Profile profile = conferenceApi.saveProfile(user,
+                new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        // More of each than a single put takes
+        for (long id = 1; id <= 501; id++) {
+            Conference conference = new Conference(id, USER_ID, new ConferenceForm(
+                    NAME, DESCRIPTION, null, CITY, null, null, CAP));
+            conference.updateOrganizerDisplayName(DISPLAY_NAME);
+            ofy().save().entities(conference,
+                    new Registration(profile, conference.getKey(), null)).now();
+        }
+
+        conferenceApi.saveProfile(user, new ProfileForm("New Name", TEE_SHIRT_SIZE));
+        ofy().clear();
+        Key<Profile> profileKey = Key.create(Profile.class, USER_ID);
+        for (Conference conference : ofy().load().type(Conference.class).ancestor(profileKey)) {
+            assertEquals("New Name", conference.getOrganizerDisplayName());
+        }
+        List<Registration> registrations = ofy().load().type(Registration.class)
+                .ancestor(profileKey).list();
+        assertEquals(501, registrations.size());
+        for (Registration registration : registrations) {
+            assertEquals("New Name", registration.getDisplayName());
+        }
+    }
+
+    @Test
+    public void testGetConferencesCreatedPages() throws Exception {
+        for (long id = 1; id <= 3; id++) {
+            ofy().save().entity(new Conference(id, USER_ID, new ConferenceForm(
+                    NAME + id, DESCRIPTION, null, CITY, null, null, CAP))).now();
+        }
+        ConferencePage page = conferenceApi.getConferenceCreated(user, 2, null);
+        assertEquals(2, page.getItems().size());
+        assertEquals(NAME + 1, page.getItems().get(0).getName());
+        assertNotNull(page.getNextCursor());
+
+        page = conferenceApi.getConferenceCreated(user, 2, page.getNextCursor());
+        assertEquals(1, page.getItems().size());
+        assertEquals(NAME + 3, page.getItems().get(0).getName());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void testUpcomingConferences() throws Exception {
+        Date today = TimeBuckets.today();
+        int[] startDays = {3, 1, 20, -1};
+        for (int i = 0; i < startDays.length; i++) {
+            Date start = TimeBuckets.addDays(today, startDays[i]);
+            ofy().save().entity(new Conference(i + 1, USER_ID, new ConferenceForm(
+                    NAME + i, DESCRIPTION, null, CITY, start, start, CAP))).now();
+        }
+        ofy().save().entity(new Conference(5L, USER_ID, new ConferenceForm(
+                NAME + 4, DESCRIPTION, null, CITY, null, null, CAP))).now();
+        // Apply the writes to the indexes, the Conferences are all in one entity group
+        ofy().clear();
+        ofy().load().key(Key.create(Key.create(Profile.class, USER_ID), Conference.class, 1L)).now();
+
+        List<String> names = new ArrayList<>();
+        for (ConferenceView view : conferenceApi.upcomingConferences(null, null, null).getItems()) {
+            names.add(view.getName());
+        }
+        assertTrue(names.containsAll(Arrays.asList(NAME + 0, NAME + 1)));
+        assertEquals(2, names.size());
+        assertEquals(3, conferenceApi.upcomingConferences(30, null, null).getItems().size());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testUpcomingConferencesDaysOutOfRange() throws Exception {
+        conferenceApi.upcomingConferences(0, null, null);
+    }
+
+    @Test
+    public void testSearchConferences() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        ofy().save().entity(new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP))).now();
+        // Apply the write to the indexes before the search index is built from a query
+        ofy().clear();
+        ofy().load().key(Key.create(Key.create(Profile.class, USER_ID), Conference.class, 1L)).now();
+        assertEquals(NAME, conferenceApi.searchConferences("cloud plat", null, null)
+                .getItems().get(0).getName());
+
+        // Conferences created later are indexed right away
+        Conference created = new Conference(2L, USER_ID, new ConferenceForm(
+                "Devoxx", "The Java community conference", null, CITY, null, null, CAP));
+        ofy().save().entity(created).now();
+        ConferenceChanges.committed(created);
+        ConferencePage page = conferenceApi.searchConferences("java", null, null);
+        assertEquals(1, page.getItems().size());
+        assertEquals(created.getWebsafeKey(), page.getItems().get(0).getWebsafeKey());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testSearchConferencesWithoutWords() throws Exception {
+        conferenceApi.searchConferences("  ", null, null);
+    }
+
+    @Test
+    public void testShardedRegistrations() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 10, 3));
+        ofy().save().entity(conference).now();
+        ofy().save().entities(SeatAllocator.createShards(conference)).now();
+        String websafeKey = conference.getWebsafeKey();
+        assertEquals(10, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+
+        assertTrue(conferenceApi.registerForConference_SKELETON(user, websafeKey).getResult());
+        assertEquals(9, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+        // The Conference entity itself is not written by a sharded registration.
+        ofy().clear();
+        assertEquals(10, ofy().load().key(Key.<Conference>create(websafeKey)).now().getSeatsAvailable());
+
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeKey).getResult());
+        assertEquals(10, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+    }
+
+    @Test
+    public void testUnregisterWithoutSeatToGiveBackWritesNothing() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 10, 3));
+        ofy().save().entity(conference).now();
+        String websafeKey = conference.getWebsafeKey();
+        ofy().save().entities(SeatAllocator.createShards(conference)).now();
+        assertTrue(conferenceApi.registerForConference_SKELETON(user, websafeKey).getResult());
+        // Every shard full again, there is no seat to give back
+        ofy().save().entities(SeatAllocator.createShards(conference)).now();
+
+        try {
+            conferenceApi.unregisterFromConference(user, websafeKey);
+            fail("unregisterFromConference should refuse without a seat to give back.");
+        } catch (ForbiddenException expected) {
+            // The transaction committed nothing
+        }
+        ofy().clear();
+        assertNotNull(ofy().load().key(Registration.key(USER_ID, conference.getKey())).now());
+        assertTrue(conferenceApi.getProfile(user).isRegisteredFor(conference.getKey()));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testUpdateConferenceDeletedSinceCached() throws Exception {
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 10));
+        ofy().save().entity(conference).now();
+        String websafeKey = conference.getWebsafeKey();
+        conferenceApi.getConference(websafeKey);
+        // Deleted behind the ConferenceCache
+        ofy().delete().entity(conference).now();
+        conferenceApi.updateConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 20), websafeKey);
+    }
+
+    @Test
+    public void testUpdateShardedConference() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 10, 3));
+        ofy().save().entity(conference).now();
+        ofy().save().entities(SeatAllocator.createShards(conference)).now();
+        String websafeKey = conference.getWebsafeKey();
+        assertTrue(conferenceApi.registerForConference_SKELETON(user, websafeKey).getResult());
+
+        // The seat allocated is counted from the shards, not from the stale Conference entity
+        ConferenceView updated = conferenceApi.updateConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 4), websafeKey);
+        assertEquals(4, updated.getMaxAttendees());
+        assertEquals(3, updated.getSeatsAvailable());
+        int capacity = 0;
+        for (SeatShard shard : ofy().load().type(SeatShard.class)) {
+            capacity += shard.getCapacity();
+        }
+        assertEquals(4, capacity);
+        assertEquals(3, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+
+        try {
+            conferenceApi.updateConference(user, new ConferenceForm(
+                    NAME, DESCRIPTION, null, CITY, null, null, 0), websafeKey);
+            fail("The seat allocated can't be dropped");
+        } catch (BadRequestException e) {
+            assertEquals(4, conferenceApi.getConference(websafeKey).getMaxAttendees());
+        }
+    }
+
+    @Test
+    public void testGroupRegistration() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        for (String userId : Arrays.asList("1", "2", "3")) {
+            conferenceApi.saveProfile(new User(userId + "@gmail.com", "gmail.com", userId),
+                    new ProfileForm(userId, TEE_SHIRT_SIZE));
+        }
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 3));
+        ofy().save().entity(conference).now();
+        String websafeKey = conference.getWebsafeKey();
+        assertTrue(conferenceApi.registerForConference_SKELETON(user, websafeKey).getResult());
+
+        List<RegistrationResult> results = conferenceApi.registerGroupForConference(user,
+                websafeKey, new BulkRegistrationForm(
+                        Arrays.asList(USER_ID, "1", "missing", "2", "1", "3")));
+        assertEquals(5, results.size());
+        assertEquals("Already registered", results.get(0).getReason());
+        assertTrue(results.get(1).getResult());
+        assertEquals("Profile doesn't exist", results.get(2).getReason());
+        assertTrue(results.get(3).getResult());
+        assertEquals("3", results.get(4).getUserId());
+        assertFalse(results.get(4).getResult());
+        assertEquals("No seats available", results.get(4).getReason());
+
+        assertEquals(0, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+        assertEquals(3, (int) conferenceApi.getRegistrationCount(websafeKey).getResult());
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, "2")).now();
+        assertTrue(profile.isRegisteredFor(conference.getKey()));
+        assertEquals("2", ofy().load().key(Registration.key("2", conference.getKey())).now()
+                .getDisplayName());
+    }
+
+    @Test
+    public void testShardedGroupRegistration() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        conferenceApi.saveProfile(new User("1@gmail.com", "gmail.com", "1"),
+                new ProfileForm("1", TEE_SHIRT_SIZE));
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 10, 3));
+        ofy().save().entity(conference).now();
+        ofy().save().entities(SeatAllocator.createShards(conference)).now();
+        String websafeKey = conference.getWebsafeKey();
+        assertEquals(10, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+
+        List<RegistrationResult> results = conferenceApi.registerGroupForConference(user,
+                websafeKey, new BulkRegistrationForm(Arrays.asList(USER_ID, "1")));
+        assertTrue(results.get(0).getResult());
+        assertTrue(results.get(1).getResult());
+        assertEquals(8, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testGroupRegistrationForOrganizerOnly() throws Exception {
+        Conference conference = new Conference(1L, "organizer", new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 10));
+        ofy().save().entity(conference).now();
+        conferenceApi.registerGroupForConference(user, conference.getWebsafeKey(),
+                new BulkRegistrationForm(Arrays.asList(USER_ID)));
+    }
+
+    @Test
+    public void testAnnouncementFollowsRegistrations() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 5));
+        ofy().save().entity(conference).now();
+        String websafeKey = conference.getWebsafeKey();
+        assertNull(conferenceApi.getAnnouncement());
+
+        // 5 seats left is not nearly sold out yet, 4 is.
+        assertTrue(conferenceApi.registerForConference_SKELETON(user, websafeKey).getResult());
+        assertTrue(conferenceApi.getAnnouncement().getMessage().endsWith(NAME));
+
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeKey).getResult());
+        assertNull(conferenceApi.getAnnouncement());
+    }
+
+    @Test
+    public void testAnnouncementCountsTheShardsWhenNoSumIsCached() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 5, 2));
+        ofy().save().entity(conference).now();
+        ofy().save().entities(SeatAllocator.createShards(conference)).now();
+        String websafeKey = conference.getWebsafeKey();
+
+        // Nothing has cached the sum of the shards yet
+        assertTrue(conferenceApi.registerForConference_SKELETON(user, websafeKey).getResult());
+        assertTrue(conferenceApi.getAnnouncement().getMessage().endsWith(NAME));
+    }
+
+    @Test
+    public void testRosterAndRegistrationCount() throws Exception {
+        User attendee = new User("attendee@gmail.com", "gmail.com", "987654321");
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        conferenceApi.saveProfile(attendee, new ProfileForm("attendee", TEE_SHIRT_SIZE));
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 10));
+        ofy().save().entity(conference).now();
+        String websafeKey = conference.getWebsafeKey();
+        assertTrue(conferenceApi.registerForConference_SKELETON(user, websafeKey).getResult());
+        assertTrue(conferenceApi.registerForConference_SKELETON(attendee, websafeKey).getResult());
+        assertEquals(2, (int) conferenceApi.getRegistrationCount(websafeKey).getResult());
+
+        // The roster query is eventually consistent, apply the registrations first.
+        ofy().clear();
+        ofy().load().key(Registration.key(USER_ID, conference.getKey())).now();
+        ofy().load().key(Registration.key("987654321", conference.getKey())).now();
+        RosterPage page = conferenceApi.getConferenceRoster(user, websafeKey, 1, null);
+        assertEquals(1, page.getItems().size());
+        assertEquals(USER_ID, page.getItems().get(0).getUserId());
+        assertEquals(DISPLAY_NAME, page.getItems().get(0).getDisplayName());
+        assertNotNull(page.getItems().get(0).getRegisteredAt());
+        page = conferenceApi.getConferenceRoster(user, websafeKey, 1, page.getNextCursor());
+        assertEquals("attendee", page.getItems().get(0).getDisplayName());
+
+        assertTrue(conferenceApi.unregisterFromConference(attendee, websafeKey).getResult());
+        assertEquals(1, (int) conferenceApi.getRegistrationCount(websafeKey).getResult());
+        assertNull(ofy().load().key(Registration.key("987654321", conference.getKey())).now());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testRosterForOrganizerOnly() throws Exception {
+        Conference conference = new Conference(1L, "organizer", new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 10));
+        ofy().save().entity(conference).now();
+        conferenceApi.getConferenceRoster(user, conference.getWebsafeKey(), null, null);
+    }
 
     /*
     @Test
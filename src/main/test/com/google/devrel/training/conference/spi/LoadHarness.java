@@ -0,0 +1,421 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.tools.development.testing.LocalServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * Drives weighted mixes of operations from many threads against the local service stubs and
+ * reports the throughput, the latency percentiles and the transaction retries of each one.
+ *
+ * Every operation runs like a request of its own: on a fresh App Engine environment and with
+ * the Objectify session cleared afterwards. Retries are counted on the datastore calls: each
+ * commit that fails with a concurrent transaction error is retried by Objectify.
+ */
+class LoadHarness {
+
+    /**
+     * One call of an endpoint.
+     */
+    interface Operation {
+        void run(Random random) throws Exception;
+    }
+
+    /**
+     * A LocalServiceTestHelper that hands out a new environment for every worker thread.
+     */
+    static class Helper extends LocalServiceTestHelper {
+        Helper(LocalServiceTestConfig... configs) {
+            super(configs);
+        }
+
+        ApiProxy.Environment requestEnvironment() {
+            return newEnvironment();
+        }
+    }
+
+    /** DatastoreV3Pb.Error.ErrorCode.CONCURRENT_TRANSACTION */
+    private static final int CONCURRENT_TRANSACTION = 2;
+
+    private final Helper helper;
+
+    private final int threads;
+
+    private final long durationMillis;
+
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+
+    private final Map<String, Integer> weights = new LinkedHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> retries = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<String> currentOperation = new ThreadLocal<>();
+
+    LoadHarness(Helper helper, int threads, long durationMillis) {
+        this.helper = helper;
+        this.threads = threads;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Adds an operation to the mix.
+     *
+     * @param name the name of the operation in the report, usually the endpoint.
+     * @param weight the share of the calls that go to this operation.
+     * @param operation the operation.
+     * @return this harness.
+     */
+    LoadHarness add(String name, int weight, Operation operation) {
+        operations.put(name, operation);
+        weights.put(name, weight);
+        retries.put(name, new AtomicLong());
+        return this;
+    }
+
+    /**
+     * Runs the mix from all the threads for the configured duration.
+     *
+     * @return the report of the run.
+     * @throws InterruptedException when interrupted while waiting for the threads.
+     */
+    @SuppressWarnings("unchecked")
+    Report run() throws InterruptedException {
+        final String[] mix = mix();
+        final List<Map<String, Samples>> results = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final Map<String, Samples> samples = new LinkedHashMap<>();
+            for (String name : operations.keySet()) {
+                samples.put(name, new Samples());
+            }
+            results.add(samples);
+            final ApiProxy.Environment environment = helper.requestEnvironment();
+            final Random random = new Random(i);
+            workers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ApiProxy.setEnvironmentForCurrentThread(environment);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+                    while (System.nanoTime() < deadline) {
+                        String name = mix[random.nextInt(mix.length)];
+                        samples.get(name).add(call(name, random));
+                    }
+                }
+            }, "load-" + i));
+        }
+
+        ApiProxy.Delegate<ApiProxy.Environment> delegate = ApiProxy.getDelegate();
+        ApiProxy.setDelegate(new RetryCountingDelegate(delegate));
+        long startNanos = System.nanoTime();
+        try {
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            ApiProxy.setDelegate(delegate);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        Report report = new Report(elapsedNanos);
+        for (String name : operations.keySet()) {
+            Samples merged = new Samples();
+            for (Map<String, Samples> samples : results) {
+                merged.addAll(samples.get(name));
+            }
+            report.add(name, merged, retries.get(name).get());
+        }
+        return report;
+    }
+
+    private String[] mix() {
+        List<String> mix = new ArrayList<>();
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            for (int i = 0; i < weight.getValue(); i++) {
+                mix.add(weight.getKey());
+            }
+        }
+        return mix.toArray(new String[mix.size()]);
+    }
+
+    /**
+     * Calls an operation and returns its latency in nanoseconds, negative when it failed.
+     */
+    private long call(String name, Random random) {
+        currentOperation.set(name);
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            operations.get(name).run(random);
+        } catch (Exception e) {
+            failed = true;
+        } finally {
+            // The end of the request, like the ObjectifyFilter
+            ofy().clear();
+            currentOperation.remove();
+        }
+        long latency = Math.max(System.nanoTime() - start, 1);
+        return failed ? -latency : latency;
+    }
+
+    private void countRetry(String name) {
+        if (name != null) {
+            retries.get(name).incrementAndGet();
+        }
+    }
+
+    private static boolean isConcurrentTransaction(Throwable e) {
+        return e instanceof ApiProxy.ApplicationException
+                && ((ApiProxy.ApplicationException) e).getApplicationError()
+                        == CONCURRENT_TRANSACTION;
+    }
+
+    /**
+     * Passes the calls through to the local services, counting the commits that failed with a
+     * concurrent transaction error against the operation that made them.
+     */
+    private class RetryCountingDelegate implements ApiProxy.Delegate<ApiProxy.Environment> {
+
+        private final ApiProxy.Delegate<ApiProxy.Environment> delegate;
+
+        RetryCountingDelegate(ApiProxy.Delegate<ApiProxy.Environment> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public byte[] makeSyncCall(ApiProxy.Environment environment, String packageName,
+                String methodName, byte[] request) {
+            try {
+                return delegate.makeSyncCall(environment, packageName, methodName, request);
+            } catch (ApiProxy.ApplicationException e) {
+                if (isConcurrentTransaction(e)) {
+                    countRetry(currentOperation.get());
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String packageName,
+                String methodName, byte[] request, ApiProxy.ApiConfig apiConfig) {
+            Future<byte[]> future = delegate.makeAsyncCall(environment, packageName, methodName,
+                    request, apiConfig);
+            if (!"Commit".equals(methodName)) {
+                return future;
+            }
+            return new CommitFuture(future, currentOperation.get());
+        }
+
+        @Override
+        public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+            delegate.log(environment, record);
+        }
+
+        @Override
+        public void flushLogs(ApiProxy.Environment environment) {
+            delegate.flushLogs(environment);
+        }
+
+        @Override
+        public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+            return delegate.getRequestThreads(environment);
+        }
+    }
+
+    /**
+     * A pending commit, counted once as a retry if it fails with a concurrent transaction error.
+     */
+    private class CommitFuture implements Future<byte[]> {
+
+        private final Future<byte[]> future;
+
+        private final String name;
+
+        private boolean counted;
+
+        CommitFuture(Future<byte[]> future, String name) {
+            this.future = future;
+            this.name = name;
+        }
+
+        @Override
+        public byte[] get() throws InterruptedException, ExecutionException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                count(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public byte[] get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return future.get(timeout, unit);
+            } catch (ExecutionException e) {
+                count(e);
+                throw e;
+            }
+        }
+
+        private synchronized void count(ExecutionException e) {
+            if (!counted && isConcurrentTransaction(e.getCause())) {
+                counted = true;
+                countRetry(name);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+    }
+
+    /**
+     * The latencies of one operation, negative for the failed calls.
+     */
+    static class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(Samples samples) {
+            for (int i = 0; i < samples.size; i++) {
+                add(samples.values[i]);
+            }
+        }
+    }
+
+    /**
+     * The results of a run, one line per operation.
+     */
+    static class Report {
+
+        private final long elapsedNanos;
+
+        private final Map<String, Line> lines = new LinkedHashMap<>();
+
+        Report(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void add(String name, Samples samples, long retries) {
+            long[] latencies = new long[samples.size];
+            int failures = 0;
+            for (int i = 0; i < samples.size; i++) {
+                long value = samples.values[i];
+                if (value < 0) {
+                    failures++;
+                }
+                latencies[i] = Math.abs(value);
+            }
+            Arrays.sort(latencies);
+            lines.put(name, new Line(latencies, failures, retries));
+        }
+
+        Line get(String name) {
+            return lines.get(name);
+        }
+
+        /**
+         * The results of one operation.
+         */
+        class Line {
+            private final long[] latencies;
+            private final int failures;
+            private final long retries;
+
+            Line(long[] latencies, int failures, long retries) {
+                this.latencies = latencies;
+                this.failures = failures;
+                this.retries = retries;
+            }
+
+            int getCalls() {
+                return latencies.length;
+            }
+
+            int getFailures() {
+                return failures;
+            }
+
+            long getRetries() {
+                return retries;
+            }
+
+            double getThroughput() {
+                return latencies.length / (elapsedNanos / 1e9);
+            }
+
+            /**
+             * Returns the latency percentile in milliseconds, by nearest rank.
+             */
+            double getPercentileMillis(double percentile) {
+                if (latencies.length == 0) {
+                    return 0;
+                }
+                int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+                return latencies[Math.max(rank, 1) - 1] / 1e6;
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(
+                    "%-26s %8s %8s %9s %9s %9s %9s %8s%n", "operation", "calls", "failed",
+                    "ops/s", "p50 ms", "p99 ms", "p999 ms", "retries"));
+            for (Map.Entry<String, Line> entry : lines.entrySet()) {
+                Line line = entry.getValue();
+                report.append(String.format("%-26s %8d %8d %9.1f %9.2f %9.2f %9.2f %8d%n",
+                        entry.getKey(), line.getCalls(), line.getFailures(),
+                        line.getThroughput(), line.getPercentileMillis(50),
+                        line.getPercentileMillis(99), line.getPercentileMillis(99.9),
+                        line.getRetries()));
+            }
+            return report.toString();
+        }
+    }
+}
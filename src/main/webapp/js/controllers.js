@@ -417,6 +417,38 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
         }
     };
 
+    /**
+     * Invokes a paged method of the conference API until the last page, following the nextCursor
+     * returned with each page. A page may be short, or even empty, while more conferences follow:
+     * only the absence of nextCursor ends the list.
+     *
+     * @param method the API method, e.g. gapi.client.conference.queryConferences.
+     * @param request the request of the first page.
+     * @param onSuccess called with the conferences of all the pages.
+     * @param onError called with the response of the page that failed.
+     */
+    var fetchAllPages = function (method, request, onSuccess, onError) {
+        var conferences = [];
+        var fetchPage = function (cursor) {
+            method(angular.extend({}, request, {cursor: cursor})).
+                execute(function (resp) {
+                    if (resp.error) {
+                        onError(resp);
+                        return;
+                    }
+                    angular.forEach(resp.items, function (conference) {
+                        conferences.push(conference);
+                    });
+                    if (resp.nextCursor) {
+                        fetchPage(resp.nextCursor);
+                    } else {
+                        onSuccess(conferences);
+                    }
+                });
+        };
+        fetchPage(undefined);
+    };
+
     /**
      * Invokes the conference.queryConferences API.
      */
@@ -435,28 +467,28 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
             }
         }
         $scope.loading = true;
-        gapi.client.conference.queryConferences(sendFilters).
-            execute(function (resp) {
+        fetchAllPages(gapi.client.conference.queryConferences, sendFilters,
+            function (conferences) {
                 $scope.$apply(function () {
+                    // The requests have succeeded.
                     $scope.loading = false;
-                    if (resp.error) {
-                        // The request has failed.
-                        var errorMessage = resp.error.message || '';
-                        $scope.messages = 'Failed to query conferences : ' + errorMessage;
-                        $scope.alertStatus = 'warning';
-                        $log.error($scope.messages + ' filters : ' + JSON.stringify(sendFilters));
-                    } else {
-                        // The request has succeeded.
-                        $scope.submitted = false;
-                        $scope.messages = 'Query succeeded : ' + JSON.stringify(sendFilters);
-                        $scope.alertStatus = 'success';
-                        $log.info($scope.messages);
+                    $scope.submitted = false;
+                    $scope.messages = 'Query succeeded : ' + JSON.stringify(sendFilters);
+                    $scope.alertStatus = 'success';
+                    $log.info($scope.messages);
 
-                        $scope.conferences = [];
-                        angular.forEach(resp.items, function (conference) {
-                            $scope.conferences.push(conference);
-                        });
-                    }
+                    $scope.conferences = conferences;
+                    $scope.submitted = true;
+                });
+            },
+            function (resp) {
+                $scope.$apply(function () {
+                    // A request has failed.
+                    $scope.loading = false;
+                    var errorMessage = resp.error.message || '';
+                    $scope.messages = 'Failed to query conferences : ' + errorMessage;
+                    $scope.alertStatus = 'warning';
+                    $log.error($scope.messages + ' filters : ' + JSON.stringify(sendFilters));
                     $scope.submitted = true;
                 });
             });
@@ -467,32 +499,32 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      */
     $scope.getConferencesCreated = function () {
         $scope.loading = true;
-        gapi.client.conference.getConferencesCreated().
-            execute(function (resp) {
+        fetchAllPages(gapi.client.conference.getConferencesCreated, {},
+            function (conferences) {
                 $scope.$apply(function () {
+                    // The requests have succeeded.
                     $scope.loading = false;
-                    if (resp.error) {
-                        // The request has failed.
-                        var errorMessage = resp.error.message || '';
-                        $scope.messages = 'Failed to query the conferences created : ' + errorMessage;
-                        $scope.alertStatus = 'warning';
-                        $log.error($scope.messages);
+                    $scope.submitted = false;
+                    $scope.messages = 'Query succeeded : Conferences you have created';
+                    $scope.alertStatus = 'success';
+                    $log.info($scope.messages);
 
-                        if (resp.code && resp.code == HTTP_ERRORS.UNAUTHORIZED) {
-                            oauth2Provider.showLoginModal();
-                            return;
-                        }
-                    } else {
-                        // The request has succeeded.
-                        $scope.submitted = false;
-                        $scope.messages = 'Query succeeded : Conferences you have created';
-                        $scope.alertStatus = 'success';
-                        $log.info($scope.messages);
+                    $scope.conferences = conferences;
+                    $scope.submitted = true;
+                });
+            },
+            function (resp) {
+                $scope.$apply(function () {
+                    // A request has failed.
+                    $scope.loading = false;
+                    var errorMessage = resp.error.message || '';
+                    $scope.messages = 'Failed to query the conferences created : ' + errorMessage;
+                    $scope.alertStatus = 'warning';
+                    $log.error($scope.messages);
 
-                        $scope.conferences = [];
-                        angular.forEach(resp.items, function (conference) {
-                            $scope.conferences.push(conference);
-                        });
+                    if (resp.code && resp.code == HTTP_ERRORS.UNAUTHORIZED) {
+                        oauth2Provider.showLoginModal();
+                        return;
                     }
                     $scope.submitted = true;
                 });